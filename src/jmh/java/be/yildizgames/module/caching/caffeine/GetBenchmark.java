@@ -0,0 +1,131 @@
+package be.yildizgames.module.caching.caffeine;
+
+import be.yildizgames.module.caching.Cache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Throughput of get and put, single threaded and contended, on hit heavy and miss heavy workloads.
+ * The cache holds 10 000 entries, the hit workload requests 10 000 distinct keys, the miss workload 1 000 000,
+ * both with a Zipfian distribution.
+ * Run with: mvn -Pbenchmark verify -Djmh.args="GetBenchmark"
+ * @author Gregory Van den Borre
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GetBenchmark {
+
+    private static final int MAX_ITEM = 10_000;
+
+    private static final int SAMPLES = 1 << 20;
+
+    private static final String NAME = "benchmark";
+
+    private static final Function<Integer, String> PROVIDER = String::valueOf;
+
+    @Param({"caffeine", "transparent"})
+    public String implementation;
+
+    @Param({"hit", "miss"})
+    public String workload;
+
+    private Cache<Integer, String> cache;
+
+    private int[] keys;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        clean();
+        this.cache = "transparent".equals(this.implementation)
+                ? new TransparentCaffeineCache<>(NAME, MAX_ITEM, Duration.ofDays(1))
+                : new CaffeineCache<>(NAME, MAX_ITEM, Duration.ofDays(1));
+        this.keys = Zipfian.keys("hit".equals(this.workload) ? MAX_ITEM : MAX_ITEM * 100, SAMPLES, 42);
+        for (int i = 0; i < MAX_ITEM; i++) {
+            this.cache.put(i, PROVIDER.apply(i));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        this.cache.close();
+        clean();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Optional<String> get(Cursor cursor) {
+        return this.cache.get(this.keys[cursor.next()], PROVIDER);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Optional<String> getContended(Cursor cursor) {
+        return this.cache.get(this.keys[cursor.next()], PROVIDER);
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(6)
+    public Optional<String> readWriteGet(Cursor cursor) {
+        return this.cache.get(this.keys[cursor.next()], PROVIDER);
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(2)
+    public void readWritePut(Cursor cursor) {
+        var key = this.keys[cursor.next()];
+        this.cache.put(key, PROVIDER.apply(key));
+    }
+
+    private static void clean() throws IOException {
+        Files.deleteIfExists(Path.of(CaffeineCache.DATA.replace("{NAME}", NAME)));
+        Files.deleteIfExists(Path.of(CaffeineCache.PREVIOUS_DATA.replace("{NAME}", NAME)));
+        Files.deleteIfExists(Path.of(CaffeineCache.METADATA.replace("{NAME}", NAME)));
+    }
+
+    /**
+     * Position of a thread in the key sequence, each thread starting at a different position.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        private int position;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            this.position = (int) (Thread.currentThread().threadId() * 7919) & (SAMPLES - 1);
+        }
+
+        int next() {
+            this.position = (this.position + 1) & (SAMPLES - 1);
+            return this.position;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package be.yildizgames.module.caching.caffeine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to save a cache on close, and to load it when it is opened, depending on the number of entries and the
+ * persistence mode.
+ * Run with: mvn -Pbenchmark verify -Djmh.args="PersistenceBenchmark"
+ * @author Gregory Van den Borre
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Thread)
+public class PersistenceBenchmark {
+
+    private static final String NAME = "benchmark";
+
+    @Param({"1000", "100000", "1000000"})
+    public int entries;
+
+    @Param({"SNAPSHOT", "LOG", "MAPPED"})
+    public PersistenceMode mode;
+
+    @Benchmark
+    public void save(Filled filled) {
+        filled.cache.close();
+    }
+
+    @Benchmark
+    public CaffeineCache<Integer, String> load(Persisted persisted) {
+        persisted.loaded = this.create();
+        return persisted.loaded;
+    }
+
+    private CaffeineCache<Integer, String> create() {
+        return CaffeineCacheBuilder.<Integer, String>newBuilder(NAME).maximumSize(this.entries).expireAfterWrite(Duration.ofDays(1)).persistence(this.mode).serializer(Serializer.of(Codec.INTEGER, Codec.STRING)).build();
+    }
+
+    private void fill(CaffeineCache<Integer, String> cache) {
+        for (int i = 0; i < this.entries; i++) {
+            cache.put(i, "value " + i);
+        }
+    }
+
+    private static void clean() throws IOException {
+        Files.deleteIfExists(Path.of(CaffeineCache.DATA.replace("{NAME}", NAME)));
+        Files.deleteIfExists(Path.of(CaffeineCache.PREVIOUS_DATA.replace("{NAME}", NAME)));
+        Files.deleteIfExists(Path.of(CaffeineCache.METADATA.replace("{NAME}", NAME)));
+        Files.deleteIfExists(Path.of(CaffeineCache.INDEX.replace("{NAME}", NAME)));
+        Files.deleteIfExists(Path.of(CaffeineCache.STORE.replace("{NAME}", NAME)));
+        try (var files = Files.list(Path.of(""))) {
+            for (var file : files.filter(f -> f.getFileName().toString().startsWith(CaffeineCache.LOG.replace("{NAME}", NAME))).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    /**
+     * Cache filled before each save, without any persisted data.
+     */
+    @State(Scope.Thread)
+    public static class Filled {
+
+        private CaffeineCache<Integer, String> cache;
+
+        @Setup(Level.Invocation)
+        public void setUp(PersistenceBenchmark benchmark) throws IOException {
+            clean();
+            this.cache = benchmark.create();
+            benchmark.fill(this.cache);
+        }
+
+        @TearDown(Level.Invocation)
+        public void tearDown() throws IOException {
+            clean();
+        }
+    }
+
+    /**
+     * Persisted data written once, and loaded by each invocation.
+     */
+    @State(Scope.Thread)
+    public static class Persisted {
+
+        private CaffeineCache<Integer, String> loaded;
+
+        @Setup(Level.Trial)
+        public void setUp(PersistenceBenchmark benchmark) throws IOException {
+            clean();
+            try (var cache = benchmark.create()) {
+                benchmark.fill(cache);
+            }
+        }
+
+        @TearDown(Level.Invocation)
+        public void close() {
+            this.loaded.close();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            clean();
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package be.yildizgames.module.caching.caffeine;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Generate keys following a Zipfian distribution, a few keys being requested most of the time, like in real workloads.
+ * The keys are generated upfront, so the benchmarks do not measure the generation.
+ * @author Gregory Van den Borre
+ */
+final class Zipfian {
+
+    private static final double EXPONENT = 0.99;
+
+    private Zipfian() {
+        super();
+    }
+
+    /**
+     * Generate a sequence of keys.
+     * @param keySpace Number of distinct keys, from 0 to keySpace - 1, 0 being the most requested.
+     * @param count Number of keys to generate, must be a power of 2 so it can be cycled with a mask.
+     * @param seed Random generator seed.
+     * @return The generated keys.
+     */
+    static int[] keys(int keySpace, int count, long seed) {
+        var cumulative = new double[keySpace];
+        var sum = 0.0;
+        for (int i = 0; i < keySpace; i++) {
+            sum += 1.0 / Math.pow(i + 1, EXPONENT);
+            cumulative[i] = sum;
+        }
+        var random = new SplittableRandom(seed);
+        var result = new int[count];
+        for (int i = 0; i < count; i++) {
+            var index = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+            result[i] = Math.min(keySpace - 1, index < 0 ? -index - 1 : index);
+        }
+        return result;
+    }
+}
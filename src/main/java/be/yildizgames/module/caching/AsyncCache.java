@@ -0,0 +1,89 @@
+package be.yildizgames.module.caching;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * <pre>
+ * Cache to retrieve data from a slow provider as fast as possible, without blocking the caller.
+ * Missing entries are retrieved from the provider asynchronously, the caller thread never waits for it,
+ * and concurrent requests for the same missing key share the same retrieval.
+ * The cache is not responsible for the provider content, and can return empty values.
+ * Opening 2 instances of the same cache(same name) in parallel is not guarantee to work properly.
+ * A {@link CacheManager} refuses to open a name it already holds open.
+ * </pre>
+ * @param <K> Type of the key used to retrieve the data.
+ * @param <V> Type of the data associated to the key.
+ * @author Gregory Van den Borre
+ */
+public interface AsyncCache<K, V> extends AutoCloseable {
+
+    /**
+     * Put manually a file in the cache.
+     * @param key Key that will be used to retrieve the element (no null).
+     * @param value Value that will be returned on get (no null).
+     * @throws NullPointerException if key or value is null.
+     */
+    void put(K key, V value);
+
+    /**
+     * Put manually a file in the cache, associated to tags, so it can be invalidated with any of them.
+     * @param key Key that will be used to retrieve the element (no null).
+     * @param value Value that will be returned on get (no null).
+     * @param tags Tags to associate to the element, added to the tags it already has (no null).
+     * @throws NullPointerException if key, value or tags is null.
+     */
+    void put(K key, V value, String... tags);
+
+    /**
+     * Retrieve an element from the cache, if the entry is not yet stored, the addValue data provider is called
+     * asynchronously to feed the cache.
+     *
+     * @param key Key that will be used to retrieve the element (no null).
+     * @param addValue Data provider to feed the cache if the entry is not yet stored (no null).
+     * @return A future completed with the value associated to the provided key, or with null if the provider returned
+     * null, or exceptionally if the provider failed (no null).
+     * @throws NullPointerException if key or addValue is null.
+     */
+    CompletableFuture<V> get(K key, Function<? super K, ? extends V> addValue);
+
+    /**
+     * Retrieve an element from the cache, like get, and associate it to tags once the value is available, whether it
+     * was already stored or not.
+     *
+     * @param key Key that will be used to retrieve the element (no null).
+     * @param addValue Data provider to feed the cache if the entry is not yet stored (no null).
+     * @param tags Tags to associate to the element if a value is returned, added to the tags it already has (no null).
+     * @return A future completed with the value associated to the provided key, or with null if the provider returned
+     * null, or exceptionally if the provider failed (no null).
+     * @throws NullPointerException if key, addValue or tags is null.
+     */
+    CompletableFuture<V> get(K key, Function<? super K, ? extends V> addValue, String... tags);
+
+    /**
+     * Remove an element from the cache, and from its persisted content, the next get will call the data provider.
+     * @param key Key of the element to remove (no null).
+     * @throws NullPointerException if key is null.
+     */
+    void invalidate(K key);
+
+    /**
+     * Remove all the elements sharing a tag from the cache, and from its persisted content.
+     * @param tag Tag of the elements to remove (no null).
+     * @throws NullPointerException if tag is null.
+     */
+    void invalidateTag(String tag);
+
+    /**
+     * Remove all the elements from the cache, and from its persisted content.
+     */
+    void invalidateAll();
+
+    /**
+     * Provide the statistics of the cache since it was opened.
+     * @return A snapshot of the statistics, empty if the cache does not record any (no null).
+     */
+    default CacheStatistics statistics() {
+        return CacheStatistics.EMPTY;
+    }
+}
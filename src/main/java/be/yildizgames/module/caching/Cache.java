@@ -1,6 +1,9 @@
 package be.yildizgames.module.caching;
 
+import java.util.Collection;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.function.Function;
 
 /**
@@ -10,6 +13,7 @@ import java.util.function.Function;
  * The types are for the ease of use of the cache, but in practice, the cache is able to hold any type.
  * So closing a cache, to force the persistence of its content and recreate it with the same name and different type should work.
  * Opening 2 instances of the same cache(same name) in parallel is not guarantee to work properly.
+ * A {@link CacheManager} refuses to open a name it already holds open.
  * </pre>
  * @param <K> Type of the key used to retrieve the data.
  * @param <V> Type of the data associated to the key.
@@ -25,6 +29,15 @@ public interface Cache<K, V> extends AutoCloseable {
      */
     void put(K key, V value);
 
+    /**
+     * Put manually a file in the cache, associated to tags, so it can be invalidated with any of them.
+     * @param key Key that will be used to retrieve the element (no null).
+     * @param value Value that will be returned on get (no null).
+     * @param tags Tags to associate to the element, added to the tags it already has (no null).
+     * @throws NullPointerException if key, value or tags is null.
+     */
+    void put(K key, V value, String... tags);
+
     /**
      * Retrieve an element from the cache, this will always return a value,
      * as long as it can be retrieved at least from the addValue data provider.
@@ -35,4 +48,53 @@ public interface Cache<K, V> extends AutoCloseable {
      * @throws NullPointerException if key or addValue is null.
      */
     Optional<V> get(K key, Function<? super K, ? extends V> addValue);
+
+    /**
+     * Retrieve an element from the cache, like get, and associate it to tags, whether it was already stored or not.
+     *
+     * @param key Key that will be used to retrieve the element (no null).
+     * @param addValue Data provider to feed the cache if the entry is not yet stored (no null).
+     * @param tags Tags to associate to the element if a value is returned, added to the tags it already has (no null).
+     * @return The optional value associated to the provided key (no null).
+     * @throws NullPointerException if key, addValue or tags is null.
+     */
+    Optional<V> get(K key, Function<? super K, ? extends V> addValue, String... tags);
+
+    /**
+     * Retrieve several elements from the cache at once, all the entries not yet stored are retrieved with a single call
+     * to the addValues data provider.
+     *
+     * @param keys Keys that will be used to retrieve the elements (no null, no null element).
+     * @param addValues Data provider receiving all the missing keys, returning the values it could retrieve (no null).
+     * @return The values associated to the provided keys, keys without value are not in the map (no null).
+     * @throws NullPointerException if keys, one of the keys or addValues is null.
+     */
+    Map<K, V> getAll(Collection<? extends K> keys, Function<? super Set<? extends K>, ? extends Map<? extends K, ? extends V>> addValues);
+
+    /**
+     * Remove an element from the cache, and from its persisted content, the next get will call the data provider.
+     * @param key Key of the element to remove (no null).
+     * @throws NullPointerException if key is null.
+     */
+    void invalidate(K key);
+
+    /**
+     * Remove all the elements sharing a tag from the cache, and from its persisted content.
+     * @param tag Tag of the elements to remove (no null).
+     * @throws NullPointerException if tag is null.
+     */
+    void invalidateTag(String tag);
+
+    /**
+     * Remove all the elements from the cache, and from its persisted content.
+     */
+    void invalidateAll();
+
+    /**
+     * Provide the statistics of the cache since it was opened.
+     * @return A snapshot of the statistics, empty if the cache does not record any (no null).
+     */
+    default CacheStatistics statistics() {
+        return CacheStatistics.EMPTY;
+    }
 }
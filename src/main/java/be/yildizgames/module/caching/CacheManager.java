@@ -0,0 +1,49 @@
+package be.yildizgames.module.caching;
+
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * <pre>
+ * Registry owning a set of named caches, so they share their maintenance resources and their memory budget, and are
+ * persisted together.
+ * A manager never holds two open caches with the same name, opening a name already open is refused.
+ * Closing the manager persists and closes all its caches concurrently.
+ * </pre>
+ * @author Gregory Van den Borre
+ */
+public interface CacheManager extends AutoCloseable {
+
+    /**
+     * @return The names of the open caches (no null).
+     */
+    Set<String> names();
+
+    /**
+     * Retrieve an open cache.
+     * The types are not checked, the caller is expected to use the types the cache was opened with.
+     * @param name Name of the cache (no null).
+     * @param <K> Type of the key used to retrieve the data.
+     * @param <V> Type of the data associated to the key.
+     * @return The cache, empty if no cache with this name is open (no null).
+     */
+    <K, V> Optional<Cache<K, V>> cache(String name);
+
+    /**
+     * Persist the content of all the open caches, concurrently, without closing them.
+     */
+    void checkpoint();
+
+    /**
+     * Close a cache and remove it from this manager, so its name can be opened again.
+     * @param name Name of the cache (no null).
+     * @return true if the cache was open.
+     */
+    boolean close(String name);
+
+    /**
+     * Persist and close all the open caches, concurrently, and release the shared resources.
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,80 @@
+package be.yildizgames.module.caching;
+
+/**
+ * <pre>
+ * Snapshot of the statistics of a cache since it was opened.
+ * All the durations are in nanoseconds, and all the sizes in bytes.
+ * Mutable: no.
+ * Thread safe: yes.
+ * </pre>
+ * @param hitCount Number of requests which found their value in the cache.
+ * @param missCount Number of requests which did not find their value in the cache.
+ * @param loadSuccessCount Number of values successfully retrieved from a data provider or from the persisted data.
+ * @param loadFailureCount Number of retrievals which failed or returned no value.
+ * @param totalLoadTime Total time spent retrieving values.
+ * @param loadTimeP50 Median time to retrieve a value, approximated within 12.5%.
+ * @param loadTimeP90 90th percentile of the time to retrieve a value, approximated within 12.5%.
+ * @param loadTimeP99 99th percentile of the time to retrieve a value, approximated within 12.5%.
+ * @param evictionSizeCount Number of entries evicted because the cache was full.
+ * @param evictionExpiredCount Number of entries evicted because they expired.
+ * @param evictionCollectedCount Number of entries evicted because they were garbage collected.
+ * @param persistenceLoadTime Time spent reading the persisted data when the cache was opened.
+ * @param persistenceLoadBytes Size of the persisted data read when the cache was opened.
+ * @param persistenceSaveTime Time spent writing the persisted data the last time it was saved, at a checkpoint or
+ *                            when the cache was closed.
+ * @param persistenceSaveBytes Size of the persisted data written the last time it was saved, at a checkpoint or when
+ *                             the cache was closed.
+ * @author Gregory Van den Borre
+ */
+public record CacheStatistics(
+        long hitCount,
+        long missCount,
+        long loadSuccessCount,
+        long loadFailureCount,
+        long totalLoadTime,
+        long loadTimeP50,
+        long loadTimeP90,
+        long loadTimeP99,
+        long evictionSizeCount,
+        long evictionExpiredCount,
+        long evictionCollectedCount,
+        long persistenceLoadTime,
+        long persistenceLoadBytes,
+        long persistenceSaveTime,
+        long persistenceSaveBytes) {
+
+    /**
+     * Statistics of a cache not recording anything.
+     */
+    public static final CacheStatistics EMPTY = new CacheStatistics(0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0);
+
+    /**
+     * @return The number of requests made to the cache.
+     */
+    public long requestCount() {
+        return this.hitCount + this.missCount;
+    }
+
+    /**
+     * @return The ratio of requests which found their value in the cache, 1 if no request was made.
+     */
+    public double hitRate() {
+        var requests = this.requestCount();
+        return requests == 0 ? 1.0 : (double) this.hitCount / requests;
+    }
+
+    /**
+     * @return The average time to retrieve a value, 0 if no value was retrieved.
+     */
+    public double averageLoadTime() {
+        var loads = this.loadSuccessCount + this.loadFailureCount;
+        return loads == 0 ? 0.0 : (double) this.totalLoadTime / loads;
+    }
+
+    /**
+     * @return The number of entries evicted, for any cause.
+     */
+    public long evictionCount() {
+        return this.evictionSizeCount + this.evictionExpiredCount + this.evictionCollectedCount;
+    }
+}
@@ -0,0 +1,43 @@
+package be.yildizgames.module.caching;
+
+/**
+ * Management interface exposing the statistics of a cache through JMX, see {@link CacheStatistics} for the meaning of
+ * each attribute, durations are in nanoseconds and sizes in bytes.
+ * @author Gregory Van den Borre
+ */
+public interface CacheStatisticsMXBean {
+
+    String getName();
+
+    long getHitCount();
+
+    long getMissCount();
+
+    double getHitRate();
+
+    long getLoadSuccessCount();
+
+    long getLoadFailureCount();
+
+    double getAverageLoadTime();
+
+    long getLoadTimeP50();
+
+    long getLoadTimeP90();
+
+    long getLoadTimeP99();
+
+    long getEvictionSizeCount();
+
+    long getEvictionExpiredCount();
+
+    long getEvictionCollectedCount();
+
+    long getPersistenceLoadTime();
+
+    long getPersistenceLoadBytes();
+
+    long getPersistenceSaveTime();
+
+    long getPersistenceSaveBytes();
+}
@@ -0,0 +1,165 @@
+package be.yildizgames.module.caching.caffeine;
+
+import be.yildizgames.module.caching.AsyncCache;
+import be.yildizgames.module.caching.CacheStatistics;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+/**
+ * <pre>
+ * Asynchronous Caffeine implementation for the cache system, backed by a Caffeine AsyncCache.
+ * The data providers are run on an executor, using a virtual thread per retrieval by default, so neither the caller
+ * thread nor the cache entry lock is held while a provider is running.
+ * Persistence is the same as for {@link CaffeineCache}.
+ * Mutable: yes.
+ * Thread safe: yes.
+ * Accept null: no.
+ * Returns null: no.
+ * Side effects: file read and write.
+ * Throws exceptions: yes.
+ * </pre>
+ * @param <K> Type of the key used to retrieve the data.
+ * @param <V> Type of the data associated to the key.
+ * @author Gregory Van den Borre
+ */
+public class AsyncCaffeineCache<K, V> implements AsyncCache<K, V> {
+
+    /**
+     * Cache holding the entries and their persistence.
+     */
+    private final CaffeineCache<K, V> cache;
+
+    /**
+     * Executor created by this cache, shut down when it is closed, null if the executor was provided.
+     */
+    private final ExecutorService ownedExecutor;
+
+    /**
+     * Create a new cache instance, persisted as a snapshot, running the data providers on virtual threads.
+     * If a cache file matching the name exists it will try to be loaded, else a new empty cache will be created.
+     * @param name Cache name expected to be unique, non-unique name may result in an overwrite of disk file data,
+     *             resulting on a performance penalty or worse, wrong data. (no null, not empty)
+     * @param maxItem The maximum number of items to be accepted by the cache. (> 0)
+     * @param duration Maximum time before the data from the cache are refreshed after writing.(no null, > 0)
+     * @throws IllegalArgumentException for any parameter not following the restrictions.
+     */
+    public AsyncCaffeineCache(String name, long maxItem, Duration duration) {
+        this(name, maxItem, duration, PersistenceMode.SNAPSHOT);
+    }
+
+    /**
+     * Create a new cache instance, running the data providers on virtual threads.
+     * If a cache file matching the name exists it will try to be loaded, else a new empty cache will be created.
+     * @param name Cache name expected to be unique, non-unique name may result in an overwrite of disk file data,
+     *             resulting on a performance penalty or worse, wrong data. (no null, not empty)
+     * @param maxItem The maximum number of items to be accepted by the cache. (> 0)
+     * @param duration Maximum time before the data from the cache are refreshed after writing.(no null, > 0)
+     * @param mode Persistence strategy. (no null)
+     * @throws IllegalArgumentException for any parameter not following the restrictions.
+     */
+    public AsyncCaffeineCache(String name, long maxItem, Duration duration, PersistenceMode mode) {
+        this(name, maxItem, duration, mode, Serializer.java(), Executors.newVirtualThreadPerTaskExecutor(), true);
+    }
+
+    /**
+     * Create a new cache instance.
+     * If a cache file matching the name exists it will try to be loaded, else a new empty cache will be created.
+     * @param name Cache name expected to be unique, non-unique name may result in an overwrite of disk file data,
+     *             resulting on a performance penalty or worse, wrong data. (no null, not empty)
+     * @param maxItem The maximum number of items to be accepted by the cache. (> 0)
+     * @param duration Maximum time before the data from the cache are refreshed after writing.(no null, > 0)
+     * @param mode Persistence strategy. (no null)
+     * @param serializer Serializer used to encode the entries on disk. (no null)
+     * @param executor Executor running the data providers, it is not shut down when the cache is closed. (no null)
+     * @throws IllegalArgumentException for any parameter not following the restrictions.
+     */
+    public AsyncCaffeineCache(String name, long maxItem, Duration duration, PersistenceMode mode, Serializer<K, V> serializer, Executor executor) {
+        this(name, maxItem, duration, mode, serializer, executor, false);
+    }
+
+    /**
+     * Create a new cache instance from a builder, running the data providers on the builder executor, or on virtual
+     * threads if none is set.
+     * @param builder Builder holding the cache options.
+     * @throws IllegalArgumentException for any option not following the restrictions.
+     */
+    AsyncCaffeineCache(CaffeineCacheBuilder<K, V> builder) {
+        this(builder, builder.executor == null ? Executors.newVirtualThreadPerTaskExecutor() : builder.executor, builder.executor == null);
+    }
+
+    private AsyncCaffeineCache(String name, long maxItem, Duration duration, PersistenceMode mode, Serializer<K, V> serializer, Executor executor, boolean owned) {
+        this(CaffeineCacheBuilder.<K, V>newBuilder(name).maximumSize(maxItem).expireAfterWrite(duration).persistence(mode).serializer(serializer), executor, owned);
+    }
+
+    private AsyncCaffeineCache(CaffeineCacheBuilder<K, V> builder, Executor executor, boolean owned) {
+        super();
+        if(executor == null) {
+            throw new IllegalArgumentException("Executor cannot be null.");
+        }
+        try {
+            this.cache = new CaffeineCache<>(builder, executor);
+        } catch (RuntimeException e) {
+            if(owned) {
+                ((ExecutorService) executor).shutdown();
+            }
+            throw e;
+        }
+        this.ownedExecutor = owned ? (ExecutorService) executor : null;
+    }
+
+    @Override
+    public final void put(K key, V value) {
+        this.cache.put(key, value);
+    }
+
+    @Override
+    public final CompletableFuture<V> get(K key, Function<? super K, ? extends V> addValue) {
+        Objects.requireNonNull(key);
+        return this.cache.getAsync(key, addValue);
+    }
+
+    @Override
+    public final void put(K key, V value, String... tags) {
+        this.cache.put(key, value, tags);
+    }
+
+    @Override
+    public final CompletableFuture<V> get(K key, Function<? super K, ? extends V> addValue, String... tags) {
+        Objects.requireNonNull(key);
+        return this.cache.getAsync(key, addValue, tags);
+    }
+
+    @Override
+    public final void invalidate(K key) {
+        this.cache.invalidate(key);
+    }
+
+    @Override
+    public final void invalidateTag(String tag) {
+        this.cache.invalidateTag(tag);
+    }
+
+    @Override
+    public final void invalidateAll() {
+        this.cache.invalidateAll();
+    }
+
+    @Override
+    public final CacheStatistics statistics() {
+        return this.cache.statistics();
+    }
+
+    @Override
+    public final void close() {
+        this.cache.close();
+        if(this.ownedExecutor != null) {
+            this.ownedExecutor.shutdown();
+        }
+    }
+}
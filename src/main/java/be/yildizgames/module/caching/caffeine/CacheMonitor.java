@@ -0,0 +1,235 @@
+package be.yildizgames.module.caching.caffeine;
+
+import be.yildizgames.module.caching.AsyncCache;
+import be.yildizgames.module.caching.Cache;
+import be.yildizgames.module.caching.CacheStatistics;
+import be.yildizgames.module.caching.CacheStatisticsMXBean;
+import jdk.jfr.FlightRecorder;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Supplier;
+
+/**
+ * <pre>
+ * Export the statistics of a cache as a JMX MBean, named be.yildizgames.module.caching:type=Cache,name=[cache name],
+ * and as a periodic flight recorder event, be.yildizgames.module.caching.CacheStatistics, emitted every 10 seconds
+ * while a recording is running.
+ * The export stops when the monitor is closed.
+ * Mutable: no.
+ * Thread safe: yes.
+ * Accept null: no.
+ * Returns null: no.
+ * Side effects: MBean server registration.
+ * Throws exceptions: yes.
+ * </pre>
+ * @author Gregory Van den Borre
+ */
+public final class CacheMonitor implements CacheStatisticsMXBean, AutoCloseable {
+
+    private static final String DOMAIN = "be.yildizgames.module.caching";
+
+    /**
+     * Monitors emitting a flight recorder event, a single periodic hook emits the events for all of them.
+     */
+    private static final List<CacheMonitor> MONITORS = new CopyOnWriteArrayList<>();
+
+    private static final Runnable HOOK = () -> MONITORS.forEach(CacheMonitor::emit);
+
+    static {
+        FlightRecorder.addPeriodicEvent(CacheStatisticsEvent.class, HOOK);
+    }
+
+    private final String name;
+
+    private final Supplier<CacheStatistics> statistics;
+
+    private final ObjectName objectName;
+
+    private CacheMonitor(String name, Supplier<CacheStatistics> statistics) throws JMException {
+        super();
+        this.name = name;
+        this.statistics = statistics;
+        this.objectName = new ObjectName(DOMAIN + ":type=Cache,name=" + ObjectName.quote(name));
+    }
+
+    /**
+     * Start to export the statistics of a cache.
+     * @param name Name of the cache, used to name the MBean. (no null, not empty)
+     * @param cache Cache to monitor. (no null)
+     * @return The monitor, to be closed to stop the export.
+     * @throws IllegalArgumentException for any parameter not following the restrictions, or if a monitor with the
+     * same name is already registered.
+     */
+    public static CacheMonitor register(String name, Cache<?, ?> cache) {
+        if(cache == null) {
+            throw new IllegalArgumentException("Cache cannot be null.");
+        }
+        return register(name, cache::statistics);
+    }
+
+    /**
+     * Start to export the statistics of an asynchronous cache.
+     * @param name Name of the cache, used to name the MBean. (no null, not empty)
+     * @param cache Cache to monitor. (no null)
+     * @return The monitor, to be closed to stop the export.
+     * @throws IllegalArgumentException for any parameter not following the restrictions, or if a monitor with the
+     * same name is already registered.
+     */
+    public static CacheMonitor register(String name, AsyncCache<?, ?> cache) {
+        if(cache == null) {
+            throw new IllegalArgumentException("Cache cannot be null.");
+        }
+        return register(name, cache::statistics);
+    }
+
+    private static CacheMonitor register(String name, Supplier<CacheStatistics> statistics) {
+        if(name == null) {
+            throw new IllegalArgumentException("Name cannot be null.");
+        }
+        if(name.isEmpty()) {
+            throw new IllegalArgumentException("Name cannot be empty.");
+        }
+        try {
+            var monitor = new CacheMonitor(name, statistics);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(monitor, monitor.objectName);
+            MONITORS.add(monitor);
+            return monitor;
+        } catch (InstanceAlreadyExistsException e) {
+            throw new IllegalArgumentException("A monitor is already registered for the cache " + name + ".", e);
+        } catch (JMException e) {
+            throw new IllegalStateException("Cannot register the monitor for the cache " + name + ".", e);
+        }
+    }
+
+    /**
+     * @return The current statistics of the monitored cache.
+     */
+    public CacheStatistics statistics() {
+        return this.statistics.get();
+    }
+
+    @Override
+    public void close() {
+        MONITORS.remove(this);
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.objectName);
+        } catch (JMException e) {
+            System.getLogger(CacheMonitor.class.getName()).log(System.Logger.Level.ERROR, "Cannot unregister cache monitor", e);
+        }
+    }
+
+    private void emit() {
+        var event = new CacheStatisticsEvent();
+        if(!event.isEnabled()) {
+            return;
+        }
+        var s = this.statistics();
+        event.name = this.name;
+        event.hitCount = s.hitCount();
+        event.missCount = s.missCount();
+        event.hitRate = s.hitRate();
+        event.loadSuccessCount = s.loadSuccessCount();
+        event.loadFailureCount = s.loadFailureCount();
+        event.loadTimeP50 = s.loadTimeP50();
+        event.loadTimeP90 = s.loadTimeP90();
+        event.loadTimeP99 = s.loadTimeP99();
+        event.evictionSizeCount = s.evictionSizeCount();
+        event.evictionExpiredCount = s.evictionExpiredCount();
+        event.evictionCollectedCount = s.evictionCollectedCount();
+        event.persistenceLoadTime = s.persistenceLoadTime();
+        event.persistenceLoadBytes = s.persistenceLoadBytes();
+        event.persistenceSaveTime = s.persistenceSaveTime();
+        event.persistenceSaveBytes = s.persistenceSaveBytes();
+        event.commit();
+    }
+
+    @Override
+    public String getName() {
+        return this.name;
+    }
+
+    @Override
+    public long getHitCount() {
+        return this.statistics().hitCount();
+    }
+
+    @Override
+    public long getMissCount() {
+        return this.statistics().missCount();
+    }
+
+    @Override
+    public double getHitRate() {
+        return this.statistics().hitRate();
+    }
+
+    @Override
+    public long getLoadSuccessCount() {
+        return this.statistics().loadSuccessCount();
+    }
+
+    @Override
+    public long getLoadFailureCount() {
+        return this.statistics().loadFailureCount();
+    }
+
+    @Override
+    public double getAverageLoadTime() {
+        return this.statistics().averageLoadTime();
+    }
+
+    @Override
+    public long getLoadTimeP50() {
+        return this.statistics().loadTimeP50();
+    }
+
+    @Override
+    public long getLoadTimeP90() {
+        return this.statistics().loadTimeP90();
+    }
+
+    @Override
+    public long getLoadTimeP99() {
+        return this.statistics().loadTimeP99();
+    }
+
+    @Override
+    public long getEvictionSizeCount() {
+        return this.statistics().evictionSizeCount();
+    }
+
+    @Override
+    public long getEvictionExpiredCount() {
+        return this.statistics().evictionExpiredCount();
+    }
+
+    @Override
+    public long getEvictionCollectedCount() {
+        return this.statistics().evictionCollectedCount();
+    }
+
+    @Override
+    public long getPersistenceLoadTime() {
+        return this.statistics().persistenceLoadTime();
+    }
+
+    @Override
+    public long getPersistenceLoadBytes() {
+        return this.statistics().persistenceLoadBytes();
+    }
+
+    @Override
+    public long getPersistenceSaveTime() {
+        return this.statistics().persistenceSaveTime();
+    }
+
+    @Override
+    public long getPersistenceSaveBytes() {
+        return this.statistics().persistenceSaveBytes();
+    }
+}
@@ -0,0 +1,80 @@
+package be.yildizgames.module.caching.caffeine;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Percentage;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Periodic flight recorder event containing the statistics of a monitored cache.
+ * @author Gregory Van den Borre
+ */
+@Name("be.yildizgames.module.caching.CacheStatistics")
+@Label("Cache Statistics")
+@Category({"Yildiz", "Cache"})
+@Description("Statistics of a cache since it was opened")
+@Period("10 s")
+@StackTrace(false)
+final class CacheStatisticsEvent extends jdk.jfr.Event {
+
+    @Label("Cache Name")
+    String name;
+
+    @Label("Hits")
+    long hitCount;
+
+    @Label("Misses")
+    long missCount;
+
+    @Label("Hit Rate")
+    @Percentage
+    double hitRate;
+
+    @Label("Load Successes")
+    long loadSuccessCount;
+
+    @Label("Load Failures")
+    long loadFailureCount;
+
+    @Label("Load Time P50")
+    @Timespan(Timespan.NANOSECONDS)
+    long loadTimeP50;
+
+    @Label("Load Time P90")
+    @Timespan(Timespan.NANOSECONDS)
+    long loadTimeP90;
+
+    @Label("Load Time P99")
+    @Timespan(Timespan.NANOSECONDS)
+    long loadTimeP99;
+
+    @Label("Size Evictions")
+    long evictionSizeCount;
+
+    @Label("Expired Evictions")
+    long evictionExpiredCount;
+
+    @Label("Collected Evictions")
+    long evictionCollectedCount;
+
+    @Label("Persistence Load Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long persistenceLoadTime;
+
+    @Label("Persistence Load Size")
+    @DataAmount
+    long persistenceLoadBytes;
+
+    @Label("Persistence Save Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long persistenceSaveTime;
+
+    @Label("Persistence Save Size")
+    @DataAmount
+    long persistenceSaveBytes;
+}
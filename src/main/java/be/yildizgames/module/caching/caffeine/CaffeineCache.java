@@ -1,27 +1,66 @@
 package be.yildizgames.module.caching.caffeine;
 
+import com.github.benmanes.caffeine.cache.CacheLoader;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Policy;
+import com.github.benmanes.caffeine.cache.RemovalCause;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.StreamCorruptedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import be.yildizgames.module.caching.Cache;
+import be.yildizgames.module.caching.CacheStatistics;
 
 /**
  * <pre>
  * Caffeine implementation for the cache system (more info at <a href="https://github.com/ben-manes/caffeine">Caffeine</a>).
- * Support file persistence through binary serialization of the cache Map.
- * Caching non-serializable data will result in non-persistent cache, so only keeping data in memory for the duration of
- * the application session.
+ * Support file persistence through binary serialization of the cache entries, either as a snapshot written on close,
+ * as an append-only log written while the cache is running, or in a memory mapped store loaded lazily
+ * (see {@link PersistenceMode}).
+ * Entries are encoded with a {@link Serializer}, using java serialization by default, entries that cannot be encoded
+ * are only kept in memory for the duration of the application session.
+ * Entries are persisted with their expiration time, so an entry restored from disk only lives for the time it had left,
+ * and expired entries are not restored.
+ * The cache can also be checkpointed periodically in the background, so a crashed application only loses the changes
+ * made since the last checkpoint, snapshots are written in a temporary file and atomically moved in place, the previous
+ * snapshot being kept as fallback.
+ * The cache is bounded either by a number of entries, or by a memory budget, entries being weighed by a {@link Weigher},
+ * in which case the persisted snapshots are bounded by the same budget.
+ * Large snapshots can be split in shards, written and read in parallel on the common fork join pool.
+ * With {@link PersistenceMode#SHARED}, several processes can open the same cache at once, they share its on disk store.
+ * Entries can be invalidated one by one, all at once, or by tag, the removal being applied to the persisted content
+ * immediately with the log and the on disk store, and at the next checkpoint for a snapshot. The tags are persisted
+ * with the cache, but in SHARED mode, where a process only knows the tags it set.
+ * Nodes holding the same cache can publish the keys they put or invalidate through an {@link InvalidationTransport},
+ * and invalidate the keys published by the others, so their copies are not stale until they expire.
+ * The data providers can be called on virtual threads, outside of the cache internal locks, with a bound on the number
+ * of provider calls running at once, so blocking providers can be used by many virtual threads missing at once.
  * Mutable: yes.
  * Thread safe: yes.
  * Accept null: no.
@@ -37,28 +76,214 @@ public class CaffeineCache<K, V> implements Cache<K, V> {
 
     private static final String NAME_PLACEHOLDER = "{NAME}";
 
+    private static final String SHARD_PLACEHOLDER = "{SHARD}";
+
     /**
      * Name of the file to use when persisting the data on disk.
      */
     public static final String DATA = "cache-" + NAME_PLACEHOLDER + ".data";
 
+    /**
+     * Name of the file to keep the previous snapshot on disk, read if the last one is invalid.
+     */
+    public static final String PREVIOUS_DATA = "cache-" + NAME_PLACEHOLDER + ".data.previous";
+
+    /**
+     * Name of the files to use when persisting the data on disk in several shards, {SHARD} being the shard index.
+     */
+    public static final String DATA_SHARD = "cache-" + NAME_PLACEHOLDER + ".{SHARD}.data";
+
+    /**
+     * Name of the files to keep the previous snapshot shards on disk, {SHARD} being the shard index.
+     */
+    public static final String PREVIOUS_DATA_SHARD = "cache-" + NAME_PLACEHOLDER + ".{SHARD}.data.previous";
+
     /**
      * Name of the file to use when persisting the metadata on disk.
      */
     public static final String METADATA = "cache-" + NAME_PLACEHOLDER + ".meta";
 
+    private static final int METADATA_MAGIC = 0x5943434D;
+
+    /**
+     * Upper bound of the initial capacity computed from the persisted metadata.
+     */
+    private static final int MAX_INITIAL_CAPACITY = 1 << 20;
+
+    private static final String TEMPORARY = ".tmp";
+
+    /**
+     * Executor running the periodic checkpoints of all the caches not opened by a manager, created when the class is
+     * loaded, its single thread being started by the first scheduled checkpoint.
+     */
+    private static final ScheduledExecutorService CHECKPOINTS = Executors.newSingleThreadScheduledExecutor(r -> {
+        var thread = new Thread(r, "cache-checkpoint");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Name of the files to use when persisting the changes in a log on disk, each segment is suffixed by its id.
+     */
+    public static final String LOG = "cache-" + NAME_PLACEHOLDER + ".log";
+
+    /**
+     * Name of the file to use as index of the memory mapped store on disk.
+     */
+    public static final String INDEX = "cache-" + NAME_PLACEHOLDER + ".index";
+
+    /**
+     * Name of the file to use as data of the memory mapped store on disk.
+     */
+    public static final String STORE = "cache-" + NAME_PLACEHOLDER + ".store";
+
+    /**
+     * Name of the file to use when persisting the tags of the entries on disk.
+     */
+    public static final String TAGS = "cache-" + NAME_PLACEHOLDER + ".tags";
+
     /**
      * Caffeine cache.
      */
     private final com.github.benmanes.caffeine.cache.Cache<K, V> cache;
 
+    /**
+     * Asynchronous view of the Caffeine cache, only available when the cache is built asynchronously, or loads on
+     * virtual threads, null otherwise.
+     */
+    private final com.github.benmanes.caffeine.cache.AsyncCache<K, V> async;
+
+    /**
+     * Bound on the provider calls running on virtual threads, null if the providers are called by the Caffeine cache.
+     */
+    private final LoadLimiter loads;
+
+    /**
+     * Expiration policy of the cache, used to read the time left to the entries when they are persisted,
+     * and to restore it when they are read back.
+     */
+    private final Policy.VarExpiration<K, V> expiration;
+
+    /**
+     * Expire the entries after they are written or accessed, or when the time they had left when persisted is elapsed.
+     */
+    private final WriteExpiry<K, V> expiry;
+
+    /**
+     * Time to live of the entries after they are written, or accessed if they expire after access.
+     */
+    private final Duration duration;
+
+    /**
+     * Data provider retained to refresh the entries, and to retrieve them when no data provider is given, null if none.
+     */
+    private final Function<? super K, ? extends V> loader;
+
     /**
      * Name of the cache, expected to be unique to avoid to override existing persisted data.
      */
     private final String name;
 
     /**
-     * Create a new cache instance.
+     * Directory containing the persisted files.
+     */
+    private final Path directory;
+
+    /**
+     * Log recording the cache changes, only used with the {@link PersistenceMode#LOG} mode, null otherwise.
+     */
+    private final PersistenceLog<K, V> log;
+
+    /**
+     * Files containing the cache snapshot, only used with the {@link PersistenceMode#SNAPSHOT} mode, null otherwise.
+     */
+    private final ShardedSnapshotFile<K, V> snapshot;
+
+    /**
+     * Memory mapped store, only used with the {@link PersistenceMode#MAPPED} and {@link PersistenceMode#SHARED} modes,
+     * null otherwise, or if it could not be opened.
+     */
+    private final MappedStore<K, V> store;
+
+    /**
+     * Keys put or loaded from the provider since the store was opened, they are written in the store on close or
+     * when evicted.
+     */
+    private final Set<K> dirty;
+
+    /**
+     * Keys evicted since their removal was last recorded in the log, only used by {@link PersistenceMode#LOG}.
+     */
+    private final Queue<K> evicted = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Second level store receiving the entries evicted because of the cache size, null if none.
+     */
+    private final OverflowStore<K, V> overflow;
+
+    /**
+     * Keys of the entries by tag.
+     */
+    private final TagIndex<K> tags;
+
+    /**
+     * Bus publishing the changed keys to the other nodes, and applying theirs, null if none.
+     */
+    private final InvalidationBus<K> bus;
+
+    /**
+     * Persistence strategy.
+     */
+    private final PersistenceMode mode;
+
+    /**
+     * Size of the entries above which no more entries are written in a snapshot, Long.MAX_VALUE if not bounded,
+     * following the memory budget when the cache is resized.
+     */
+    private volatile long maxPersistedBytes;
+
+    /**
+     * Number of entries above which the coldest entries are not persisted.
+     */
+    private final int maxPersistedEntries;
+
+    /**
+     * Size policy of the cache, used to persist the entries from the hottest to the coldest.
+     */
+    private final Policy.Eviction<K, V> eviction;
+
+    /**
+     * Retrieve a missing value from the overflow store or the on disk store only, kept to not allocate on every lookup.
+     */
+    private final Function<K, V> storedLoader = this::loadStored;
+
+    /**
+     * Statistics recorded by the cache and its persistence.
+     */
+    private final StatisticsCounter statistics = new StatisticsCounter();
+
+    /**
+     * true if the statistics are recorded.
+     */
+    private final boolean recordStats;
+
+    /**
+     * Prevent a checkpoint and the close of the cache to write the persisted data at the same time.
+     */
+    private final Object persistenceLock = new Object();
+
+    /**
+     * Periodic checkpoint task, null if the cache is only persisted on close.
+     */
+    private final ScheduledFuture<?> checkpoint;
+
+    /**
+     * true once the cache is closed, written under the persistence lock.
+     */
+    private volatile boolean closed;
+
+    /**
+     * Create a new cache instance, persisted as a snapshot.
      * If a cache file matching the name exists it will try to be loaded, else a new empty cache will be created.
      * On close, the cache data and metadata will be stored on disk.
      * @param name Cache name expected to be unique, non-unique name may result in an overwrite of disk file data,
@@ -67,91 +292,949 @@ public class CaffeineCache<K, V> implements Cache<K, V> {
      * @param duration Maximum time before the data from the cache are refreshed after writing.(no null, > 0)
      * @throws IllegalArgumentException for any parameter not following the restrictions.
      */
-     public CaffeineCache(String name, long maxItem, Duration duration) {
+    public CaffeineCache(String name, long maxItem, Duration duration) {
+        this(CaffeineCacheBuilder.<K, V>newBuilder(name).maximumSize(maxItem).expireAfterWrite(duration), null);
+    }
+
+    /**
+     * Create a new cache instance from a builder.
+     * If a cache file matching the name exists it will try to be loaded, else a new empty cache will be created.
+     * @param builder Builder holding the cache options.
+     * @param asyncExecutor Executor running the data providers asynchronously, only used by {@link #getAsync}, null to
+     *                      build a synchronous cache.
+     * @throws IllegalArgumentException for any option not following the restrictions.
+     */
+    CaffeineCache(CaffeineCacheBuilder<K, V> builder, Executor asyncExecutor) {
         super();
-        if(name == null) {
+        if(builder.name == null) {
             throw new IllegalArgumentException("Name cannot be null.");
         }
-        if(name.isEmpty()) {
+        if(builder.name.isEmpty()) {
             throw new IllegalArgumentException("Name cannot be empty.");
         }
-        if(maxItem <= 0) {
-            throw new IllegalArgumentException("Max item must be bigger than 0 (value " + maxItem + ").");
+        if(builder.maximum <= 0) {
+            throw new IllegalArgumentException("Max item must be bigger than 0 (value " + builder.maximum + ").");
         }
-        if(duration == null) {
+        if(builder.duration == null) {
             throw new IllegalArgumentException("Duration cannot be null.");
         }
-        if(duration.isZero() || duration.isNegative()) {
-            throw new IllegalArgumentException("Duration must be bigger than 0 (value " + duration.getSeconds() + " sec).");
+        if(builder.duration.isZero() || builder.duration.isNegative()) {
+            throw new IllegalArgumentException("Duration must be bigger than 0 (value " + builder.duration.getSeconds() + " sec).");
+        }
+        if(builder.refresh != null && builder.refresh.compareTo(builder.duration) >= 0) {
+            throw new IllegalArgumentException("Refresh must be smaller than duration (value " + builder.refresh.toMillis() + " ms).");
+        }
+        if((asyncExecutor != null || builder.maxConcurrentLoads > 0) && builder.values != CaffeineCacheBuilder.References.STRONG) {
+            throw new IllegalArgumentException("Weak or soft values are not supported by an asynchronous cache, or with loads on virtual threads.");
+        }
+        this.name = builder.name;
+        this.directory = builder.directory;
+        this.loader = builder.loader;
+        this.mode = builder.mode;
+        this.duration = builder.duration;
+        this.expiry = new WriteExpiry<>(builder.duration, builder.expireAfterAccess);
+        this.maxPersistedBytes = builder.weigher == null ? Long.MAX_VALUE : builder.maximum;
+        this.maxPersistedEntries = builder.maxPersistedEntries;
+        this.recordStats = builder.recordStats;
+        this.loads = builder.maxConcurrentLoads > 0 ? new LoadLimiter(builder.maxConcurrentLoads) : null;
+        if(this.mode != PersistenceMode.NONE) {
+            createDirectory(this.directory);
+        }
+        var start = System.nanoTime();
+        this.log = this.mode == PersistenceMode.LOG ? new PersistenceLog<>(this.file(LOG), builder.serializer, this.maxPersistedBytes) : null;
+        this.snapshot = this.mode == PersistenceMode.SNAPSHOT ? this.openSnapshot(builder) : null;
+        this.store = this.mode == PersistenceMode.MAPPED || this.mode == PersistenceMode.SHARED
+                ? openStore(builder.serializer, builder.weigher == null ? builder.maximum : 0)
+                : null;
+        this.dirty = ConcurrentHashMap.newKeySet();
+        this.overflow = builder.overflow;
+        this.tags = new TagIndex<>(this.file(TAGS), builder.serializer, SnapshotFile.fingerprint(builder.schema()));
+        var initialCapacity = builder.initialCapacity >= 0
+                ? builder.initialCapacity
+                : this.mode == PersistenceMode.SNAPSHOT ? Math.min(Math.min(this.persistedEntries(), builder.maximum), MAX_INITIAL_CAPACITY) : 0;
+        var caffeine = Caffeine.newBuilder()
+                .initialCapacity((int) initialCapacity)
+                .expireAfter(this.expiry)
+                .<K, V>evictionListener(this::onEviction);
+        if(builder.recordStats) {
+            caffeine.recordStats(() -> this.statistics);
+        }
+        if(builder.weigher == null) {
+            caffeine.maximumSize(builder.maximum);
+        } else {
+            caffeine.maximumWeight(builder.maximum).weigher(builder.weigher::weigh);
+        }
+        if(builder.refresh != null) {
+            caffeine.refreshAfterWrite(builder.refresh);
+        }
+        if(builder.scheduler != null) {
+            caffeine.scheduler(builder.scheduler);
+        }
+        switch (builder.values) {
+            case WEAK -> caffeine.weakValues();
+            case SOFT -> caffeine.softValues();
+            case STRONG -> {}
+        }
+        if(asyncExecutor == null && this.loads == null) {
+            if(builder.executor != null) {
+                caffeine.executor(builder.executor);
+            }
+            this.async = null;
+            this.cache = this.loader == null ? caffeine.build() : caffeine.build(this.cacheLoader(this.loader));
+        } else {
+            if(asyncExecutor != null) {
+                caffeine.executor(asyncExecutor);
+            } else if(builder.executor != null) {
+                caffeine.executor(builder.executor);
+            }
+            this.async = this.loader == null ? caffeine.buildAsync() : caffeine.buildAsync(this.cacheLoader(this.loader));
+            this.cache = this.async.synchronous();
+        }
+        this.expiration = this.cache.policy().expireVariably().orElseThrow();
+        this.eviction = this.cache.policy().eviction().orElseThrow();
+        if(this.snapshot != null) {
+            readDataFromFile();
         }
-        this.name = name;
-        this.cache = readMetadataFromFile().orElseGet(() -> Caffeine.newBuilder()
-                .expireAfterWrite(duration)
-                .maximumSize(maxItem)
-                .build());
-        readDataFromFile().ifPresent(this.cache::putAll);
+        if(this.log != null) {
+            this.log.replay(this::restore, this.cache::invalidate);
+            this.log.start(this::persistedContent, this::expiresAt);
+        }
+        if(this.persistsTags()) {
+            this.tags.read(this.store == null ? this.cache.asMap()::containsKey : k -> true);
+        }
+        this.bus = builder.transport == null
+                ? null
+                : new InvalidationBus<>(builder.transport, builder.serializer, SnapshotFile.fingerprint(this.name + "," + builder.schema()), builder.invalidationDelay, builder.maintenance == null ? InvalidationBus.PUBLISHER : builder.maintenance, this::invalidateRemote, this::invalidateAllRemote);
+        this.statistics.recordPersistenceLoad(System.nanoTime() - start, this.persistedSize());
+        this.checkpoint = builder.checkpoint == null || this.mode == PersistenceMode.NONE
+                ? null
+                : (builder.maintenance == null ? CHECKPOINTS : builder.maintenance).scheduleWithFixedDelay(this::checkpoint, builder.checkpoint.toMillis(), builder.checkpoint.toMillis(), TimeUnit.MILLISECONDS);
     }
 
     @Override
     public final void put(K key, V o) {
-        this.cache.put(key, o);
+        Objects.requireNonNull(key);
+        Objects.requireNonNull(o);
+        if(this.overflow != null) {
+            this.overflow.remove(key);
+        }
+        if(this.log != null) {
+            this.log.guard(() -> this.cache.asMap().compute(key, (k, old) -> {
+                this.log.put(k, o, this.expiresAfterWrite());
+                return o;
+            }));
+            this.logEvictions();
+        } else {
+            this.cache.put(key, o);
+            if(this.store != null) {
+                this.stored(key, o);
+            }
+        }
+        if(this.bus != null) {
+            this.bus.invalidate(key);
+        }
+    }
+
+    @Override
+    public final void put(K key, V value, String... tags) {
+        Objects.requireNonNull(tags);
+        this.put(key, value);
+        this.tags.tag(key, tags);
     }
 
     @Override
     public final Optional<V> get(K key, Function<? super K, ? extends V> addValue) {
-        return Optional.ofNullable(this.cache.get(key, addValue));
+        return Optional.ofNullable(this.getOrNull(key, addValue));
+    }
+
+    @Override
+    public final Optional<V> get(K key, Function<? super K, ? extends V> addValue, String... tags) {
+        Objects.requireNonNull(tags);
+        V value = this.getOrNull(key, addValue);
+        if(value != null) {
+            this.tags.tag(key, tags);
+        }
+        return Optional.ofNullable(value);
+    }
+
+    /**
+     * Retrieve an element from the cache, calling the data provider if the entry is not yet stored, without wrapping
+     * the result in an Optional.
+     * @param key Key that will be used to retrieve the element (no null).
+     * @param addValue Data provider to feed the cache if the entry is not yet stored (no null).
+     * @return The value, or null if the provider returned null.
+     */
+    final V getOrNull(K key, Function<? super K, ? extends V> addValue) {
+        Objects.requireNonNull(addValue);
+        var loaded = this.log == null ? null : new boolean[1];
+        V value = this.loads != null
+                ? join(this.async.get(key, (k, executor) -> this.loads.supply(() -> this.load(k, addValue, loaded))))
+                : this.cache.get(key, k -> this.load(k, addValue, loaded));
+        if(loaded != null && loaded[0]) {
+            this.logLoaded(key, value, value);
+        }
+        return value;
+    }
+
+    /**
+     * Retrieve an element from the cache, without any data provider, so a hit does not allocate.
+     * A missing element is still looked up in the overflow store and in the on disk store if any.
+     * @param key Key that will be used to retrieve the element (no null).
+     * @return The value, or null if the entry is not stored.
+     */
+    final V getIfPresent(K key) {
+        if(this.overflow == null && this.store == null) {
+            return this.cache.getIfPresent(key);
+        }
+        return this.cache.get(key, this.storedLoader);
+    }
+
+    /**
+     * Retrieve an element from the memory only, recording a hit if it is found, and nothing if it is not, so a miss
+     * can then be retried with a data provider without being counted twice.
+     * @param key Key that will be used to retrieve the element (no null).
+     * @return The value, or null if the entry is not in memory.
+     */
+    final V getIfCached(K key) {
+        V value = this.cache.asMap().get(key);
+        if(value != null && this.recordStats) {
+            this.statistics.recordHits(1);
+        }
+        return value;
+    }
+
+    /**
+     * Retrieve an element from the cache, using the loader provided when the cache was created as data provider.
+     * @param key Key that will be used to retrieve the element (no null).
+     * @return The optional value associated to the provided key (no null).
+     * @throws NullPointerException if key is null.
+     * @throws IllegalStateException if the cache was created without loader.
+     */
+    public final Optional<V> get(K key) {
+        if(this.loader == null) {
+            throw new IllegalStateException("No loader defined for the cache " + this.name + ".");
+        }
+        return this.get(key, this.loader);
+    }
+
+    @Override
+    public final Map<K, V> getAll(Collection<? extends K> keys, Function<? super Set<? extends K>, ? extends Map<? extends K, ? extends V>> addValues) {
+        Objects.requireNonNull(addValues);
+        var loaded = this.log == null ? null : new ConcurrentHashMap<K, V>();
+        var result = this.loads != null
+                ? join(this.async.getAll(keys, (missing, executor) -> this.loads.supply(() -> this.loadAll(missing, addValues, loaded))))
+                : this.cache.getAll(keys, missing -> this.loadAll(missing, addValues, loaded));
+        if(loaded != null) {
+            loaded.forEach((key, value) -> this.logLoaded(key, value, value));
+        }
+        return result;
+    }
+
+    /**
+     * Retrieve an element from the cache, calling the data provider asynchronously if the entry is not yet stored.
+     * Only available if the cache was built with an executor.
+     * @param key Key that will be used to retrieve the element (no null).
+     * @param addValue Data provider to feed the cache if the entry is not yet stored (no null).
+     * @return A future completed with the value, or null if the provider returned null.
+     */
+    final CompletableFuture<V> getAsync(K key, Function<? super K, ? extends V> addValue) {
+        Objects.requireNonNull(addValue);
+        var loaded = this.log == null ? null : new boolean[1];
+        var future = this.loads != null
+                ? this.async.get(key, (k, executor) -> this.loads.supply(() -> this.load(k, addValue, loaded)))
+                : this.async.get(key, (k, executor) -> CompletableFuture.supplyAsync(() -> this.load(k, addValue, loaded), executor));
+        if(loaded == null) {
+            return future;
+        }
+        return future.thenApply(value -> {
+            if(loaded[0]) {
+                this.logLoaded(key, value, value);
+            }
+            return value;
+        });
+    }
+
+    /**
+     * Retrieve an element from the cache like getAsync, and associate it to tags once the value is available.
+     * @param key Key that will be used to retrieve the element (no null).
+     * @param addValue Data provider to feed the cache if the entry is not yet stored (no null).
+     * @param tags Tags to associate to the element if a value is returned (no null).
+     * @return A future completed with the value, or null if the provider returned null.
+     */
+    final CompletableFuture<V> getAsync(K key, Function<? super K, ? extends V> addValue, String... tags) {
+        Objects.requireNonNull(tags);
+        return this.getAsync(key, addValue).thenApply(value -> {
+            if(value != null) {
+                this.tags.tag(key, tags);
+            }
+            return value;
+        });
+    }
+
+    @Override
+    public final void invalidate(K key) {
+        Objects.requireNonNull(key);
+        this.remove(key, true);
+        if(this.bus != null) {
+            this.bus.invalidate(key);
+        }
+    }
+
+    @Override
+    public final void invalidateTag(String tag) {
+        Objects.requireNonNull(tag);
+        for(K key : this.tags.remove(tag)) {
+            this.invalidate(key);
+        }
+    }
+
+    /**
+     * Remove all the elements, the on disk store and the overflow store are cleared, the log records the removal of
+     * every entry, and the next snapshot is empty.
+     */
+    @Override
+    public final void invalidateAll() {
+        this.clear(true);
+        if(this.bus != null) {
+            this.bus.clear();
+        }
     }
 
     @Override
     public final void close() {
-        writeDataToFile();
-        writeCacheMetadataToFile();
+        if(this.checkpoint != null) {
+            this.checkpoint.cancel(false);
+        }
+        if(this.bus != null) {
+            this.bus.close();
+        }
+        synchronized (this.persistenceLock) {
+            if(this.closed) {
+                return;
+            }
+            this.closed = true;
+            var start = System.nanoTime();
+            switch (this.mode) {
+                case NONE -> {}
+                case SNAPSHOT -> {
+                    writeDataToFile();
+                    writeCacheMetadataToFile();
+                }
+                case LOG -> {
+                    this.cache.cleanUp();
+                    this.logEvictions();
+                    this.log.close();
+                }
+                case MAPPED, SHARED -> {
+                    this.cache.cleanUp();
+                    if(this.store != null) {
+                        writeDataToStore();
+                        this.store.close();
+                    }
+                }
+            }
+            if(this.persistsTags()) {
+                this.tags.write();
+            }
+            this.statistics.recordPersistenceSave(System.nanoTime() - start, this.persistedSize());
+        }
+        if(this.overflow != null) {
+            this.overflow.close();
+        }
+    }
+
+    @Override
+    public final CacheStatistics statistics() {
+        return this.statistics.statistics();
+    }
+
+    /**
+     * Persist the current cache content without closing the cache, callers are not blocked while it is written.
+     * Does nothing once the cache is closed.
+     */
+    final void checkpoint() {
+        synchronized (this.persistenceLock) {
+            if(this.closed) {
+                return;
+            }
+            var start = System.nanoTime();
+            switch (this.mode) {
+                case NONE -> {}
+                case SNAPSHOT -> {
+                    writeDataToFile();
+                    writeCacheMetadataToFile();
+                }
+                case LOG -> {
+                    this.logEvictions();
+                    this.log.force();
+                }
+                case MAPPED, SHARED -> {
+                    if(this.store != null) {
+                        writeDataToStore();
+                        this.store.flush();
+                    }
+                }
+            }
+            if(this.persistsTags()) {
+                this.tags.write();
+            }
+            this.statistics.recordPersistenceSave(System.nanoTime() - start, this.persistedSize());
+        }
+    }
+
+    /**
+     * Run the pending maintenance operations, like evictions, which are otherwise run asynchronously.
+     */
+    final void cleanUp() {
+        this.cache.cleanUp();
+    }
+
+    /**
+     * @return true if the cache is bounded by a memory budget, false if it is bounded by a number of entries.
+     */
+    final boolean isWeighted() {
+        return this.eviction.isWeighted();
+    }
+
+    /**
+     * @return The current bound of the cache, a memory budget in bytes or a number of entries.
+     */
+    final long maximum() {
+        return this.eviction.getMaximum();
+    }
+
+    /**
+     * Change the bound of the cache, the entries above the new bound are evicted.
+     * @param maximum New memory budget in bytes, or number of entries. (>= 0)
+     */
+    final void resize(long maximum) {
+        this.eviction.setMaximum(maximum);
+        if (this.eviction.isWeighted()) {
+            this.maxPersistedBytes = maximum;
+            if (this.log != null) {
+                this.log.limit(maximum);
+            }
+        }
+    }
+
+    /**
+     * @return true once the cache is closed.
+     */
+    final boolean isClosed() {
+        return this.closed;
+    }
+
+    /**
+     * Retrieve a missing value, from the overflow store if any, then from the on disk store if any,
+     * or else from the provider.
+     * @param key Key of the missing value.
+     * @param addValue Data provider.
+     * @param loaded Set to true if the value is retrieved from the provider, to be logged once in the cache, null if
+     *               the cache has no log.
+     * @return The value, null if the provider returned null.
+     */
+    private V load(K key, Function<? super K, ? extends V> addValue, boolean[] loaded) {
+        V stored = this.loadStored(key);
+        if(stored != null) {
+            return stored;
+        }
+        V value = addValue.apply(key);
+        if(value != null) {
+            this.loaded(key, value);
+            if(loaded != null) {
+                loaded[0] = true;
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Retrieve several missing values, from the overflow store and the on disk store if any, the values still missing
+     * are then retrieved with a single call to the provider.
+     * @param keys Keys of the missing values.
+     * @param addValues Data provider.
+     * @param loaded Receive the values retrieved from the provider, to be logged once in the cache, null if the cache
+     *               has no log.
+     * @return The values found.
+     */
+    private Map<K, V> loadAll(Set<? extends K> keys, Function<? super Set<? extends K>, ? extends Map<? extends K, ? extends V>> addValues, Map<K, V> loaded) {
+        var result = new HashMap<K, V>(keys.size() * 2);
+        var missing = new HashSet<K>();
+        for(K key : keys) {
+            V stored = this.loadStored(key);
+            if(stored != null) {
+                result.put(key, stored);
+            } else {
+                missing.add(key);
+            }
+        }
+        if(!missing.isEmpty()) {
+            var values = addValues.apply(missing);
+            if(values != null) {
+                values.forEach((key, value) -> {
+                    if(key != null && value != null) {
+                        this.loaded(key, value);
+                        result.put(key, value);
+                        if(loaded != null) {
+                            loaded.put(key, value);
+                        }
+                    }
+                });
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Retrieve a missing value from the overflow store if any, or else from the on disk store if any.
+     * @param key Key of the missing value.
+     * @return The value, null if not found.
+     */
+    private V loadStored(K key) {
+        if(this.overflow != null) {
+            var overflowed = this.overflow.get(key);
+            if(overflowed != null) {
+                this.overflow.remove(key);
+                this.expiry.restore(key, overflowed.expiresAt());
+                return overflowed.value();
+            }
+        }
+        if(this.store != null) {
+            var stored = this.store.get(key);
+            if(stored != null) {
+                this.expiry.restore(key, stored.expiresAt());
+                return stored.value();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Remove an entry from the cache and from its persisted content.
+     * @param key Key of the entry.
+     * @param shared false to leave a store shared with other processes unchanged.
+     */
+    private void remove(K key, boolean shared) {
+        this.tags.untag(key);
+        if(this.overflow != null) {
+            this.overflow.remove(key);
+        }
+        if(this.log != null) {
+            this.log.guard(() -> this.cache.asMap().compute(key, (k, old) -> {
+                this.log.remove(k);
+                return null;
+            }));
+        } else {
+            this.cache.invalidate(key);
+            if(this.store != null && (shared || this.mode != PersistenceMode.SHARED)) {
+                this.dirty.remove(key);
+                this.store.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Remove all the entries from the cache and from its persisted content.
+     * @param shared false to leave a store shared with other processes unchanged.
+     */
+    private void clear(boolean shared) {
+        for(K key : this.cache.asMap().keySet()) {
+            this.remove(key, shared);
+        }
+        if(this.store != null && (shared || this.mode != PersistenceMode.SHARED)) {
+            this.dirty.clear();
+            this.store.clear();
+        }
+        if(this.overflow != null) {
+            this.overflow.clear();
+        }
+        this.tags.clear();
+    }
+
+    /**
+     * Apply an invalidation published by another node, a store shared with other processes is left unchanged, as the
+     * other node already updated it.
+     * @param key Key of the entry.
+     */
+    private void invalidateRemote(K key) {
+        this.remove(key, false);
+    }
+
+    /**
+     * Apply a clear published by another node, a store shared with other processes is left unchanged, as the
+     * other node already cleared it.
+     */
+    private void invalidateAllRemote() {
+        this.clear(false);
+    }
+
+    /**
+     * Record a value retrieved from a data provider, to be written in the on disk store.
+     * Values are logged separately, once they are in the cache, see {@link #logLoaded}.
+     * @param key Key of the value.
+     * @param value Retrieved value.
+     */
+    private void loaded(K key, V value) {
+        if(this.store != null) {
+            this.stored(key, value);
+        }
+    }
+
+    /**
+     * Record a value retrieved from a data provider in the log, under the log guard like a put, so a concurrent
+     * compaction either sees the entry in the cache, or the record in the segment it keeps.
+     * A provider runs inside the cache compute, before its value is in the cache, so the value can only be recorded
+     * once the load is complete, and is not recorded if it was replaced or removed meanwhile.
+     * @param key Key of the value.
+     * @param expected Value currently in the cache.
+     * @param value Value to record, replacing the expected one.
+     */
+    private void logLoaded(K key, V expected, V value) {
+        this.log.guard(() -> this.cache.asMap().computeIfPresent(key, (k, current) -> {
+            if(current != expected) {
+                return current;
+            }
+            this.log.put(k, value, this.expiresAfterWrite());
+            return value;
+        }));
+        this.logEvictions();
+    }
+
+    /**
+     * Record the removal of the evicted entries in the log, under the log guard, once they are out of the cache.
+     * An eviction is notified before the entry is removed, a removal recorded at that time could be dropped by a
+     * concurrent compaction still seeing the entry, which would restore it on restart.
+     */
+    private void logEvictions() {
+        K key;
+        while ((key = this.evicted.poll()) != null) {
+            var removed = key;
+            this.log.guard(() -> this.cache.asMap().compute(removed, (k, current) -> {
+                if(current == null) {
+                    this.log.remove(k);
+                }
+                return current;
+            }));
+        }
+    }
+
+    /**
+     * Record a value put or loaded, to be written to the on disk store, at the next checkpoint, or immediately if the
+     * store is shared with other processes.
+     * @param key Key of the value.
+     * @param value Value to store.
+     */
+    private void stored(K key, V value) {
+        if(this.mode == PersistenceMode.SHARED) {
+            this.store.put(key, value, this.expiresAfterWrite());
+        } else {
+            this.dirty.add(key);
+        }
+    }
+
+    private void onEviction(K key, V value, RemovalCause cause) {
+        if(key == null) {
+            return;
+        }
+        if(cause != RemovalCause.SIZE || (this.overflow == null && this.store == null)) {
+            this.tags.untag(key);
+        }
+        var spilled = cause == RemovalCause.SIZE && this.overflow != null;
+        if(spilled) {
+            this.overflow.put(key, value, this.expiresAt(key));
+        } else if(this.log != null) {
+            this.evicted.add(key);
+        }
+        if(this.store != null && this.mode == PersistenceMode.MAPPED) {
+            if(cause == RemovalCause.SIZE) {
+                if(this.dirty.remove(key)) {
+                    this.store.put(key, value, this.expiresAt(key));
+                }
+            } else {
+                this.dirty.remove(key);
+                this.store.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Compute the expiration time of an entry in the cache.
+     * @param key Entry key.
+     * @return The time when the entry expires, in milliseconds since the epoch.
+     */
+    private long expiresAt(K key) {
+        var remaining = this.expiration.getExpiresAfter(key, TimeUnit.MILLISECONDS);
+        return remaining.isPresent() ? System.currentTimeMillis() + remaining.getAsLong() : this.expiresAfterWrite();
+    }
+
+    /**
+     * @return The expiration time of an entry written now, in milliseconds since the epoch.
+     */
+    private long expiresAfterWrite() {
+        return System.currentTimeMillis() + this.duration.toMillis();
+    }
+
+    /**
+     * Put an entry read from disk in the cache, with the time it had left when it was persisted, bounded by the current
+     * expiration, in case the cache was persisted with a longer one.
+     * @param key Entry key.
+     * @param value Entry value.
+     * @param expiresAt Time when the entry expires, in milliseconds since the epoch.
+     */
+    private void restore(K key, V value, long expiresAt) {
+        var remaining = Math.min(WriteExpiry.remaining(expiresAt), this.duration.toNanos());
+        if(remaining > 0) {
+            this.expiration.put(key, value, remaining, TimeUnit.NANOSECONDS);
+        } else {
+            this.cache.invalidate(key);
+        }
+    }
+
+    /**
+     * Put an entry read from a snapshot in the cache, unless the cache is already full.
+     * Snapshots are written from the hottest to the coldest entry, so when a snapshot holds more entries than the cache
+     * can, the hottest ones are kept instead of being evicted by colder ones.
+     * @param key Entry key.
+     * @param value Entry value.
+     * @param expiresAt Time when the entry expires, in milliseconds since the epoch.
+     */
+    private void restoreIfRoom(K key, V value, long expiresAt) {
+        var size = this.eviction.isWeighted() ? this.eviction.weightedSize().orElse(0) : this.cache.estimatedSize();
+        if(size < this.eviction.getMaximum()) {
+            this.restore(key, value, expiresAt);
+        }
+    }
+
+    /**
+     * Provide the entries to persist, ordered from the most to the least likely to be used again according to the
+     * cache policy, and limited to the maximum number of persisted entries.
+     * @return The entries to persist.
+     */
+    private Map<K, V> persistedContent() {
+        return this.eviction.hottest(this.maxPersistedEntries);
+    }
+
+    /**
+     * Adapt a data provider to be retained by the Caffeine cache.
+     * A missing entry is retrieved like with get, a refreshed entry is always retrieved from the data provider.
+     * @param provider Data provider.
+     * @return The Caffeine loader.
+     */
+    private CacheLoader<K, V> cacheLoader(Function<? super K, ? extends V> provider) {
+        return new CacheLoader<>() {
+
+            @Override
+            public V load(K key) {
+                return CaffeineCache.this.load(key, provider, null);
+            }
+
+            @Override
+            public V reload(K key, V oldValue) {
+                V value = provider.apply(key);
+                if(value != null) {
+                    CaffeineCache.this.loaded(key, value);
+                    if(CaffeineCache.this.log != null) {
+                        CaffeineCache.this.logLoaded(key, oldValue, value);
+                    }
+                }
+                return value;
+            }
+        };
+    }
+
+    /**
+     * @return The size of the persisted data on disk, in bytes.
+     */
+    private long persistedSize() {
+        return switch (this.mode) {
+            case NONE -> 0;
+            case SNAPSHOT -> this.snapshot.bytes();
+            case LOG -> this.log.bytes();
+            case MAPPED, SHARED -> this.store == null ? 0 : this.store.bytes();
+        };
+    }
+
+    /**
+     * The tags are persisted in all modes but NONE, and SHARED, where each process only knows the tags it set.
+     * @return true if the tags are persisted.
+     */
+    private boolean persistsTags() {
+        return this.mode != PersistenceMode.NONE && this.mode != PersistenceMode.SHARED;
+    }
+
+    /**
+     * Compute the path of a persisted file of this cache.
+     * @param pattern File name pattern, DATA, DATA_SHARD, METADATA, LOG, INDEX, STORE or TAGS.
+     * @return The path of the file, in the cache directory.
+     */
+    private String file(String pattern) {
+        return this.directory.resolve(pattern.replace(NAME_PLACEHOLDER, this.name)).toString();
+    }
+
+    /**
+     * Create the snapshot files, a single DATA file without sharding, a DATA_SHARD file per shard otherwise.
+     * The files written with another number of shards and no longer read, the DATA_SHARD files above the shard count,
+     * or the DATA file when sharded, are deleted with the next snapshot.
+     * @param builder Builder providing the shard count, the serializer and the compression.
+     * @return The snapshot files.
+     */
+    private ShardedSnapshotFile<K, V> openSnapshot(CaffeineCacheBuilder<K, V> builder) {
+        var schema = SnapshotFile.fingerprint(builder.schema());
+        var shards = new ArrayList<SnapshotFile<K, V>>(builder.shards);
+        if(builder.shards == 1) {
+            shards.add(new SnapshotFile<>(this.file(DATA), this.file(PREVIOUS_DATA), builder.serializer, builder.compressed, schema));
+        } else {
+            for(int i = 0; i < builder.shards; i++) {
+                var shard = String.valueOf(i);
+                shards.add(new SnapshotFile<>(
+                        this.file(DATA_SHARD.replace(SHARD_PLACEHOLDER, shard)),
+                        this.file(PREVIOUS_DATA_SHARD.replace(SHARD_PLACEHOLDER, shard)),
+                        builder.serializer,
+                        builder.compressed,
+                        schema));
+            }
+        }
+        var stale = new ArrayList<Path>();
+        if(builder.shards > 1) {
+            stale.add(Path.of(this.file(DATA)));
+            stale.add(Path.of(this.file(PREVIOUS_DATA)));
+        }
+        for(int i = builder.shards == 1 ? 0 : builder.shards; ; i++) {
+            var shard = String.valueOf(i);
+            var data = Path.of(this.file(DATA_SHARD.replace(SHARD_PLACEHOLDER, shard)));
+            var previous = Path.of(this.file(PREVIOUS_DATA_SHARD.replace(SHARD_PLACEHOLDER, shard)));
+            if(!Files.exists(data) && !Files.exists(previous)) {
+                break;
+            }
+            stale.add(data);
+            stale.add(previous);
+        }
+        return new ShardedSnapshotFile<>(shards, stale, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Wait for a value loaded on a virtual thread, rethrowing the exception of a failed data provider as is.
+     * @param future Future completed by the provider call.
+     * @param <T> Type of the loaded value.
+     * @return The loaded value, null if the provider returned null.
+     */
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if(e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            if(e.getCause() instanceof Error cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private static void createDirectory(Path directory) {
+        try {
+            Files.createDirectories(directory.toAbsolutePath());
+        } catch (IOException e) {
+            System.getLogger(CaffeineCache.class.getName()).log(System.Logger.Level.ERROR, "Cannot create cache directory", e);
+        }
+    }
+
+    private MappedStore<K, V> openStore(Serializer<K, V> serializer, long maxItem) {
+        try {
+            return new MappedStore<>(this.file(INDEX), this.file(STORE), serializer, maxItem, this.mode == PersistenceMode.SHARED);
+        } catch (IOException e) {
+            System.getLogger(CaffeineCache.class.getName()).log(System.Logger.Level.ERROR, "Cannot open cache store", e);
+            return null;
+        }
+    }
+
+    /**
+     * Write the keys put or loaded since the last write to the store, a key is marked clean before its value is read,
+     * so a concurrent put marks it dirty again.
+     */
+    private void writeDataToStore() {
+        for(K key : this.dirty) {
+            if(this.dirty.remove(key)) {
+                V value = this.cache.policy().getIfPresentQuietly(key);
+                if(value != null) {
+                    this.store.put(key, value, this.expiresAt(key));
+                } else {
+                    // loaded, but not yet inserted in the cache.
+                    this.dirty.add(key);
+                }
+            }
+        }
     }
 
     private void writeCacheMetadataToFile() {
-        try (var stream = new FileOutputStream(METADATA.replace(NAME_PLACEHOLDER, this.name)); var objects = new ObjectOutputStream(stream)) {
-            objects.writeObject(this.cache);
+        var path = Path.of(this.file(METADATA));
+        var temporary = Path.of(path + TEMPORARY);
+        try {
+            try (var stream = Files.newOutputStream(temporary); var output = new DataOutputStream(stream)) {
+                output.writeInt(METADATA_MAGIC);
+                output.writeLong(this.cache.estimatedSize());
+            }
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
         } catch (Exception e) {
             System.getLogger(CaffeineCache.class.getName()).log(System.Logger.Level.ERROR, "Cannot write cache metadata", e);
         }
     }
 
     private void writeDataToFile() {
-        try (var stream = new FileOutputStream(DATA.replace(NAME_PLACEHOLDER, this.name)); var objects = new ObjectOutputStream(stream)) {
-            var content = new HashMap<>(this.cache.asMap());
-            objects.writeObject(content);
+        try {
+            this.snapshot.write(this.persistedContent(), this::expiresAt, this.maxPersistedBytes);
         } catch (Exception e) {
             System.getLogger(CaffeineCache.class.getName()).log(System.Logger.Level.ERROR, "Cannot write cache data", e);
         }
     }
 
-    @SuppressWarnings({"unchecked"})
-    private Optional<HashMap<K, V>> readDataFromFile() {
-        if(Files.notExists(Path.of(DATA.replace(NAME_PLACEHOLDER, this.name)))) {
-            return Optional.empty();
+    private void readDataFromFile() {
+        if(!this.snapshot.exists()) {
+            return;
         }
-        try (var stream = new FileInputStream(DATA.replace(NAME_PLACEHOLDER, this.name)); var objects = new ObjectInputStream(stream)) {
-            return Optional.of((HashMap<K, V>) objects.readObject());
+        try {
+            this.snapshot.read(this::restoreIfRoom);
         } catch (StreamCorruptedException e) {
             System.getLogger(CaffeineCache.class.getName()).log(System.Logger.Level.ERROR, "Corrupted cache file", e);
-        } catch (IOException | ClassNotFoundException e) {
+        } catch (IOException e) {
             System.getLogger(CaffeineCache.class.getName()).log(System.Logger.Level.ERROR, "Unreadable cache file", e);
         }
-        return Optional.empty();
     }
 
-    @SuppressWarnings({"unchecked"})
-    private Optional<com.github.benmanes.caffeine.cache.Cache<K, V>> readMetadataFromFile() {
-        if(Files.notExists(Path.of(METADATA.replace(NAME_PLACEHOLDER, this.name)))) {
-            return Optional.empty();
+    /**
+     * Read the number of entries persisted when the cache was last closed, from the snapshot headers, or from the
+     * metadata file for snapshots written without their entry count.
+     * @return The number of persisted entries, 0 if unknown.
+     */
+    private long persistedEntries() {
+        var entries = this.snapshot.entries();
+        return entries > 0 ? entries : this.readMetadataFromFile();
+    }
+
+    /**
+     * Read the number of entries persisted when the cache was last closed.
+     * @return The number of persisted entries, 0 if unknown.
+     */
+    private long readMetadataFromFile() {
+        if(Files.notExists(Path.of(this.file(METADATA)))) {
+            return 0;
         }
-        try (var stream = new FileInputStream(METADATA.replace(NAME_PLACEHOLDER, this.name)); var objects = new ObjectInputStream(stream)) {
-            return Optional.of((com.github.benmanes.caffeine.cache.Cache<K, V>) objects.readObject());
+        try (var stream = new FileInputStream(this.file(METADATA)); var input = new DataInputStream(stream)) {
+            var magic = input.readInt();
+            if(magic == SnapshotFile.LEGACY_MAGIC) {
+                System.getLogger(CaffeineCache.class.getName()).log(System.Logger.Level.INFO, "Legacy cache format discarded: " + this.file(METADATA));
+                return 0;
+            }
+            if(magic != METADATA_MAGIC) {
+                throw new StreamCorruptedException("Invalid metadata header.");
+            }
+            return Math.max(0, input.readLong());
         } catch (StreamCorruptedException e) {
             System.getLogger(CaffeineCache.class.getName()).log(System.Logger.Level.ERROR, "Corrupted metadata file", e);
-        } catch (IOException | ClassNotFoundException e) {
+        } catch (IOException e) {
             System.getLogger(CaffeineCache.class.getName()).log(System.Logger.Level.ERROR, "Unreadable metadata file", e);
         }
-        return Optional.empty();
+        return 0;
     }
 }
@@ -0,0 +1,575 @@
+package be.yildizgames.module.caching.caffeine;
+
+import com.github.benmanes.caffeine.cache.Scheduler;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Function;
+
+/**
+ * <pre>
+ * Builder for the Caffeine caches, exposing the Caffeine options and the persistence options.
+ * A name, a bound (maximum size or maximum weight) and an expiration are required, every other option has a default:
+ * snapshot persistence with java serialization in the working directory, initial capacity from the persisted metadata,
+ * maintenance on the common fork join pool, and statistics recorded.
+ * A builder can be used to build several caches, provided they have different names.
+ * Mutable: yes.
+ * Thread safe: no.
+ * Accept null: no.
+ * Returns null: no.
+ * Side effects: none.
+ * Throws exceptions: yes.
+ * </pre>
+ * @param <K> Type of the key used to retrieve the data.
+ * @param <V> Type of the data associated to the key.
+ * @author Gregory Van den Borre
+ */
+public final class CaffeineCacheBuilder<K, V> {
+
+    final String name;
+
+    long maximum;
+
+    Weigher<? super K, ? super V> weigher;
+
+    int initialCapacity = -1;
+
+    Duration duration;
+
+    boolean expireAfterAccess;
+
+    Duration refresh;
+
+    Function<? super K, ? extends V> loader;
+
+    Executor executor;
+
+    int maxConcurrentLoads;
+
+    Scheduler scheduler;
+
+    /**
+     * Executor of the manager opening the cache, running its checkpoints and invalidation batches, null if the cache
+     * is not managed.
+     */
+    ScheduledExecutorService maintenance;
+
+    References values = References.STRONG;
+
+    boolean recordStats = true;
+
+    PersistenceMode mode = PersistenceMode.SNAPSHOT;
+
+    Serializer<K, V> serializer = Serializer.java();
+
+    Path directory = Path.of("");
+
+    boolean compressed;
+
+    int shards = 1;
+
+    int maxPersistedEntries = Integer.MAX_VALUE;
+
+    Class<K> keyType;
+
+    Class<V> valueType;
+
+    Duration negativeTtl = Duration.ofSeconds(1);
+
+    int failureThreshold = 5;
+
+    Duration backoff = Duration.ofSeconds(1);
+
+    Duration checkpoint;
+
+    OverflowStore<K, V> overflow;
+
+    InvalidationTransport transport;
+
+    Duration invalidationDelay;
+
+    private CaffeineCacheBuilder(String name) {
+        super();
+        this.name = name;
+    }
+
+    /**
+     * Start to build a cache.
+     * @param name Cache name expected to be unique, non-unique name may result in an overwrite of disk file data,
+     *             resulting on a performance penalty or worse, wrong data. (no null, not empty)
+     * @param <K> Type of the key used to retrieve the data.
+     * @param <V> Type of the data associated to the key.
+     * @return The builder.
+     */
+    public static <K, V> CaffeineCacheBuilder<K, V> newBuilder(String name) {
+        return new CaffeineCacheBuilder<>(name);
+    }
+
+    /**
+     * Copy this builder, so the copy can be changed without changing this one.
+     * @return A new builder with the same options.
+     */
+    CaffeineCacheBuilder<K, V> copy() {
+        var copy = new CaffeineCacheBuilder<K, V>(this.name);
+        copy.maximum = this.maximum;
+        copy.weigher = this.weigher;
+        copy.initialCapacity = this.initialCapacity;
+        copy.duration = this.duration;
+        copy.expireAfterAccess = this.expireAfterAccess;
+        copy.refresh = this.refresh;
+        copy.loader = this.loader;
+        copy.executor = this.executor;
+        copy.maxConcurrentLoads = this.maxConcurrentLoads;
+        copy.scheduler = this.scheduler;
+        copy.maintenance = this.maintenance;
+        copy.values = this.values;
+        copy.recordStats = this.recordStats;
+        copy.mode = this.mode;
+        copy.serializer = this.serializer;
+        copy.directory = this.directory;
+        copy.compressed = this.compressed;
+        copy.shards = this.shards;
+        copy.maxPersistedEntries = this.maxPersistedEntries;
+        copy.keyType = this.keyType;
+        copy.valueType = this.valueType;
+        copy.negativeTtl = this.negativeTtl;
+        copy.failureThreshold = this.failureThreshold;
+        copy.backoff = this.backoff;
+        copy.checkpoint = this.checkpoint;
+        copy.overflow = this.overflow;
+        copy.transport = this.transport;
+        copy.invalidationDelay = this.invalidationDelay;
+        return copy;
+    }
+
+    /**
+     * Bound the cache by a number of entries.
+     * @param maxItem The maximum number of items to be accepted by the cache. (> 0)
+     * @return This builder.
+     */
+    public CaffeineCacheBuilder<K, V> maximumSize(long maxItem) {
+        this.maximum = maxItem;
+        this.weigher = null;
+        return this;
+    }
+
+    /**
+     * Bound the cache by a memory budget, the same budget bounds the persisted snapshots.
+     * @param maxBytes Memory budget of the cache, in bytes. (> 0)
+     * @param weigher Estimate the size of the entries in bytes. (no null)
+     * @return This builder.
+     * @throws IllegalArgumentException if the weigher is null.
+     */
+    public CaffeineCacheBuilder<K, V> maximumWeight(long maxBytes, Weigher<? super K, ? super V> weigher) {
+        if(weigher == null) {
+            throw new IllegalArgumentException("Weigher cannot be null.");
+        }
+        this.maximum = maxBytes;
+        this.weigher = weigher;
+        return this;
+    }
+
+    /**
+     * Pre-size the cache, instead of using the number of entries persisted when it was last closed.
+     * @param initialCapacity Number of entries the cache can hold without resizing. (>= 0)
+     * @return This builder.
+     * @throws IllegalArgumentException if the capacity is negative.
+     */
+    public CaffeineCacheBuilder<K, V> initialCapacity(int initialCapacity) {
+        if(initialCapacity < 0) {
+            throw new IllegalArgumentException("Initial capacity cannot be negative (value " + initialCapacity + ").");
+        }
+        this.initialCapacity = initialCapacity;
+        return this;
+    }
+
+    /**
+     * Expire the entries a fixed time after they are written.
+     * @param duration Time to live of the entries after they are written. (no null, > 0)
+     * @return This builder.
+     */
+    public CaffeineCacheBuilder<K, V> expireAfterWrite(Duration duration) {
+        this.duration = duration;
+        this.expireAfterAccess = false;
+        return this;
+    }
+
+    /**
+     * Expire the entries a fixed time after they are last written or read.
+     * @param duration Time to live of the entries after they are accessed. (no null, > 0)
+     * @return This builder.
+     */
+    public CaffeineCacheBuilder<K, V> expireAfterAccess(Duration duration) {
+        this.duration = duration;
+        this.expireAfterAccess = true;
+        return this;
+    }
+
+    /**
+     * Reload the entries in the background once they are older than the refresh duration, on their next access.
+     * @param refresh Time after writing before an entry is reloaded on access. (no null, > 0, smaller than the expiration)
+     * @param loader Data provider used to reload the entries, and to retrieve them with {@link CaffeineCache#get(Object)}.
+     *               (no null)
+     * @return This builder.
+     * @throws IllegalArgumentException if the refresh is not positive or the loader is null.
+     */
+    public CaffeineCacheBuilder<K, V> refreshAfterWrite(Duration refresh, Function<? super K, ? extends V> loader) {
+        if(refresh == null) {
+            throw new IllegalArgumentException("Refresh cannot be null.");
+        }
+        if(refresh.isZero() || refresh.isNegative()) {
+            throw new IllegalArgumentException("Refresh must be bigger than 0 (value " + refresh.toMillis() + " ms).");
+        }
+        if(loader == null) {
+            throw new IllegalArgumentException("Loader cannot be null.");
+        }
+        this.refresh = refresh;
+        this.loader = loader;
+        return this;
+    }
+
+    /**
+     * Retain a data provider, used to retrieve the entries with {@link CaffeineCache#get(Object)}.
+     * @param loader Data provider. (no null)
+     * @return This builder.
+     * @throws IllegalArgumentException if the loader is null.
+     */
+    public CaffeineCacheBuilder<K, V> loader(Function<? super K, ? extends V> loader) {
+        if(loader == null) {
+            throw new IllegalArgumentException("Loader cannot be null.");
+        }
+        this.loader = loader;
+        return this;
+    }
+
+    /**
+     * Run the cache maintenance, the removal notifications, the refreshes, and for an asynchronous cache the data
+     * providers, on an executor. It is not shut down when the cache is closed.
+     * @param executor Executor to use. (no null)
+     * @return This builder.
+     * @throws IllegalArgumentException if the executor is null.
+     */
+    public CaffeineCacheBuilder<K, V> executor(Executor executor) {
+        if(executor == null) {
+            throw new IllegalArgumentException("Executor cannot be null.");
+        }
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * Call the data providers of the cache misses on virtual threads, outside of the cache internal locks, and wait for
+     * them without holding a platform thread, so blocking providers can be used from any number of virtual threads.
+     * Concurrent misses on a key share a single provider call, and at most the given number of provider calls run at
+     * once, the other misses waiting for their turn.
+     * Also used by {@link #buildAsync()} to bound its provider calls.
+     * @param maxConcurrentLoads Maximum number of provider calls running at once. (> 0)
+     * @return This builder.
+     * @throws IllegalArgumentException if the maximum is not positive.
+     */
+    public CaffeineCacheBuilder<K, V> virtualThreadLoads(int maxConcurrentLoads) {
+        if(maxConcurrentLoads <= 0) {
+            throw new IllegalArgumentException("Concurrent loads must be bigger than 0 (value " + maxConcurrentLoads + ").");
+        }
+        this.maxConcurrentLoads = maxConcurrentLoads;
+        return this;
+    }
+
+    /**
+     * Schedule the removal of the expired entries, so they are removed promptly instead of during the next cache
+     * activity.
+     * @param scheduler Scheduler to use. (no null)
+     * @return This builder.
+     * @throws IllegalArgumentException if the scheduler is null.
+     */
+    public CaffeineCacheBuilder<K, V> scheduler(Scheduler scheduler) {
+        if(scheduler == null) {
+            throw new IllegalArgumentException("Scheduler cannot be null.");
+        }
+        this.scheduler = scheduler;
+        return this;
+    }
+
+    /**
+     * Hold the values with weak references, so they can be garbage collected once no longer used elsewhere.
+     * Not supported by asynchronous caches.
+     * @return This builder.
+     */
+    public CaffeineCacheBuilder<K, V> weakValues() {
+        this.values = References.WEAK;
+        return this;
+    }
+
+    /**
+     * Hold the values with soft references, so they can be garbage collected under memory pressure.
+     * Not supported by asynchronous caches.
+     * @return This builder.
+     */
+    public CaffeineCacheBuilder<K, V> softValues() {
+        this.values = References.SOFT;
+        return this;
+    }
+
+    /**
+     * Record the hit, miss, load and eviction statistics, enabled by default.
+     * Persistence statistics are always recorded.
+     * @param recordStats true to record the statistics.
+     * @return This builder.
+     */
+    public CaffeineCacheBuilder<K, V> recordStats(boolean recordStats) {
+        this.recordStats = recordStats;
+        return this;
+    }
+
+    /**
+     * Set the persistence strategy, {@link PersistenceMode#SNAPSHOT} by default.
+     * @param mode Persistence strategy, {@link PersistenceMode#NONE} to disable persistence. (no null)
+     * @return This builder.
+     * @throws IllegalArgumentException if the mode is null.
+     */
+    public CaffeineCacheBuilder<K, V> persistence(PersistenceMode mode) {
+        if(mode == null) {
+            throw new IllegalArgumentException("Persistence mode cannot be null.");
+        }
+        this.mode = mode;
+        return this;
+    }
+
+    /**
+     * Set the serializer used to encode the entries on disk, java serialization by default.
+     * @param serializer Serializer to use. (no null)
+     * @return This builder.
+     * @throws IllegalArgumentException if the serializer is null.
+     */
+    public CaffeineCacheBuilder<K, V> serializer(Serializer<K, V> serializer) {
+        if(serializer == null) {
+            throw new IllegalArgumentException("Serializer cannot be null.");
+        }
+        this.serializer = serializer;
+        return this;
+    }
+
+    /**
+     * Declare the types of the keys and values, stored in the snapshot headers, so a snapshot written by a cache with
+     * the same name but other types is discarded without decoding its entries.
+     * Without types, only the serializer schema is checked.
+     * @param keyType Type of the keys. (no null)
+     * @param valueType Type of the values. (no null)
+     * @return This builder.
+     * @throws IllegalArgumentException if a type is null.
+     */
+    public CaffeineCacheBuilder<K, V> types(Class<K> keyType, Class<V> valueType) {
+        if(keyType == null || valueType == null) {
+            throw new IllegalArgumentException("Types cannot be null.");
+        }
+        this.keyType = keyType;
+        this.valueType = valueType;
+        return this;
+    }
+
+    /**
+     * Describe the persisted schema of the cache, from its serializer and its types if known.
+     * @return The cache schema.
+     */
+    String schema() {
+        return this.serializer.schema() + ";" + (this.keyType == null ? "?" : this.keyType.getName()) + ";" + (this.valueType == null ? "?" : this.valueType.getName());
+    }
+
+    /**
+     * Set the directory of the persisted files, the working directory by default, it is created if missing.
+     * @param directory Directory to use. (no null)
+     * @return This builder.
+     * @throws IllegalArgumentException if the directory is null.
+     */
+    public CaffeineCacheBuilder<K, V> directory(Path directory) {
+        if(directory == null) {
+            throw new IllegalArgumentException("Directory cannot be null.");
+        }
+        this.directory = directory;
+        return this;
+    }
+
+    /**
+     * Compress the snapshot files with deflate, written and read one block at a time, disabled by default.
+     * It reduces the disk usage and I/O at the cost of CPU, and is only used by {@link PersistenceMode#SNAPSHOT}.
+     * Existing snapshots are read whether they are compressed or not.
+     * @param compressed true to compress the snapshots.
+     * @return This builder.
+     */
+    public CaffeineCacheBuilder<K, V> compressed(boolean compressed) {
+        this.compressed = compressed;
+        return this;
+    }
+
+    /**
+     * Split the snapshot files in shards, written and read in parallel, 1 by default.
+     * It reduces the time to load and to persist large caches on machines with several cores, and is only used by
+     * {@link PersistenceMode#SNAPSHOT}. With a new number of shards, the content of the shard files still read is
+     * restored, the one of the files no longer read, shards above the new number, or all the shards when switching to
+     * or from a single file, is discarded and its files are deleted with the next snapshot.
+     * @param shards Number of shard files. (> 0)
+     * @return This builder.
+     * @throws IllegalArgumentException if the number of shards is not positive.
+     */
+    public CaffeineCacheBuilder<K, V> shards(int shards) {
+        if(shards <= 0) {
+            throw new IllegalArgumentException("Shards must be bigger than 0 (value " + shards + ").");
+        }
+        this.shards = shards;
+        return this;
+    }
+
+    /**
+     * Persist only the hottest entries, as ranked by the cache size policy, all the entries by default.
+     * Entries are always persisted from the hottest to the coldest, so the coldest are the ones left out when the
+     * snapshot or the compacted log reaches this limit or the memory budget, and when a cache is reopened with a
+     * smaller size, it is filled with the hottest entries only. Not used by {@link PersistenceMode#MAPPED}.
+     * @param entries Maximum number of persisted entries. (> 0)
+     * @return This builder.
+     * @throws IllegalArgumentException if the number of entries is not positive.
+     */
+    public CaffeineCacheBuilder<K, V> maximumPersisted(int entries) {
+        if(entries <= 0) {
+            throw new IllegalArgumentException("Persisted entries must be bigger than 0 (value " + entries + ").");
+        }
+        this.maxPersistedEntries = entries;
+        return this;
+    }
+
+    /**
+     * Persist the cache periodically in the background while it is running, and not only when it is closed.
+     * @param checkpoint Time between two checkpoints. (no null, > 0)
+     * @return This builder.
+     * @throws IllegalArgumentException if the checkpoint is null or shorter than 1 ms.
+     */
+    public CaffeineCacheBuilder<K, V> checkpoint(Duration checkpoint) {
+        if(checkpoint == null) {
+            throw new IllegalArgumentException("Checkpoint cannot be null.");
+        }
+        if(checkpoint.toMillis() <= 0) {
+            throw new IllegalArgumentException("Checkpoint must be at least 1 ms (value " + checkpoint.toMillis() + " ms).");
+        }
+        this.checkpoint = checkpoint;
+        return this;
+    }
+
+    /**
+     * Publish the keys put or invalidated in the cache to the other nodes holding the same cache, and invalidate the
+     * keys they publish, so their copies do not stay stale until they expire.
+     * The keys changed during the delay are sent together, in as few messages as possible.
+     * @param transport Transport to the other nodes, not closed with the cache. (no null)
+     * @param delay Time between two batches of changed keys. (no null, > 0)
+     * @return This builder.
+     * @throws IllegalArgumentException if the transport or the delay is null, or if the delay is not positive.
+     */
+    public CaffeineCacheBuilder<K, V> invalidation(InvalidationTransport transport, Duration delay) {
+        if(transport == null) {
+            throw new IllegalArgumentException("Transport cannot be null.");
+        }
+        if(delay == null) {
+            throw new IllegalArgumentException("Delay cannot be null.");
+        }
+        if(delay.isZero() || delay.isNegative()) {
+            throw new IllegalArgumentException("Delay must be bigger than 0 (value " + delay.toMillis() + " ms).");
+        }
+        this.transport = transport;
+        this.invalidationDelay = delay;
+        return this;
+    }
+
+    /**
+     * Add a second level store receiving the entries evicted because of the cache size.
+     * @param overflow Second level store, closed with the cache. (no null)
+     * @return This builder.
+     * @throws IllegalArgumentException if the store is null.
+     */
+    public CaffeineCacheBuilder<K, V> overflow(OverflowStore<K, V> overflow) {
+        if(overflow == null) {
+            throw new IllegalArgumentException("Overflow store cannot be null.");
+        }
+        this.overflow = overflow;
+        return this;
+    }
+
+    /**
+     * Set the time during which a key whose data provider failed is not loaded again, 1 second by default.
+     * Only used by the caches built with {@link #buildTransparent()}.
+     * @param negativeTtl Time to remember a failure, zero to disable. (no null, >= 0)
+     * @return This builder.
+     * @throws IllegalArgumentException if the time is null or negative.
+     */
+    public CaffeineCacheBuilder<K, V> negativeCaching(Duration negativeTtl) {
+        if(negativeTtl == null) {
+            throw new IllegalArgumentException("Negative caching time cannot be null.");
+        }
+        if(negativeTtl.isNegative()) {
+            throw new IllegalArgumentException("Negative caching time cannot be negative (value " + negativeTtl.toMillis() + " ms).");
+        }
+        this.negativeTtl = negativeTtl;
+        return this;
+    }
+
+    /**
+     * Stop calling the data providers for a while after consecutive failures, 5 failures and 1 second by default.
+     * The backoff is doubled every time a new attempt fails, up to 64 times the initial one.
+     * Only used by the caches built with {@link #buildTransparent()}.
+     * @param failures Number of consecutive failures suspending the calls. (> 0)
+     * @param backoff Time before the first new attempt. (no null, > 0)
+     * @return This builder.
+     * @throws IllegalArgumentException if the failures or the backoff are not positive.
+     */
+    public CaffeineCacheBuilder<K, V> circuitBreaker(int failures, Duration backoff) {
+        if(failures <= 0) {
+            throw new IllegalArgumentException("Failures must be bigger than 0 (value " + failures + ").");
+        }
+        if(backoff == null) {
+            throw new IllegalArgumentException("Backoff cannot be null.");
+        }
+        if(backoff.isZero() || backoff.isNegative()) {
+            throw new IllegalArgumentException("Backoff must be bigger than 0 (value " + backoff.toMillis() + " ms).");
+        }
+        this.failureThreshold = failures;
+        this.backoff = backoff;
+        return this;
+    }
+
+    /**
+     * Build a cache, loading its persisted content if any.
+     * @return The built cache.
+     * @throws IllegalArgumentException if the name, the bound or the expiration are missing or invalid.
+     */
+    public CaffeineCache<K, V> build() {
+        return new CaffeineCache<>(this, null);
+    }
+
+    /**
+     * Build a cache never throwing exceptions, loading its persisted content if any.
+     * If the cache cannot be built, the error is logged and the data providers are called directly.
+     * @return The built cache.
+     */
+    public TransparentCaffeineCache<K, V> buildTransparent() {
+        return new TransparentCaffeineCache<>(this);
+    }
+
+    /**
+     * Build an asynchronous cache, loading its persisted content if any.
+     * If no executor is set, the data providers are run on virtual threads.
+     * @return The built cache.
+     * @throws IllegalArgumentException if the name, the bound or the expiration are missing or invalid,
+     * or if the values are held with weak or soft references.
+     */
+    public AsyncCaffeineCache<K, V> buildAsync() {
+        return new AsyncCaffeineCache<>(this);
+    }
+
+    /**
+     * Strength of the references holding the values.
+     */
+    enum References {
+        STRONG,
+        WEAK,
+        SOFT
+    }
+}
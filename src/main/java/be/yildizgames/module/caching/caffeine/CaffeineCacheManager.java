@@ -0,0 +1,340 @@
+package be.yildizgames.module.caching.caffeine;
+
+import be.yildizgames.module.caching.Cache;
+import be.yildizgames.module.caching.CacheManager;
+import com.github.benmanes.caffeine.cache.Scheduler;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * <pre>
+ * Cache manager for the Caffeine caches.
+ * All the caches opened by a manager share a single maintenance thread, scheduling the removal of their expired
+ * entries, their periodic checkpoints and their invalidation batches, and run their maintenance on the common fork
+ * join pool, unless their builder sets other ones.
+ * A manager can enforce a global memory budget over the caches bounded by a weigher: every cache is guaranteed an
+ * even part of half the budget, and the other half is periodically split between them in proportion to the hits each
+ * one served recently, so the memory goes to the caches making the most use of it. Caches bounded by a number of
+ * entries keep their own bound.
+ * Checkpoints and closes are run concurrently for all the caches, one virtual thread per cache.
+ * Mutable: yes.
+ * Thread safe: yes.
+ * Accept null: no.
+ * Returns null: no.
+ * Side effects: file read and write.
+ * Throws exceptions: yes.
+ * </pre>
+ * @author Gregory Van den Borre
+ */
+public final class CaffeineCacheManager implements CacheManager {
+
+    /**
+     * Weight of the hits of the last period in the smoothed hit count, the older periods sharing the rest.
+     */
+    private static final double SMOOTHING = 0.5;
+
+    private final ConcurrentMap<String, Managed> caches = new ConcurrentHashMap<>();
+
+    /**
+     * Names of the caches being opened, reserved while their persisted content is restored, outside of any map lock.
+     */
+    private final Set<String> opening = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Thread scheduling the expiration of the entries, the checkpoints and the invalidation batches of all the caches,
+     * and the budget rebalancing.
+     */
+    private final ScheduledExecutorService maintenance;
+
+    private final Scheduler scheduler;
+
+    private final Executor executor;
+
+    /**
+     * Memory budget shared by the weighted caches, in bytes, 0 if not bounded.
+     */
+    private final long budget;
+
+    /**
+     * Periodic rebalancing task, null if the manager has no budget.
+     */
+    private final ScheduledFuture<?> rebalancing;
+
+    /**
+     * Create a manager without global memory budget, every cache keeping its own bound.
+     */
+    public CaffeineCacheManager() {
+        this(null, 0);
+    }
+
+    /**
+     * Create a manager splitting a memory budget between its weighted caches.
+     * @param budget Memory budget shared by the caches bounded by a weigher, in bytes. (> 0)
+     * @param rebalance Time between two splits of the budget. (no null, > 0)
+     * @throws IllegalArgumentException for any parameter not following the restrictions.
+     */
+    public CaffeineCacheManager(long budget, Duration rebalance) {
+        this(requirePeriod(rebalance), requireBudget(budget));
+    }
+
+    /**
+     * @param rebalance Time between two splits of the budget, null if not bounded.
+     * @param budget Memory budget shared by the weighted caches, 0 if not bounded.
+     */
+    private CaffeineCacheManager(Duration rebalance, long budget) {
+        super();
+        this.budget = budget;
+        this.executor = ForkJoinPool.commonPool();
+        this.maintenance = Executors.newSingleThreadScheduledExecutor(r -> {
+            var thread = new Thread(r, "cache-maintenance");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler = Scheduler.forScheduledExecutorService(this.maintenance);
+        this.rebalancing = rebalance == null
+                ? null
+                : this.maintenance.scheduleWithFixedDelay(this::rebalance, rebalance.toMillis(), rebalance.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Open a cache, using the shared scheduler and executor unless the builder sets its own, the builder is left
+     * unchanged.
+     * If the cache is bounded by a weigher and the manager has a budget, the budget is split again to make room for it,
+     * the maximum weight set in the builder being replaced by the part of the budget given to the cache.
+     * The persisted content of the cache is restored without holding any lock of the manager.
+     * @param builder Builder holding the cache options. (no null)
+     * @param <K> Type of the key used to retrieve the data.
+     * @param <V> Type of the data associated to the key.
+     * @return The opened cache.
+     * @throws IllegalArgumentException for any option not following the restrictions, or if a cache with the same name
+     * is already open, or being opened, in this manager.
+     * @throws IllegalStateException if the manager is closed.
+     */
+    public <K, V> CaffeineCache<K, V> open(CaffeineCacheBuilder<K, V> builder) {
+        if(builder == null) {
+            throw new IllegalArgumentException("Builder cannot be null.");
+        }
+        if(builder.name == null) {
+            throw new IllegalArgumentException("Name cannot be null.");
+        }
+        if(this.maintenance.isShutdown()) {
+            throw new IllegalStateException("Cache manager is closed.");
+        }
+        if(!this.opening.add(builder.name)) {
+            throw new IllegalArgumentException("Cache " + builder.name + " is already being opened.");
+        }
+        CaffeineCache<K, V> cache;
+        try {
+            var existing = this.caches.get(builder.name);
+            if(existing != null && !existing.cache.isClosed()) {
+                throw new IllegalArgumentException("Cache " + builder.name + " is already open.");
+            }
+            cache = this.build(builder);
+            this.caches.put(builder.name, new Managed(cache));
+        } finally {
+            this.opening.remove(builder.name);
+        }
+        if(this.maintenance.isShutdown()) {
+            this.caches.remove(builder.name);
+            cache.close();
+            throw new IllegalStateException("Cache manager is closed.");
+        }
+        if(cache.isWeighted()) {
+            this.rebalance();
+        }
+        return cache;
+    }
+
+    @Override
+    public Set<String> names() {
+        var names = new HashSet<String>();
+        this.caches.forEach((name, managed) -> {
+            if(!managed.cache.isClosed()) {
+                names.add(name);
+            }
+        });
+        return Set.copyOf(names);
+    }
+
+    @Override
+    public <K, V> Optional<Cache<K, V>> cache(String name) {
+        var managed = this.caches.get(name);
+        if(managed == null || managed.cache.isClosed()) {
+            return Optional.empty();
+        }
+        @SuppressWarnings("unchecked")
+        var cache = (Cache<K, V>) managed.cache;
+        return Optional.of(cache);
+    }
+
+    @Override
+    public void checkpoint() {
+        this.forEachConcurrently(CaffeineCache::checkpoint);
+    }
+
+    @Override
+    public boolean close(String name) {
+        var managed = this.caches.remove(name);
+        if(managed == null || managed.cache.isClosed()) {
+            return false;
+        }
+        managed.cache.close();
+        if(managed.cache.isWeighted()) {
+            this.rebalance();
+        }
+        return true;
+    }
+
+    @Override
+    public void close() {
+        if(this.rebalancing != null) {
+            this.rebalancing.cancel(false);
+        }
+        try {
+            this.forEachConcurrently(CaffeineCache::close);
+        } finally {
+            this.caches.clear();
+            this.maintenance.shutdown();
+        }
+    }
+
+    /**
+     * Split the budget between the weighted caches: half of it evenly, the other half in proportion to the hits each
+     * cache served since the previous split, smoothed over the previous splits.
+     * Caches not recording statistics only receive their even part, and the half is split evenly if no cache served
+     * any hit.
+     */
+    synchronized void rebalance() {
+        if(this.budget == 0) {
+            return;
+        }
+        var weighted = new ArrayList<Managed>();
+        for(var managed : this.caches.values()) {
+            if(managed.cache.isWeighted() && !managed.cache.isClosed()) {
+                weighted.add(managed);
+            }
+        }
+        if(weighted.isEmpty()) {
+            return;
+        }
+        var count = weighted.size();
+        var floor = this.budget / (2L * count);
+        var shared = this.budget - floor * count;
+        var total = 0.0;
+        for(var managed : weighted) {
+            var hits = managed.cache.statistics().hitCount();
+            managed.rate = managed.rate * (1 - SMOOTHING) + (hits - managed.hits) * SMOOTHING;
+            managed.hits = hits;
+            total += managed.rate;
+        }
+        for(var managed : weighted) {
+            var part = total > 0 ? (long) (shared * (managed.rate / total)) : shared / count;
+            managed.cache.resize(floor + part);
+        }
+    }
+
+    /**
+     * Build a cache from a copy of its builder, with the shared maintenance thread, and the shared scheduler and
+     * executor if the builder does not set other ones.
+     * @param builder Builder holding the cache options, left unchanged.
+     * @return The built cache.
+     */
+    private <K, V> CaffeineCache<K, V> build(CaffeineCacheBuilder<K, V> builder) {
+        var copy = builder.copy();
+        if(copy.scheduler == null) {
+            copy.scheduler = this.scheduler;
+        }
+        if(copy.executor == null) {
+            copy.executor = this.executor;
+        }
+        copy.maintenance = this.maintenance;
+        return copy.build();
+    }
+
+    /**
+     * Run an operation on all the open caches, one virtual thread per cache, and wait for all of them.
+     * @param operation Operation to run.
+     * @throws RuntimeException the first failure, once all the operations are completed, the other failures being
+     * suppressed.
+     */
+    private void forEachConcurrently(Consumer<CaffeineCache<?, ?>> operation) {
+        var tasks = new ArrayList<CompletableFuture<Void>>(this.caches.size());
+        try (var threads = Executors.newVirtualThreadPerTaskExecutor()) {
+            for(var managed : this.caches.values()) {
+                tasks.add(CompletableFuture.runAsync(() -> operation.accept(managed.cache), threads));
+            }
+        }
+        join(tasks);
+    }
+
+    private static void join(List<CompletableFuture<Void>> tasks) {
+        Throwable error = null;
+        for(var task : tasks) {
+            try {
+                task.join();
+            } catch (CompletionException e) {
+                if(error == null) {
+                    error = e.getCause();
+                } else {
+                    error.addSuppressed(e.getCause());
+                }
+            }
+        }
+        if(error instanceof RuntimeException e) {
+            throw e;
+        }
+        if(error instanceof Error e) {
+            throw e;
+        }
+    }
+
+    private static long requireBudget(long budget) {
+        if(budget <= 0) {
+            throw new IllegalArgumentException("Budget must be bigger than 0 (value " + budget + ").");
+        }
+        return budget;
+    }
+
+    private static Duration requirePeriod(Duration rebalance) {
+        if(rebalance == null) {
+            throw new IllegalArgumentException("Rebalance period cannot be null.");
+        }
+        if(rebalance.isZero() || rebalance.isNegative()) {
+            throw new IllegalArgumentException("Rebalance period must be bigger than 0 (value " + rebalance.toMillis() + " ms).");
+        }
+        return rebalance;
+    }
+
+    /**
+     * Cache owned by the manager, with its hits at the last rebalancing, guarded by the manager.
+     */
+    private static final class Managed {
+
+        private final CaffeineCache<?, ?> cache;
+
+        private long hits;
+
+        private double rate;
+
+        private Managed(CaffeineCache<?, ?> cache) {
+            super();
+            this.cache = cache;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package be.yildizgames.module.caching.caffeine;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.CRC32;
+
+/**
+ * <pre>
+ * Channel computing the CRC32 of all the bytes written through it to another channel.
+ * Mutable: yes.
+ * Thread safe: no.
+ * Accept null: no.
+ * Returns null: no.
+ * Side effects: channel write.
+ * Throws exceptions: yes.
+ * </pre>
+ * @author Gregory Van den Borre
+ */
+final class ChecksumChannel implements WritableByteChannel {
+
+    private final WritableByteChannel channel;
+
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * @param channel Channel receiving the bytes, it is not closed with this channel.
+     */
+    ChecksumChannel(WritableByteChannel channel) {
+        super();
+        this.channel = channel;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        var start = src.position();
+        var written = this.channel.write(src);
+        this.crc.update(src.slice(start, written));
+        return written;
+    }
+
+    /**
+     * @return The CRC32 of the bytes written so far.
+     */
+    int checksum() {
+        return (int) this.crc.getValue();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return this.channel.isOpen();
+    }
+
+    @Override
+    public void close() {
+        // the underlying channel is closed by its owner.
+    }
+}
@@ -0,0 +1,335 @@
+package be.yildizgames.module.caching.caffeine;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * <pre>
+ * Binary encoding of a single key or value, used to persist the cache content.
+ * A codec writes directly in the provided buffer, if the buffer is too small, a BufferOverflowException is expected
+ * to be thrown, the caller will then retry with a bigger buffer.
+ * When reading, the buffer position is at the beginning of the encoded data and its limit at its end, so a codec does
+ * not need to encode its own length.
+ * Implementations are expected to be stateless and thread safe.
+ * </pre>
+ * @param <T> Type of the encoded data.
+ * @author Gregory Van den Borre
+ */
+public interface Codec<T> {
+
+    /**
+     * Codec for String, encoded as UTF-8.
+     */
+    Codec<String> STRING = new Codec<>() {
+
+        @Override
+        public String schema() {
+            return "string";
+        }
+
+        @Override
+        public void write(String value, ByteBuffer buffer) {
+            var length = value.length();
+            if (buffer.remaining() < length) {
+                buffer.put(value.getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            var start = buffer.position();
+            for (int i = 0; i < length; i++) {
+                var c = value.charAt(i);
+                if (c >= 0x80) {
+                    buffer.position(start);
+                    buffer.put(value.getBytes(StandardCharsets.UTF_8));
+                    return;
+                }
+                buffer.put((byte) c);
+            }
+        }
+
+        @Override
+        public String read(ByteBuffer buffer) {
+            if (buffer.hasArray()) {
+                var result = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining(), StandardCharsets.UTF_8);
+                buffer.position(buffer.limit());
+                return result;
+            }
+            var bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    };
+
+    /**
+     * Codec for raw byte arrays.
+     */
+    Codec<byte[]> BYTES = new Codec<>() {
+
+        @Override
+        public String schema() {
+            return "bytes";
+        }
+
+        @Override
+        public void write(byte[] value, ByteBuffer buffer) {
+            buffer.put(value);
+        }
+
+        @Override
+        public byte[] read(ByteBuffer buffer) {
+            var bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            return bytes;
+        }
+    };
+
+    /**
+     * Codec for Long.
+     */
+    Codec<Long> LONG = new Codec<>() {
+
+        @Override
+        public String schema() {
+            return "long";
+        }
+
+        @Override
+        public void write(Long value, ByteBuffer buffer) {
+            buffer.putLong(value);
+        }
+
+        @Override
+        public Long read(ByteBuffer buffer) {
+            return buffer.getLong();
+        }
+    };
+
+    /**
+     * Codec for Integer.
+     */
+    Codec<Integer> INTEGER = new Codec<>() {
+
+        @Override
+        public String schema() {
+            return "integer";
+        }
+
+        @Override
+        public void write(Integer value, ByteBuffer buffer) {
+            buffer.putInt(value);
+        }
+
+        @Override
+        public Integer read(ByteBuffer buffer) {
+            return buffer.getInt();
+        }
+    };
+
+    /**
+     * Codec for Short.
+     */
+    Codec<Short> SHORT = new Codec<>() {
+
+        @Override
+        public String schema() {
+            return "short";
+        }
+
+        @Override
+        public void write(Short value, ByteBuffer buffer) {
+            buffer.putShort(value);
+        }
+
+        @Override
+        public Short read(ByteBuffer buffer) {
+            return buffer.getShort();
+        }
+    };
+
+    /**
+     * Codec for Byte.
+     */
+    Codec<Byte> BYTE = new Codec<>() {
+
+        @Override
+        public String schema() {
+            return "byte";
+        }
+
+        @Override
+        public void write(Byte value, ByteBuffer buffer) {
+            buffer.put(value);
+        }
+
+        @Override
+        public Byte read(ByteBuffer buffer) {
+            return buffer.get();
+        }
+    };
+
+    /**
+     * Codec for Character.
+     */
+    Codec<Character> CHARACTER = new Codec<>() {
+
+        @Override
+        public String schema() {
+            return "character";
+        }
+
+        @Override
+        public void write(Character value, ByteBuffer buffer) {
+            buffer.putChar(value);
+        }
+
+        @Override
+        public Character read(ByteBuffer buffer) {
+            return buffer.getChar();
+        }
+    };
+
+    /**
+     * Codec for Boolean.
+     */
+    Codec<Boolean> BOOLEAN = new Codec<>() {
+
+        @Override
+        public String schema() {
+            return "boolean";
+        }
+
+        @Override
+        public void write(Boolean value, ByteBuffer buffer) {
+            buffer.put(value ? (byte) 1 : (byte) 0);
+        }
+
+        @Override
+        public Boolean read(ByteBuffer buffer) {
+            return buffer.get() != 0;
+        }
+    };
+
+    /**
+     * Codec for Double.
+     */
+    Codec<Double> DOUBLE = new Codec<>() {
+
+        @Override
+        public String schema() {
+            return "double";
+        }
+
+        @Override
+        public void write(Double value, ByteBuffer buffer) {
+            buffer.putDouble(value);
+        }
+
+        @Override
+        public Double read(ByteBuffer buffer) {
+            return buffer.getDouble();
+        }
+    };
+
+    /**
+     * Codec for Float.
+     */
+    Codec<Float> FLOAT = new Codec<>() {
+
+        @Override
+        public String schema() {
+            return "float";
+        }
+
+        @Override
+        public void write(Float value, ByteBuffer buffer) {
+            buffer.putFloat(value);
+        }
+
+        @Override
+        public Float read(ByteBuffer buffer) {
+            return buffer.getFloat();
+        }
+    };
+
+    /**
+     * Encode a value in a buffer.
+     * @param value Value to encode (no null).
+     * @param buffer Buffer to write the encoded value into, starting at its current position.
+     * @throws java.nio.BufferOverflowException if the buffer is too small.
+     * @throws RuntimeException if the value cannot be encoded.
+     */
+    void write(T value, ByteBuffer buffer);
+
+    /**
+     * Decode a value from a buffer.
+     * @param buffer Buffer containing the encoded value between its position and its limit.
+     * @return The decoded value (no null).
+     * @throws RuntimeException if the value cannot be decoded.
+     */
+    T read(ByteBuffer buffer);
+
+    /**
+     * Describe the encoding of this codec, stored with the persisted data so data written with another codec is
+     * discarded without being decoded.
+     * Codecs writing the same encoding are expected to return the same schema, the class name by default.
+     * @return The codec schema.
+     */
+    default String schema() {
+        return this.getClass().getName();
+    }
+
+    /**
+     * Provide a codec using java serialization, it can encode any Serializable type and will throw an exception
+     * for others.
+     * @param <T> Type of the encoded data.
+     * @return The java serialization codec.
+     */
+    static <T> Codec<T> java() {
+        return new Codec<>() {
+
+            @Override
+            public String schema() {
+                return "java";
+            }
+
+            @Override
+            public void write(T value, ByteBuffer buffer) {
+                try (var objects = new ObjectOutputStream(new OutputStream() {
+
+                    @Override
+                    public void write(int b) {
+                        buffer.put((byte) b);
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) {
+                        buffer.put(b, off, len);
+                    }
+                })) {
+                    objects.writeObject(value);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            @SuppressWarnings("unchecked")
+            @Override
+            public T read(ByteBuffer buffer) {
+                var bytes = new byte[buffer.remaining()];
+                buffer.get(bytes);
+                try (var objects = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+                    return (T) objects.readObject();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                } catch (ClassNotFoundException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+    }
+}
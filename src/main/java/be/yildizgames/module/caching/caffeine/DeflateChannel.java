@@ -0,0 +1,78 @@
+package be.yildizgames.module.caching.caffeine;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.Deflater;
+
+/**
+ * <pre>
+ * Channel compressing every write as an independent block [uncompressed length][compressed length][zlib data] in
+ * another channel, to be read back by an InflateChannel.
+ * Blocks are as big as the writes, so writing through a buffer, like an EntryWriter does, produces blocks of the
+ * buffer size.
+ * Mutable: yes.
+ * Thread safe: no.
+ * Accept null: no.
+ * Returns null: no.
+ * Side effects: channel write.
+ * Throws exceptions: yes.
+ * </pre>
+ * @author Gregory Van den Borre
+ */
+final class DeflateChannel implements WritableByteChannel {
+
+    static final int BLOCK_HEADER_SIZE = Integer.BYTES * 2;
+
+    private final WritableByteChannel channel;
+
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+
+    private ByteBuffer output = ByteBuffer.allocateDirect(EntryWriter.DEFAULT_CAPACITY + EntryWriter.DEFAULT_CAPACITY / 8);
+
+    private boolean open = true;
+
+    /**
+     * @param channel Channel receiving the compressed blocks, it is not closed with this channel.
+     */
+    DeflateChannel(WritableByteChannel channel) {
+        super();
+        this.channel = channel;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        var length = src.remaining();
+        if (length == 0) {
+            return 0;
+        }
+        this.deflater.reset();
+        this.deflater.setInput(src);
+        this.deflater.finish();
+        this.output.clear().position(BLOCK_HEADER_SIZE);
+        while (!this.deflater.finished()) {
+            if (!this.output.hasRemaining()) {
+                this.output = EntryWriter.grow(this.output);
+            }
+            this.deflater.deflate(this.output);
+        }
+        this.output.putInt(0, length).putInt(Integer.BYTES, this.output.position() - BLOCK_HEADER_SIZE).flip();
+        while (this.output.hasRemaining()) {
+            this.channel.write(this.output);
+        }
+        return length;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return this.open;
+    }
+
+    @Override
+    public void close() {
+        if (this.open) {
+            this.open = false;
+            this.deflater.end();
+        }
+    }
+}
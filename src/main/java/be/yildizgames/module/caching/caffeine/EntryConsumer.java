@@ -0,0 +1,19 @@
+package be.yildizgames.module.caching.caffeine;
+
+/**
+ * Receive the entries read from a persisted cache.
+ * @param <K> Type of the key used to retrieve the data.
+ * @param <V> Type of the data associated to the key.
+ * @author Gregory Van den Borre
+ */
+@FunctionalInterface
+interface EntryConsumer<K, V> {
+
+    /**
+     * Receive an entry.
+     * @param key Entry key.
+     * @param value Entry value.
+     * @param expiresAt Time when the entry expires, in milliseconds since the epoch.
+     */
+    void accept(K key, V value, long expiresAt);
+}
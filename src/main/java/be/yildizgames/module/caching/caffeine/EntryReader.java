@@ -0,0 +1,131 @@
+package be.yildizgames.module.caching.caffeine;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * <pre>
+ * Read cache entries written by an EntryWriter from a channel.
+ * Entries are decoded from a reusable direct buffer, and forwarded one by one, without building any intermediate map.
+ * Expired entries are skipped without being decoded.
+ * Mutable: yes.
+ * Thread safe: no.
+ * Accept null: no.
+ * Returns null: no.
+ * Side effects: channel read.
+ * Throws exceptions: yes.
+ * </pre>
+ * @param <K> Type of the key used to retrieve the data.
+ * @param <V> Type of the data associated to the key.
+ * @author Gregory Van den Borre
+ */
+final class EntryReader<K, V> {
+
+    private final ReadableByteChannel channel;
+
+    private final Serializer<K, V> serializer;
+
+    private ByteBuffer buffer;
+
+    EntryReader(ReadableByteChannel channel, Serializer<K, V> serializer) {
+        super();
+        this.channel = channel;
+        this.serializer = serializer;
+        this.buffer = ByteBuffer.allocateDirect(EntryWriter.DEFAULT_CAPACITY).flip();
+    }
+
+    /**
+     * Read all the entries until the end of the channel.
+     * Entries that are expired or cannot be decoded are skipped.
+     * @param consumer Consumer receiving the decoded entries.
+     * @throws EOFException If the channel ends in the middle of an entry.
+     * @throws StreamCorruptedException If an entry length is invalid.
+     * @throws IOException If the channel cannot be read.
+     */
+    void forEach(EntryConsumer<K, V> consumer) throws IOException {
+        var now = System.currentTimeMillis();
+        while (this.fill(Long.BYTES + Integer.BYTES, true)) {
+            var keyLength = this.length(Long.BYTES);
+            this.fill(Long.BYTES + Integer.BYTES * 2 + keyLength, false);
+            var valueLength = this.length(Long.BYTES + Integer.BYTES + keyLength);
+            this.fill(Long.BYTES + Integer.BYTES * 2 + keyLength + valueLength, false);
+            var start = this.buffer.position();
+            var expiresAt = this.buffer.getLong(start);
+            this.buffer.position(start + Long.BYTES + Integer.BYTES * 2 + keyLength + valueLength);
+            if (expiresAt <= now) {
+                continue;
+            }
+            var key = this.buffer.slice(start + Long.BYTES + Integer.BYTES, keyLength);
+            var value = this.buffer.slice(start + Long.BYTES + Integer.BYTES * 2 + keyLength, valueLength);
+            try {
+                consumer.accept(decodeKey(this.serializer, key), decodeValue(this.serializer, value), expiresAt);
+            } catch (RuntimeException e) {
+                System.getLogger(EntryReader.class.getName()).log(System.Logger.Level.DEBUG, "Cannot decode cache entry", e);
+            }
+        }
+    }
+
+    /**
+     * Decode a key.
+     * @param serializer Serializer to use.
+     * @param buffer Buffer containing only the encoded key.
+     * @param <K> Key type.
+     * @return The decoded key.
+     */
+    static <K> K decodeKey(Serializer<K, ?> serializer, ByteBuffer buffer) {
+        return serializer.readKey(buffer);
+    }
+
+    /**
+     * Decode a value.
+     * @param serializer Serializer to use.
+     * @param buffer Buffer containing only the encoded value.
+     * @param <V> Value type.
+     * @return The decoded value.
+     */
+    static <V> V decodeValue(Serializer<?, V> serializer, ByteBuffer buffer) {
+        return serializer.readValue(buffer);
+    }
+
+    private int length(int offset) throws StreamCorruptedException {
+        var length = this.buffer.getInt(this.buffer.position() + offset);
+        if (length < 0 || length > EntryWriter.MAX_CAPACITY) {
+            throw new StreamCorruptedException("Invalid cache entry length: " + length);
+        }
+        return length;
+    }
+
+    /**
+     * Ensure the buffer contains at least the requested number of bytes after its position.
+     * @param required Number of bytes required.
+     * @param endAllowed true if the channel is allowed to end before anything is read.
+     * @return false if the channel ended cleanly, true if the bytes are available.
+     * @throws IOException If the channel cannot be read or ended in the middle of an entry.
+     */
+    private boolean fill(int required, boolean endAllowed) throws IOException {
+        if (required < 0 || required > EntryWriter.MAX_CAPACITY) {
+            throw new StreamCorruptedException("Invalid cache entry length: " + required);
+        }
+        if (this.buffer.remaining() >= required) {
+            return true;
+        }
+        this.buffer.compact();
+        while (this.buffer.capacity() < required) {
+            this.buffer = EntryWriter.grow(this.buffer);
+        }
+        while (this.buffer.position() < required) {
+            if (this.channel.read(this.buffer) < 0) {
+                this.buffer.flip();
+                if (endAllowed && !this.buffer.hasRemaining()) {
+                    return false;
+                }
+                throw new EOFException("Truncated cache entry.");
+            }
+        }
+        this.buffer.flip();
+        return true;
+    }
+}
@@ -0,0 +1,149 @@
+package be.yildizgames.module.caching.caffeine;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * <pre>
+ * Write cache entries as [expiration time][key length][key][value length][value] records in a channel.
+ * Entries are encoded in a reusable direct buffer, which is flushed to the channel once full, or grown if a single
+ * entry does not fit in it.
+ * Mutable: yes.
+ * Thread safe: no.
+ * Accept null: no.
+ * Returns null: no.
+ * Side effects: channel write.
+ * Throws exceptions: yes.
+ * </pre>
+ * @param <K> Type of the key used to retrieve the data.
+ * @param <V> Type of the data associated to the key.
+ * @author Gregory Van den Borre
+ */
+final class EntryWriter<K, V> {
+
+    static final int DEFAULT_CAPACITY = 64 * 1024;
+
+    static final int MAX_CAPACITY = 1 << 30;
+
+    private final WritableByteChannel channel;
+
+    private final Serializer<K, V> serializer;
+
+    private ByteBuffer buffer;
+
+    /**
+     * Number of bytes already written to the channel.
+     */
+    private long flushed;
+
+    EntryWriter(WritableByteChannel channel, Serializer<K, V> serializer) {
+        super();
+        this.channel = channel;
+        this.serializer = serializer;
+        this.buffer = ByteBuffer.allocateDirect(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Write an entry.
+     * @param key Entry key.
+     * @param value Entry value.
+     * @param expiresAt Time when the entry expires, in milliseconds since the epoch.
+     * @return true if the entry was written, false if it could not be encoded.
+     * @throws IOException If the channel cannot be written.
+     */
+    boolean write(K key, V value, long expiresAt) throws IOException {
+        while (true) {
+            var start = this.buffer.position();
+            try {
+                this.buffer.putLong(expiresAt);
+                encodeKey(this.serializer, this.buffer, key);
+                encodeValue(this.serializer, this.buffer, value);
+                return true;
+            } catch (BufferOverflowException e) {
+                this.buffer.position(start);
+                if (start > 0) {
+                    this.flush();
+                } else if (this.buffer.capacity() < MAX_CAPACITY) {
+                    this.buffer = grow(this.buffer);
+                } else {
+                    System.getLogger(EntryWriter.class.getName()).log(System.Logger.Level.WARNING, "Cache entry too big to be persisted");
+                    return false;
+                }
+            } catch (RuntimeException e) {
+                this.buffer.position(start);
+                System.getLogger(EntryWriter.class.getName()).log(System.Logger.Level.DEBUG, "Cannot encode cache entry", e);
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Write all buffered entries to the channel.
+     * @throws IOException If the channel cannot be written.
+     */
+    void flush() throws IOException {
+        this.buffer.flip();
+        this.flushed += this.buffer.remaining();
+        while (this.buffer.hasRemaining()) {
+            this.channel.write(this.buffer);
+        }
+        this.buffer.clear();
+    }
+
+    /**
+     * @return The number of bytes of all the entries written so far, flushed or not.
+     */
+    long size() {
+        return this.flushed + this.buffer.position();
+    }
+
+    /**
+     * Encode a key, prefixed by its length.
+     * @param serializer Serializer to use.
+     * @param buffer Buffer to write into.
+     * @param key Key to encode.
+     * @param <K> Key type.
+     * @throws BufferOverflowException if the buffer is too small.
+     */
+    static <K> void encodeKey(Serializer<K, ?> serializer, ByteBuffer buffer, K key) {
+        var start = buffer.position();
+        if (buffer.remaining() < Integer.BYTES) {
+            throw new BufferOverflowException();
+        }
+        buffer.position(start + Integer.BYTES);
+        serializer.writeKey(key, buffer);
+        buffer.putInt(start, buffer.position() - start - Integer.BYTES);
+    }
+
+    /**
+     * Encode a value, prefixed by its length.
+     * @param serializer Serializer to use.
+     * @param buffer Buffer to write into.
+     * @param value Value to encode.
+     * @param <V> Value type.
+     * @throws BufferOverflowException if the buffer is too small.
+     */
+    static <V> void encodeValue(Serializer<?, V> serializer, ByteBuffer buffer, V value) {
+        var start = buffer.position();
+        if (buffer.remaining() < Integer.BYTES) {
+            throw new BufferOverflowException();
+        }
+        buffer.position(start + Integer.BYTES);
+        serializer.writeValue(value, buffer);
+        buffer.putInt(start, buffer.position() - start - Integer.BYTES);
+    }
+
+    /**
+     * Create a buffer twice as big as the provided one, with the same content, up to MAX_CAPACITY.
+     * @param buffer Buffer to grow.
+     * @return The new buffer, its position is the one of the original buffer.
+     */
+    static ByteBuffer grow(ByteBuffer buffer) {
+        var result = ByteBuffer.allocateDirect(Math.min(MAX_CAPACITY, buffer.capacity() * 2));
+        buffer.flip();
+        result.put(buffer);
+        return result;
+    }
+}
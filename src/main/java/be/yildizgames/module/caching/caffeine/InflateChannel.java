@@ -0,0 +1,128 @@
+package be.yildizgames.module.caching.caffeine;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * <pre>
+ * Channel reading the blocks written by a DeflateChannel from another channel.
+ * Blocks are decompressed one at a time when the previous one is consumed, so the memory used does not depend on the
+ * size of the whole content.
+ * Mutable: yes.
+ * Thread safe: no.
+ * Accept null: no.
+ * Returns null: no.
+ * Side effects: channel read.
+ * Throws exceptions: yes.
+ * </pre>
+ * @author Gregory Van den Borre
+ */
+final class InflateChannel implements ReadableByteChannel {
+
+    private final ReadableByteChannel channel;
+
+    private final Inflater inflater = new Inflater();
+
+    private final ByteBuffer header = ByteBuffer.allocate(DeflateChannel.BLOCK_HEADER_SIZE);
+
+    private ByteBuffer compressed = ByteBuffer.allocateDirect(EntryWriter.DEFAULT_CAPACITY);
+
+    private ByteBuffer block = ByteBuffer.allocateDirect(EntryWriter.DEFAULT_CAPACITY).flip();
+
+    private boolean open = true;
+
+    /**
+     * @param channel Channel containing the compressed blocks, it is not closed with this channel.
+     */
+    InflateChannel(ReadableByteChannel channel) {
+        super();
+        this.channel = channel;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (!this.block.hasRemaining() && !this.nextBlock()) {
+            return -1;
+        }
+        var count = Math.min(dst.remaining(), this.block.remaining());
+        dst.put(dst.position(), this.block, this.block.position(), count);
+        dst.position(dst.position() + count);
+        this.block.position(this.block.position() + count);
+        return count;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return this.open;
+    }
+
+    @Override
+    public void close() {
+        if (this.open) {
+            this.open = false;
+            this.inflater.end();
+        }
+    }
+
+    /**
+     * Read and decompress the next block.
+     * @return false if the channel ended cleanly, true if a block was decompressed.
+     * @throws EOFException If the channel ends in the middle of a block.
+     * @throws StreamCorruptedException If the block is not valid.
+     * @throws IOException If the channel cannot be read.
+     */
+    private boolean nextBlock() throws IOException {
+        this.header.clear();
+        if (!this.readFully(this.header, true)) {
+            return false;
+        }
+        var length = this.header.getInt(0);
+        var compressedLength = this.header.getInt(Integer.BYTES);
+        if (length <= 0 || length > EntryWriter.MAX_CAPACITY || compressedLength <= 0 || compressedLength > EntryWriter.MAX_CAPACITY) {
+            throw new StreamCorruptedException("Invalid compressed block length.");
+        }
+        if (this.compressed.capacity() < compressedLength) {
+            this.compressed = ByteBuffer.allocateDirect(compressedLength);
+        }
+        this.compressed.clear().limit(compressedLength);
+        this.readFully(this.compressed, false);
+        this.compressed.flip();
+        if (this.block.capacity() < length) {
+            this.block = ByteBuffer.allocateDirect(length);
+        }
+        this.block.clear().limit(length);
+        this.inflater.reset();
+        this.inflater.setInput(this.compressed);
+        try {
+            while (this.block.hasRemaining() && !this.inflater.finished()) {
+                if (this.inflater.inflate(this.block) == 0 && (this.inflater.needsInput() || this.inflater.needsDictionary())) {
+                    break;
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new StreamCorruptedException("Invalid compressed block: " + e.getMessage());
+        }
+        if (this.block.hasRemaining() || !this.inflater.finished()) {
+            throw new StreamCorruptedException("Invalid compressed block size.");
+        }
+        this.block.flip();
+        return true;
+    }
+
+    private boolean readFully(ByteBuffer buffer, boolean endAllowed) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (this.channel.read(buffer) < 0) {
+                if (endAllowed && buffer.position() == 0) {
+                    return false;
+                }
+                throw new EOFException("Truncated compressed block.");
+            }
+        }
+        return true;
+    }
+}
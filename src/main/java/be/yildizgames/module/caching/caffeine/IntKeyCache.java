@@ -0,0 +1,106 @@
+package be.yildizgames.module.caching.caffeine;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.function.IntFunction;
+
+/**
+ * <pre>
+ * Caffeine cache using int keys, for the caches indexed by small ids.
+ * Lookups return the value or null instead of an Optional, keys already used are not boxed again, and a lookup with a
+ * data provider only adapts the provider on a miss, so a hit does not allocate.
+ * Keys are persisted as 4 bytes, whatever the serializer used for the values.
+ * Persistence is the same as for {@link CaffeineCache}.
+ * Mutable: yes.
+ * Thread safe: yes.
+ * Accept null: no.
+ * Returns null: yes.
+ * Side effects: file read and write.
+ * Throws exceptions: yes.
+ * </pre>
+ * @param <V> Type of the data associated to the key.
+ * @author Gregory Van den Borre
+ */
+public class IntKeyCache<V> extends PrimitiveKeyCache<Integer, V> {
+
+    /**
+     * Create a new cache instance.
+     * If a cache file matching the name exists it will try to be loaded, else a new empty cache will be created.
+     * @param name Cache name expected to be unique, non-unique name may result in an overwrite of disk file data,
+     *             resulting on a performance penalty or worse, wrong data. (no null, not empty)
+     * @param maxItem The maximum number of items to be accepted by the cache. (> 0)
+     * @param duration Maximum time before the data from the cache are refreshed after writing.(no null, > 0)
+     * @param mode Persistence strategy. (no null)
+     * @param value Codec used to encode the values on disk. (no null)
+     * @throws IllegalArgumentException for any parameter not following the restrictions.
+     */
+    public IntKeyCache(String name, long maxItem, Duration duration, PersistenceMode mode, Codec<V> value) {
+        this(CaffeineCacheBuilder.<Integer, V>newBuilder(name).maximumSize(maxItem).expireAfterWrite(duration).persistence(mode).serializer(Serializer.of(Codec.INTEGER, requireCodec(value))));
+    }
+
+    /**
+     * Create a new cache instance from a builder, the cache encodes the keys as 4 bytes, and the values with the
+     * builder serializer, the builder itself is left unchanged.
+     * If a cache file matching the name exists it will try to be loaded, else a new empty cache will be created.
+     * @param builder Builder holding the cache options. (no null)
+     * @throws IllegalArgumentException for any option not following the restrictions.
+     */
+    public IntKeyCache(CaffeineCacheBuilder<Integer, V> builder) {
+        super(builder, Codec.INTEGER, k -> (int) k);
+    }
+
+    /**
+     * Retrieve an element from the cache.
+     * @param key Key that will be used to retrieve the element.
+     * @return The value associated to the key, or null if the entry is not stored.
+     */
+    public final V getOrNull(int key) {
+        return this.present(key);
+    }
+
+    /**
+     * Retrieve an element from the cache.
+     * @param key Key that will be used to retrieve the element.
+     * @param defaultValue Value to return if the entry is not stored.
+     * @return The value associated to the key, or the default value if the entry is not stored.
+     */
+    public final V getOrDefault(int key, V defaultValue) {
+        V value = this.present(key);
+        return value == null ? defaultValue : value;
+    }
+
+    /**
+     * Retrieve an element from the cache, calling the data provider if the entry is not yet stored.
+     * @param key Key that will be used to retrieve the element.
+     * @param addValue Data provider to feed the cache if the entry is not yet stored (no null).
+     * @return The value, or null if the provider returned null.
+     * @throws NullPointerException if the data provider is null.
+     */
+    public final V get(int key, IntFunction<? extends V> addValue) {
+        Objects.requireNonNull(addValue);
+        var boxed = this.key(key);
+        V value = this.cached(boxed);
+        if(value != null) {
+            return value;
+        }
+        return this.load(boxed, k -> addValue.apply(k));
+    }
+
+    /**
+     * Add or replace an element in the cache.
+     * @param key Key of the element.
+     * @param value Element to store (no null).
+     * @throws NullPointerException if the value is null.
+     */
+    public final void put(int key, V value) {
+        this.store(key, value);
+    }
+
+    /**
+     * Remove an element from the cache, and from its persisted content.
+     * @param key Key of the element.
+     */
+    public final void invalidate(int key) {
+        this.remove(key);
+    }
+}
@@ -0,0 +1,258 @@
+package be.yildizgames.module.caching.caffeine;
+
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * <pre>
+ * Publish the keys changed in a cache to the other nodes holding the same cache, and apply the changes they publish.
+ * Changed keys are collected, duplicates merged, and sent in batches after a short delay, each batch being a message
+ * [magic][channel][sender][event count] followed by [type][key length][key] events, the keys being encoded with the
+ * cache serializer. A key too big to fit in a message is published as a clear of the whole cache.
+ * The channel is a fingerprint of the cache name and schema, so caches sharing a transport only receive their own
+ * events, and the sender is a random id, so a node ignores its own messages.
+ * Mutable: yes.
+ * Thread safe: yes.
+ * Accept null: no.
+ * Returns null: no.
+ * Side effects: network write.
+ * Throws exceptions: no.
+ * </pre>
+ * @param <K> Type of the key used to retrieve the data.
+ * @author Gregory Van den Borre
+ */
+final class InvalidationBus<K> implements AutoCloseable {
+
+    private static final int MAGIC = 0x59434942;
+
+    private static final int HEADER_SIZE = Integer.BYTES + Long.BYTES * 2 + Short.BYTES;
+
+    private static final int COUNT = Integer.BYTES + Long.BYTES * 2;
+
+    private static final byte INVALIDATE = 1;
+
+    private static final byte CLEAR = 2;
+
+    /**
+     * Thread sending the batches of all the caches not opened by a manager.
+     */
+    static final ScheduledExecutorService PUBLISHER = Executors.newSingleThreadScheduledExecutor(r -> {
+        var thread = new Thread(r, "cache-invalidation");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final InvalidationTransport transport;
+
+    private final Serializer<K, ?> serializer;
+
+    private final long channel;
+
+    private final long sender = ThreadLocalRandom.current().nextLong();
+
+    private final Consumer<K> onInvalidate;
+
+    private final Runnable onClear;
+
+    /**
+     * Keys changed since the last batch.
+     */
+    private final Set<K> pending = ConcurrentHashMap.newKeySet();
+
+    /**
+     * true if the cache was cleared since the last batch.
+     */
+    private final AtomicBoolean cleared = new AtomicBoolean();
+
+    private final Consumer<ByteBuffer> subscriber = this::receive;
+
+    private final ScheduledFuture<?> publication;
+
+    /**
+     * Buffer used to encode the batches, guarded by itself.
+     */
+    private final ByteBuffer message = ByteBuffer.allocate(InvalidationTransport.MAX_MESSAGE_SIZE);
+
+    /**
+     * Buffer used to encode a key, guarded by the message buffer.
+     */
+    private final ByteBuffer key = ByteBuffer.allocate(InvalidationTransport.MAX_MESSAGE_SIZE);
+
+    /**
+     * Create a bus and subscribe it to the transport.
+     * @param transport Transport to the other nodes.
+     * @param serializer Serializer to encode the keys.
+     * @param channel Fingerprint of the cache name and schema.
+     * @param delay Time between two batches.
+     * @param publisher Executor sending the batches.
+     * @param onInvalidate Apply the invalidation of a key published by another node.
+     * @param onClear Apply the clear of the cache published by another node.
+     */
+    InvalidationBus(InvalidationTransport transport, Serializer<K, ?> serializer, long channel, Duration delay, ScheduledExecutorService publisher, Consumer<K> onInvalidate, Runnable onClear) {
+        super();
+        this.transport = transport;
+        this.serializer = serializer;
+        this.channel = channel;
+        this.onInvalidate = onInvalidate;
+        this.onClear = onClear;
+        this.transport.subscribe(this.subscriber);
+        var nanos = delay.toNanos();
+        this.publication = publisher.scheduleWithFixedDelay(this::publish, nanos, nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Publish the change of a key in the next batch.
+     * @param key Changed key.
+     */
+    void invalidate(K key) {
+        this.pending.add(key);
+    }
+
+    /**
+     * Publish the clear of the cache in the next batch.
+     */
+    void clear() {
+        this.cleared.set(true);
+    }
+
+    /**
+     * Send the pending events, and stop receiving the events of the other nodes.
+     */
+    @Override
+    public void close() {
+        this.publication.cancel(false);
+        this.transport.unsubscribe(this.subscriber);
+        this.publish();
+    }
+
+    /**
+     * Send the pending events, in as many messages as needed.
+     */
+    private void publish() {
+        synchronized (this.message) {
+            this.start();
+            if(this.cleared.getAndSet(false)) {
+                this.message.put(CLEAR);
+                this.count();
+            }
+            for(K changed : this.pending) {
+                if(this.pending.remove(changed)) {
+                    this.append(changed);
+                }
+            }
+            this.send();
+        }
+    }
+
+    /**
+     * Add an invalidation to the current message, sending it first if it is full.
+     * @param changed Changed key.
+     */
+    private void append(K changed) {
+        this.key.clear();
+        try {
+            this.serializer.writeKey(changed, this.key);
+        } catch (BufferOverflowException e) {
+            this.clearInstead();
+            return;
+        } catch (RuntimeException e) {
+            System.getLogger(InvalidationBus.class.getName()).log(System.Logger.Level.DEBUG, "Cannot encode invalidated key", e);
+            this.clearInstead();
+            return;
+        }
+        this.key.flip();
+        var size = Byte.BYTES + Short.BYTES + this.key.remaining();
+        if(HEADER_SIZE + size > InvalidationTransport.MAX_MESSAGE_SIZE) {
+            this.clearInstead();
+            return;
+        }
+        if(this.message.remaining() < size || this.message.getShort(COUNT) == Short.MAX_VALUE) {
+            this.send();
+            this.start();
+        }
+        this.message.put(INVALIDATE);
+        this.message.putShort((short) this.key.remaining());
+        this.message.put(this.key);
+        this.count();
+    }
+
+    /**
+     * Publish a clear of the whole cache, for a key which cannot be published.
+     */
+    private void clearInstead() {
+        if(this.message.remaining() < Byte.BYTES) {
+            this.send();
+            this.start();
+        }
+        this.message.put(CLEAR);
+        this.count();
+    }
+
+    private void start() {
+        this.message.clear();
+        this.message.putInt(MAGIC);
+        this.message.putLong(this.channel);
+        this.message.putLong(this.sender);
+        this.message.putShort((short) 0);
+    }
+
+    private void count() {
+        this.message.putShort(COUNT, (short) (this.message.getShort(COUNT) + 1));
+    }
+
+    private void send() {
+        if(this.message.getShort(COUNT) == 0) {
+            return;
+        }
+        this.message.flip();
+        try {
+            this.transport.send(this.message);
+        } catch (RuntimeException e) {
+            System.getLogger(InvalidationBus.class.getName()).log(System.Logger.Level.WARNING, "Cannot publish cache invalidation", e);
+        }
+        this.message.clear();
+        this.message.putShort(COUNT, (short) 0);
+    }
+
+    /**
+     * Apply the events of a message published by another node, messages of other channels, or sent by this node, are
+     * ignored.
+     * @param received Received message.
+     */
+    private void receive(ByteBuffer received) {
+        try {
+            if(received.remaining() < HEADER_SIZE || received.getInt() != MAGIC || received.getLong() != this.channel || received.getLong() == this.sender) {
+                return;
+            }
+            var count = received.getShort();
+            for(int i = 0; i < count; i++) {
+                var type = received.get();
+                if(type == CLEAR) {
+                    this.onClear.run();
+                } else if(type == INVALIDATE) {
+                    var length = received.getShort();
+                    var encoded = received.slice(received.position(), length);
+                    received.position(received.position() + length);
+                    this.onInvalidate.accept(EntryReader.decodeKey(this.serializer, encoded));
+                } else {
+                    return;
+                }
+            }
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            System.getLogger(InvalidationBus.class.getName()).log(System.Logger.Level.WARNING, "Invalid cache invalidation message", e);
+        } catch (RuntimeException e) {
+            System.getLogger(InvalidationBus.class.getName()).log(System.Logger.Level.ERROR, "Cannot apply cache invalidation", e);
+        }
+    }
+}
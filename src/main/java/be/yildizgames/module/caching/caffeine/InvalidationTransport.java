@@ -0,0 +1,71 @@
+package be.yildizgames.module.caching.caffeine;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+
+/**
+ * <pre>
+ * Transport of the invalidation messages between the nodes holding a copy of the same caches.
+ * A message sent by a node is delivered to every subscriber of every node of the group, possibly including the sender
+ * itself, which recognizes and ignores its own messages. Delivery is best effort: messages can be lost, duplicated or
+ * reordered, so the caches still expire their entries.
+ * A transport can be shared by several caches, it is not closed when they are closed.
+ * Implementations must be thread safe.
+ * </pre>
+ * @author Gregory Van den Borre
+ */
+public interface InvalidationTransport extends AutoCloseable {
+
+    /**
+     * Maximum size of a message, small enough to be sent in a single datagram on any network.
+     */
+    int MAX_MESSAGE_SIZE = 1400;
+
+    /**
+     * Send a message to the group.
+     * @param message Message between its position and its limit, at most MAX_MESSAGE_SIZE bytes, it is not retained.
+     */
+    void send(ByteBuffer message);
+
+    /**
+     * Register a subscriber receiving the messages of the group.
+     * @param subscriber Subscriber receiving the messages between their position and limit, valid for the duration of
+     *                   the call only.
+     */
+    void subscribe(Consumer<ByteBuffer> subscriber);
+
+    /**
+     * Remove a subscriber, it does not receive any message once this call returns.
+     * @param subscriber Subscriber to remove.
+     */
+    void unsubscribe(Consumer<ByteBuffer> subscriber);
+
+    @Override
+    void close();
+
+    /**
+     * Create a transport delivering the messages to the transports of the same group in this JVM, for tests and for
+     * several instances of a cache in the same process.
+     * @param group Name of the group. (no null)
+     * @return The created transport.
+     * @throws IllegalArgumentException if the group is null.
+     */
+    static InvalidationTransport loopback(String group) {
+        return new LoopbackTransport(group);
+    }
+
+    /**
+     * Create a transport exchanging the messages as UDP multicast datagrams.
+     * @param group Multicast group address and port. (no null)
+     * @param networkInterface Network interface to send and receive the datagrams on. (no null)
+     * @return The created transport, receiving the datagrams on a daemon thread.
+     * @throws IllegalArgumentException if a parameter is null, or if the address is not a multicast address.
+     * @throws IOException If the multicast group cannot be joined.
+     */
+    static InvalidationTransport multicast(InetSocketAddress group, NetworkInterface networkInterface) throws IOException {
+        return new MulticastTransport(group, networkInterface);
+    }
+}
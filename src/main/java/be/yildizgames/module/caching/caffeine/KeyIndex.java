@@ -0,0 +1,74 @@
+package be.yildizgames.module.caching.caffeine;
+
+import java.util.function.LongFunction;
+
+/**
+ * <pre>
+ * Index of the boxed keys of a cache by their primitive value, so a key already used is boxed only once, and looking
+ * it up again does not allocate.
+ * The index is direct mapped: every primitive value has a single slot, chosen from its hash, and a new key replaces
+ * the one in its slot, so the index never grows and a few colliding keys are boxed again.
+ * Slots are read and written without lock, a box being immutable it is safely published through a race, and two
+ * threads boxing the same key at once only allocate twice.
+ * Mutable: yes.
+ * Thread safe: yes.
+ * Accept null: no.
+ * Returns null: no.
+ * Side effects: none.
+ * Throws exceptions: no.
+ * </pre>
+ * @param <K> Type of the boxed keys.
+ * @author Gregory Van den Borre
+ */
+final class KeyIndex<K extends Number> {
+
+    /**
+     * Number of slots used for the caches not bounded by a number of entries.
+     */
+    static final int DEFAULT_CAPACITY = 1 << 16;
+
+    /**
+     * Upper bound of the number of slots.
+     */
+    private static final int MAX_CAPACITY = 1 << 20;
+
+    private static final int MIN_CAPACITY = 64;
+
+    private final Object[] boxes;
+
+    /**
+     * Number of bits of the hash used to choose a slot.
+     */
+    private final int bits;
+
+    private final LongFunction<K> boxing;
+
+    /**
+     * @param entries Expected number of keys in the cache, there are twice more slots to limit the collisions.
+     * @param boxing Box a primitive value.
+     */
+    KeyIndex(long entries, LongFunction<K> boxing) {
+        super();
+        var capacity = (int) Math.min(MAX_CAPACITY, Math.max(MIN_CAPACITY, entries * 2));
+        this.bits = Integer.SIZE - Integer.numberOfLeadingZeros(capacity - 1);
+        this.boxes = new Object[1 << this.bits];
+        this.boxing = boxing;
+    }
+
+    /**
+     * Provide the box of a key, from the index if it was already boxed.
+     * @param key Primitive value of the key.
+     * @return The boxed key.
+     */
+    @SuppressWarnings("unchecked")
+    K box(long key) {
+        var slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> (Long.SIZE - this.bits));
+        var box = (K) this.boxes[slot];
+        if (box != null && box.longValue() == key) {
+            return box;
+        }
+        box = this.boxing.apply(key);
+        this.boxes[slot] = box;
+        return box;
+    }
+}
@@ -0,0 +1,56 @@
+package be.yildizgames.module.caching.caffeine;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+
+/**
+ * <pre>
+ * Run the data providers on virtual threads, with a bound on the number of provider calls running at once.
+ * A call waiting for a permit only parks its own virtual thread, so any number of callers can miss at once without
+ * holding a platform thread, and the providers never see more than the allowed number of concurrent calls.
+ * Mutable: no.
+ * Thread safe: yes.
+ * Accept null: no.
+ * Returns null: no.
+ * Side effects: none.
+ * Throws exceptions: no.
+ * </pre>
+ * @author Gregory Van den Borre
+ */
+final class LoadLimiter {
+
+    /**
+     * Start a virtual thread per provider call, virtual threads do not need to be shut down.
+     */
+    private static final Executor THREADS = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("cache-load-", 0).factory());
+
+    private final Semaphore permits;
+
+    /**
+     * @param maxConcurrentLoads Maximum number of provider calls running at once.
+     */
+    LoadLimiter(int maxConcurrentLoads) {
+        super();
+        this.permits = new Semaphore(maxConcurrentLoads);
+    }
+
+    /**
+     * Call a provider on a virtual thread, once a permit is available.
+     * @param provider Provider to call.
+     * @param <T> Type of the provided value.
+     * @return A future completed with the provided value, or exceptionally if the provider failed.
+     */
+    <T> CompletableFuture<T> supply(Supplier<T> provider) {
+        return CompletableFuture.supplyAsync(() -> {
+            this.permits.acquireUninterruptibly();
+            try {
+                return provider.get();
+            } finally {
+                this.permits.release();
+            }
+        }, THREADS);
+    }
+}
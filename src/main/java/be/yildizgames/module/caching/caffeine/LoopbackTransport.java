@@ -0,0 +1,79 @@
+package be.yildizgames.module.caching.caffeine;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * <pre>
+ * Invalidation transport between the transports of the same group in this JVM.
+ * Messages are delivered synchronously, on the sender thread, to the subscribers of all the open transports of the
+ * group, including the sender.
+ * Mutable: yes.
+ * Thread safe: yes.
+ * Accept null: no.
+ * Returns null: no.
+ * Side effects: none.
+ * Throws exceptions: yes.
+ * </pre>
+ * @author Gregory Van den Borre
+ */
+final class LoopbackTransport implements InvalidationTransport {
+
+    /**
+     * Open transports, by group.
+     */
+    private static final ConcurrentMap<String, List<LoopbackTransport>> GROUPS = new ConcurrentHashMap<>();
+
+    private final String group;
+
+    private final List<Consumer<ByteBuffer>> subscribers = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param group Name of the group.
+     * @throws IllegalArgumentException if the group is null.
+     */
+    LoopbackTransport(String group) {
+        super();
+        if(group == null) {
+            throw new IllegalArgumentException("Group cannot be null.");
+        }
+        this.group = group;
+        GROUPS.compute(group, (g, transports) -> {
+            var result = transports == null ? new CopyOnWriteArrayList<LoopbackTransport>() : transports;
+            result.add(this);
+            return result;
+        });
+    }
+
+    @Override
+    public void send(ByteBuffer message) {
+        for(var transport : GROUPS.getOrDefault(this.group, List.of())) {
+            for(var subscriber : transport.subscribers) {
+                subscriber.accept(message.asReadOnlyBuffer());
+            }
+        }
+    }
+
+    @Override
+    public void subscribe(Consumer<ByteBuffer> subscriber) {
+        this.subscribers.add(subscriber);
+    }
+
+    @Override
+    public void unsubscribe(Consumer<ByteBuffer> subscriber) {
+        this.subscribers.remove(subscriber);
+    }
+
+    @Override
+    public void close() {
+        GROUPS.computeIfPresent(this.group, (g, transports) -> {
+            transports.remove(this);
+            return transports.isEmpty() ? null : transports;
+        });
+        this.subscribers.clear();
+    }
+}
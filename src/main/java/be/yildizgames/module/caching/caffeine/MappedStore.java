@@ -0,0 +1,812 @@
+package be.yildizgames.module.caching.caffeine;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <pre>
+ * On disk store, made of an index file and a data file, both accessed through memory mapping.
+ * The index is an open addressing hash table of [key hash][record offset] slots, the hash being computed from the
+ * encoded key, so it is stable across processes, a removed entry leaves a tombstone slot with a negative offset.
+ * The data file contains the [expiration time][key length][key][value length][value] records, appended one after the
+ * other, a record never spans two mapped regions. The data file is extended ahead of its records, doubling its size up
+ * to a maximum step, so the mapped regions already cover the next records, and they are remapped only when the file
+ * is extended, not at every append. The end of the records is kept in the index, the rest of the file being unused.
+ * Opening the store only maps the files, entries are decoded one by one when they are looked up, expired entries are
+ * ignored without decoding their value.
+ * A shared store can be used by several processes at once: writes, index growth and compaction are serialized by an
+ * exclusive lock on a lock file next to the index, while lookups stay lock free, the mapped files being shared memory.
+ * When the index or data file is replaced by another process, the old index is marked as replaced, so the other
+ * processes map the new files on their next access.
+ * Mutable: yes.
+ * Thread safe: yes.
+ * Accept null: no.
+ * Returns null: yes, get returns null when the key is not in the store or is expired.
+ * Side effects: file read and write.
+ * Throws exceptions: yes.
+ * </pre>
+ * @param <K> Type of the key used to retrieve the data.
+ * @param <V> Type of the data associated to the key.
+ * @author Gregory Van den Borre
+ */
+final class MappedStore<K, V> implements OverflowStore<K, V> {
+
+    private static final int MAGIC = 0x5943434D;
+
+    private static final int VERSION = 2;
+
+    private static final int CAPACITY = 8;
+
+    private static final int COUNT = 12;
+
+    private static final int DATA_SIZE = 16;
+
+    private static final int GARBAGE = 24;
+
+    private static final int GENERATION = 32;
+
+    /**
+     * Set in an index once it has been replaced by a grown or compacted one, so other processes map the new files.
+     */
+    private static final int REPLACED = 40;
+
+    private static final int INDEX_HEADER_SIZE = 48;
+
+    private static final int DATA_GENERATION = 8;
+
+    private static final int DATA_HEADER_SIZE = 16;
+
+    private static final int SLOT_SIZE = 16;
+
+    private static final int MIN_CAPACITY = 1024;
+
+    private static final int MAX_CAPACITY = 1 << 28;
+
+    private static final long REGION_SIZE = 1L << 30;
+
+    /**
+     * Maximum size the data file is extended by at once.
+     */
+    private static final long MAX_GROWTH = 64L << 20;
+
+    private static final String TEMPORARY = ".tmp";
+
+    private static final String LOCK = ".lock";
+
+    /**
+     * A file lock is held by a whole process, so the stores of a process sharing the same files also exclude each
+     * other with a lock per file.
+     */
+    private static final ConcurrentMap<Path, ReentrantLock> PROCESS_LOCKS = new ConcurrentHashMap<>();
+
+    private static final long TOMBSTONE = -1;
+
+    /**
+     * Offset of the key length in a record, after the expiration time.
+     */
+    private static final int KEY = Long.BYTES;
+
+    /**
+     * Slot offsets are published with release semantics and read with acquire semantics, so a reader seeing an offset
+     * also sees the record it points to.
+     */
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    private final Path indexPath;
+
+    private final Path dataPath;
+
+    private final Serializer<K, V> serializer;
+
+    /**
+     * Channel of the lock file, only used by a shared store, null otherwise.
+     */
+    private final FileChannel lockChannel;
+
+    private final ReentrantLock processLock;
+
+    private FileChannel data;
+
+    private volatile MappedByteBuffer index;
+
+    private volatile ByteBuffer[] regions = new ByteBuffer[0];
+
+    /**
+     * Buffer used to encode the records, guarded by this.
+     */
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(EntryWriter.DEFAULT_CAPACITY);
+
+    /**
+     * Open a store, or create it if the files do not exist or are not valid.
+     * @param index Path of the index file.
+     * @param data Path of the data file.
+     * @param serializer Serializer to encode the entries.
+     * @param expectedSize Expected number of entries, used to size a new index.
+     * @throws IOException If the files cannot be opened nor created.
+     */
+    MappedStore(String index, String data, Serializer<K, V> serializer, long expectedSize) throws IOException {
+        this(index, data, serializer, expectedSize, false);
+    }
+
+    /**
+     * Open a store, or create it if the files do not exist or are not valid.
+     * @param index Path of the index file.
+     * @param data Path of the data file.
+     * @param serializer Serializer to encode the entries.
+     * @param expectedSize Expected number of entries, used to size a new index.
+     * @param shared true if the store can be used by other processes at the same time.
+     * @throws IOException If the files cannot be opened nor created.
+     */
+    MappedStore(String index, String data, Serializer<K, V> serializer, long expectedSize, boolean shared) throws IOException {
+        super();
+        this.indexPath = Path.of(index);
+        this.dataPath = Path.of(data);
+        this.serializer = serializer;
+        if (shared) {
+            var lockPath = Path.of(index + LOCK);
+            this.lockChannel = FileChannel.open(lockPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            this.processLock = PROCESS_LOCKS.computeIfAbsent(lockPath.toAbsolutePath().normalize(), p -> new ReentrantLock());
+        } else {
+            this.lockChannel = null;
+            this.processLock = null;
+        }
+        var lock = this.lock();
+        try {
+            if (Files.notExists(this.indexPath) || Files.notExists(this.dataPath)) {
+                create(this.indexPath, this.dataPath, capacityFor(expectedSize));
+            }
+            try {
+                this.open();
+            } catch (IOException e) {
+                System.getLogger(MappedStore.class.getName()).log(System.Logger.Level.ERROR, "Invalid cache store, a new one is created", e);
+                this.closeChannel();
+                create(this.indexPath, this.dataPath, capacityFor(expectedSize));
+                this.open();
+            }
+        } finally {
+            this.unlock(lock);
+        }
+    }
+
+    /**
+     * Look up an entry, decoding only its value.
+     * @param key Key to look for.
+     * @return The stored entry, or null if the key is not in the store or is expired.
+     */
+    @Override
+    public Entry<V> get(K key) {
+        var probe = this.encodeKey(key);
+        var hash = hash(probe);
+        var table = this.index;
+        if (table.getInt(REPLACED) != 0) {
+            this.reopen();
+            table = this.index;
+        }
+        var capacity = table.getInt(CAPACITY);
+        var mask = capacity - 1;
+        for (int i = 0; i < capacity; i++) {
+            var slot = INDEX_HEADER_SIZE + ((hash + i) & mask) * SLOT_SIZE;
+            var offset = (long) LONGS.getAcquire(table, slot + Long.BYTES);
+            if (offset == 0) {
+                return null;
+            }
+            if (offset > 0 && table.getInt(slot) == hash) {
+                var record = this.record(offset);
+                if (record != null && keyEquals(record, probe)) {
+                    var expiresAt = record.getLong(0);
+                    if (expiresAt <= System.currentTimeMillis()) {
+                        return null;
+                    }
+                    var keyLength = record.getInt(KEY);
+                    var value = EntryReader.decodeValue(this.serializer, record.slice(KEY + Integer.BYTES * 2 + keyLength, record.getInt(KEY + Integer.BYTES + keyLength)));
+                    return new Entry<>(value, expiresAt);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Add or replace an entry in the store.
+     * @param key Entry key.
+     * @param value Entry value.
+     * @param expiresAt Time when the entry expires, in milliseconds since the epoch.
+     */
+    @Override
+    public synchronized void put(K key, V value, long expiresAt) {
+        if (this.data == null) {
+            return;
+        }
+        var record = this.encode(key, value, expiresAt);
+        if (record == null) {
+            return;
+        }
+        FileLock lock = null;
+        try {
+            lock = this.lock();
+            this.refresh();
+            var length = record.remaining();
+            var table = this.index;
+            var position = table.getLong(DATA_SIZE);
+            if (position % REGION_SIZE + length > REGION_SIZE) {
+                position = (position / REGION_SIZE + 1) * REGION_SIZE;
+            }
+            var keyBytes = record.slice(KEY + Integer.BYTES, record.getInt(KEY));
+            this.reserve(position + length);
+            var writePosition = position;
+            while (record.hasRemaining()) {
+                writePosition += this.data.write(record, writePosition);
+            }
+            table.putLong(DATA_SIZE, position + length);
+            this.insert(hash(keyBytes), position, keyBytes);
+        } catch (IOException e) {
+            System.getLogger(MappedStore.class.getName()).log(System.Logger.Level.ERROR, "Cannot write cache store", e);
+        } finally {
+            this.unlock(lock);
+        }
+    }
+
+    /**
+     * Remove an entry from the store, its slot is kept as a tombstone until the index is rebuilt.
+     * @param key Entry key.
+     */
+    @Override
+    public synchronized void remove(K key) {
+        if (this.data == null) {
+            return;
+        }
+        var probe = this.encodeKey(key);
+        var hash = hash(probe);
+        FileLock lock = null;
+        try {
+            lock = this.lock();
+            this.refresh();
+            this.remove(probe, hash);
+        } catch (IOException e) {
+            System.getLogger(MappedStore.class.getName()).log(System.Logger.Level.ERROR, "Cannot write cache store", e);
+        } finally {
+            this.unlock(lock);
+        }
+    }
+
+    private void remove(ByteBuffer probe, int hash) {
+        var table = this.index;
+        var capacity = table.getInt(CAPACITY);
+        var mask = capacity - 1;
+        for (int i = 0; i < capacity; i++) {
+            var slot = INDEX_HEADER_SIZE + ((hash + i) & mask) * SLOT_SIZE;
+            var offset = (long) LONGS.getAcquire(table, slot + Long.BYTES);
+            if (offset == 0) {
+                return;
+            }
+            if (offset > 0 && table.getInt(slot) == hash) {
+                var record = this.record(offset);
+                if (record != null && keyEquals(record, probe)) {
+                    LONGS.setRelease(table, slot + Long.BYTES, TOMBSTONE);
+                    table.putInt(COUNT, table.getInt(COUNT) - 1);
+                    table.putLong(GARBAGE, table.getLong(GARBAGE) + record.limit());
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove all the entries, the data file is left untouched, its records being garbage for the next compaction.
+     */
+    @Override
+    public synchronized void clear() {
+        if (this.data == null) {
+            return;
+        }
+        FileLock lock = null;
+        try {
+            lock = this.lock();
+            this.refresh();
+            var table = this.index;
+            var capacity = table.getInt(CAPACITY);
+            for (int i = 0; i < capacity; i++) {
+                var slot = INDEX_HEADER_SIZE + i * SLOT_SIZE;
+                LONGS.setRelease(table, slot + Long.BYTES, 0L);
+                table.putInt(slot, 0);
+            }
+            table.putInt(COUNT, 0);
+            table.putLong(GARBAGE, table.getLong(DATA_SIZE) - DATA_HEADER_SIZE);
+        } catch (IOException e) {
+            System.getLogger(MappedStore.class.getName()).log(System.Logger.Level.ERROR, "Cannot write cache store", e);
+        } finally {
+            this.unlock(lock);
+        }
+    }
+
+    /**
+     * @return The number of entries in the store.
+     */
+    int size() {
+        return this.index.getInt(COUNT);
+    }
+
+    /**
+     * @return The size of the store files in bytes.
+     */
+    long bytes() {
+        try {
+            return Files.size(this.indexPath) + Files.size(this.dataPath);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Force the index and the data written so far to disk.
+     */
+    synchronized void flush() {
+        if (this.data == null) {
+            return;
+        }
+        this.index.force();
+        try {
+            this.data.force(false);
+        } catch (IOException e) {
+            System.getLogger(MappedStore.class.getName()).log(System.Logger.Level.ERROR, "Cannot flush cache store", e);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (this.data == null) {
+            return;
+        }
+        this.flush();
+        FileLock lock = null;
+        try {
+            lock = this.lock();
+            this.refresh();
+            var table = this.index;
+            if (table.getLong(GARBAGE) > table.getLong(DATA_SIZE) / 2) {
+                this.compact();
+            }
+        } catch (IOException e) {
+            System.getLogger(MappedStore.class.getName()).log(System.Logger.Level.ERROR, "Cannot compact cache store", e);
+        } finally {
+            this.unlock(lock);
+        }
+        this.closeChannel();
+        if (this.lockChannel != null) {
+            try {
+                this.lockChannel.close();
+            } catch (IOException e) {
+                System.getLogger(MappedStore.class.getName()).log(System.Logger.Level.ERROR, "Cannot close cache store lock", e);
+            }
+        }
+    }
+
+    /**
+     * Map the current files if the mapped index was replaced by another process.
+     */
+    private synchronized void reopen() {
+        if (this.data == null) {
+            return;
+        }
+        FileLock lock = null;
+        try {
+            lock = this.lock();
+            this.refresh();
+        } catch (IOException e) {
+            System.getLogger(MappedStore.class.getName()).log(System.Logger.Level.ERROR, "Cannot map cache store", e);
+        } finally {
+            this.unlock(lock);
+        }
+    }
+
+    /**
+     * Map the current files if the mapped index was replaced, to be called with the lock held.
+     * @throws IOException If the current files cannot be mapped.
+     */
+    private void refresh() throws IOException {
+        if (this.index.getInt(REPLACED) != 0) {
+            this.closeChannel();
+            this.open();
+        }
+    }
+
+    /**
+     * Acquire the exclusive lock of a shared store, first within the process, then across processes.
+     * @return The file lock to release, null if the store is not shared.
+     * @throws IOException If the lock cannot be acquired.
+     */
+    private FileLock lock() throws IOException {
+        if (this.lockChannel == null) {
+            return null;
+        }
+        this.processLock.lock();
+        try {
+            return this.lockChannel.lock();
+        } catch (IOException | RuntimeException e) {
+            this.processLock.unlock();
+            throw e;
+        }
+    }
+
+    private void unlock(FileLock lock) {
+        if (lock == null) {
+            return;
+        }
+        try {
+            lock.release();
+        } catch (IOException e) {
+            System.getLogger(MappedStore.class.getName()).log(System.Logger.Level.ERROR, "Cannot release cache store lock", e);
+        } finally {
+            this.processLock.unlock();
+        }
+    }
+
+    private void open() throws IOException {
+        this.data = FileChannel.open(this.dataPath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        var dataHeader = ByteBuffer.allocate(DATA_HEADER_SIZE);
+        this.data.read(dataHeader, 0);
+        try (var channel = FileChannel.open(this.indexPath, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if (channel.size() < INDEX_HEADER_SIZE) {
+                throw new StreamCorruptedException("Invalid cache store index.");
+            }
+            this.index = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+        }
+        var table = this.index;
+        var capacity = table.getInt(CAPACITY);
+        if (table.getInt(0) != MAGIC
+                || table.getInt(Integer.BYTES) != VERSION
+                || dataHeader.getInt(0) != MAGIC
+                || dataHeader.getLong(DATA_GENERATION) != table.getLong(GENERATION)
+                || Integer.bitCount(capacity) != 1
+                || table.capacity() != INDEX_HEADER_SIZE + (long) capacity * SLOT_SIZE
+                || table.getLong(DATA_SIZE) > this.data.size()) {
+            throw new StreamCorruptedException("Invalid cache store header.");
+        }
+        this.regions = new ByteBuffer[0];
+    }
+
+    private void closeChannel() {
+        if (this.data != null) {
+            try {
+                this.data.close();
+            } catch (IOException e) {
+                System.getLogger(MappedStore.class.getName()).log(System.Logger.Level.ERROR, "Cannot close cache store", e);
+            }
+            this.data = null;
+        }
+    }
+
+    /**
+     * Point the slot of a key hash to a record, reusing the slot of the same key if it exists.
+     * @param hash Key hash.
+     * @param offset Record offset.
+     * @param keyBytes Encoded key.
+     * @throws IOException If the index must grow and cannot.
+     */
+    private void insert(int hash, long offset, ByteBuffer keyBytes) throws IOException {
+        var table = this.index;
+        var capacity = table.getInt(CAPACITY);
+        var mask = capacity - 1;
+        for (int i = 0; i < capacity; i++) {
+            var slot = INDEX_HEADER_SIZE + ((hash + i) & mask) * SLOT_SIZE;
+            var current = (long) LONGS.getAcquire(table, slot + Long.BYTES);
+            if (current == 0) {
+                table.putInt(slot, hash);
+                LONGS.setRelease(table, slot + Long.BYTES, offset);
+                table.putInt(COUNT, table.getInt(COUNT) + 1);
+                if (table.getInt(COUNT) > capacity / 4 * 3) {
+                    this.grow();
+                }
+                return;
+            }
+            if (current > 0 && table.getInt(slot) == hash) {
+                var existing = this.record(current);
+                if (existing != null && keyEquals(existing, keyBytes)) {
+                    LONGS.setRelease(table, slot + Long.BYTES, offset);
+                    table.putLong(GARBAGE, table.getLong(GARBAGE) + existing.limit());
+                    return;
+                }
+            }
+        }
+        this.grow();
+        this.insert(hash, offset, keyBytes);
+    }
+
+    /**
+     * Replace the index by one twice as big, the data file is left untouched.
+     * @throws IOException If the new index cannot be created.
+     */
+    private void grow() throws IOException {
+        var table = this.index;
+        var capacity = table.getInt(CAPACITY);
+        if (capacity >= MAX_CAPACITY) {
+            throw new IOException("Cache store is full.");
+        }
+        var temporary = Path.of(this.indexPath + TEMPORARY);
+        var grown = createIndex(temporary, capacity * 2, table.getLong(GENERATION));
+        grown.putLong(DATA_SIZE, table.getLong(DATA_SIZE));
+        grown.putLong(GARBAGE, table.getLong(GARBAGE));
+        copySlots(table, grown, (hash, offset) -> offset);
+        grown.force();
+        Files.move(temporary, this.indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        table.putInt(REPLACED, 1);
+        this.index = grown;
+    }
+
+    /**
+     * Rewrite the data file with only the live records.
+     * Both files are written under a new generation, so if the process stops between the two renames,
+     * the mismatch is detected and the store is discarded.
+     * @throws IOException If the store cannot be compacted.
+     */
+    private void compact() throws IOException {
+        var table = this.index;
+        var generation = ThreadLocalRandom.current().nextLong();
+        var temporaryIndex = Path.of(this.indexPath + TEMPORARY);
+        var temporaryData = Path.of(this.dataPath + TEMPORARY);
+        var compacted = createIndex(temporaryIndex, table.getInt(CAPACITY), generation);
+        try (var output = FileChannel.open(temporaryData, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeDataHeader(output, generation);
+            var size = new long[]{DATA_HEADER_SIZE};
+            IOException[] failure = new IOException[1];
+            copySlots(table, compacted, (hash, offset) -> {
+                var record = this.record(offset);
+                if (record == null) {
+                    return 0;
+                }
+                var position = size[0];
+                if (position % REGION_SIZE + record.limit() > REGION_SIZE) {
+                    position = (position / REGION_SIZE + 1) * REGION_SIZE;
+                }
+                try {
+                    var writePosition = position;
+                    while (record.hasRemaining()) {
+                        writePosition += output.write(record, writePosition);
+                    }
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+                size[0] = position + record.limit();
+                return position;
+            });
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+            compacted.putLong(DATA_SIZE, size[0]);
+            output.force(false);
+        }
+        compacted.force();
+        Files.move(temporaryData, this.dataPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.move(temporaryIndex, this.indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        table.putInt(REPLACED, 1);
+    }
+
+    /**
+     * Insert all the used slots of an index in another one.
+     * @param from Index to copy.
+     * @param to Index to fill.
+     * @param relocation Compute the offset of the record in the new index, slots relocated to 0 are dropped.
+     */
+    private static void copySlots(ByteBuffer from, ByteBuffer to, Relocation relocation) {
+        var fromCapacity = from.getInt(CAPACITY);
+        var toMask = to.getInt(CAPACITY) - 1;
+        var count = 0;
+        for (int i = 0; i < fromCapacity; i++) {
+            var slot = INDEX_HEADER_SIZE + i * SLOT_SIZE;
+            var offset = from.getLong(slot + Long.BYTES);
+            if (offset > 0) {
+                var hash = from.getInt(slot);
+                var relocated = relocation.offset(hash, offset);
+                if (relocated <= 0) {
+                    continue;
+                }
+                var target = hash & toMask;
+                while (to.getLong(INDEX_HEADER_SIZE + target * SLOT_SIZE + Long.BYTES) != 0) {
+                    target = (target + 1) & toMask;
+                }
+                to.putInt(INDEX_HEADER_SIZE + target * SLOT_SIZE, hash);
+                to.putLong(INDEX_HEADER_SIZE + target * SLOT_SIZE + Long.BYTES, relocated);
+                count++;
+            }
+        }
+        to.putInt(COUNT, count);
+    }
+
+    /**
+     * Extend the data file so it contains the requested size, doubling its size up to MAX_GROWTH, to be called with
+     * the lock held.
+     * @param end Size the data file must have.
+     * @throws IOException If the data file cannot be extended.
+     */
+    private void reserve(long end) throws IOException {
+        var size = this.data.size();
+        if (end <= size) {
+            return;
+        }
+        var extended = Math.max(end, Math.min(size * 2, size + MAX_GROWTH));
+        this.data.write(ByteBuffer.allocate(1), extended - 1);
+    }
+
+    /**
+     * Provide a read-only view of a record.
+     * @param offset Record offset in the data file.
+     * @return The record, with its position at 0 and its limit at its end, or null if it is outside the data file.
+     */
+    private ByteBuffer record(long offset) {
+        var region = (int) (offset / REGION_SIZE);
+        var position = (int) (offset % REGION_SIZE);
+        var mapped = this.region(region, position + KEY + Integer.BYTES);
+        if (mapped == null) {
+            return null;
+        }
+        var keyLength = mapped.getInt(position + KEY);
+        if (keyLength < 0 || keyLength > EntryWriter.MAX_CAPACITY) {
+            return null;
+        }
+        mapped = this.region(region, position + KEY + Integer.BYTES * 2 + keyLength);
+        if (mapped == null) {
+            return null;
+        }
+        var valueLength = mapped.getInt(position + KEY + Integer.BYTES + keyLength);
+        if (valueLength < 0 || valueLength > EntryWriter.MAX_CAPACITY) {
+            return null;
+        }
+        var length = KEY + Integer.BYTES * 2 + keyLength + valueLength;
+        mapped = this.region(region, position + length);
+        if (mapped == null) {
+            return null;
+        }
+        return mapped.slice(position, length);
+    }
+
+    /**
+     * Provide a mapped region of the data file, remapping it if it does not cover the requested size yet, the region
+     * being mapped up to the end of the file, so with the room reserved ahead of the records.
+     * @param region Region index.
+     * @param size Minimum size to be mapped.
+     * @return The mapped region, or null if the data file is smaller than requested.
+     */
+    private ByteBuffer region(int region, int size) {
+        var current = this.regions;
+        if (region < current.length && current[region] != null && current[region].capacity() >= size) {
+            return current[region];
+        }
+        synchronized (this) {
+            current = this.regions;
+            if (region < current.length && current[region] != null && current[region].capacity() >= size) {
+                return current[region];
+            }
+            try {
+                var start = region * REGION_SIZE;
+                var length = Math.min(REGION_SIZE, this.data.size() - start);
+                if (length < size) {
+                    return null;
+                }
+                var mapped = this.data.map(FileChannel.MapMode.READ_ONLY, start, length);
+                var updated = Arrays.copyOf(current, Math.max(current.length, region + 1));
+                updated[region] = mapped;
+                this.regions = updated;
+                return mapped;
+            } catch (IOException e) {
+                System.getLogger(MappedStore.class.getName()).log(System.Logger.Level.ERROR, "Cannot map cache store", e);
+                return null;
+            }
+        }
+    }
+
+    private ByteBuffer encodeKey(K key) {
+        var result = ByteBuffer.allocate(128);
+        while (true) {
+            try {
+                this.serializer.writeKey(key, result);
+                return result.flip();
+            } catch (BufferOverflowException e) {
+                result = ByteBuffer.allocate(result.capacity() * 2);
+            }
+        }
+    }
+
+    /**
+     * Encode a record in the reusable buffer.
+     * @param key Entry key.
+     * @param value Entry value.
+     * @param expiresAt Entry expiration time.
+     * @return The buffer containing the record, or null if it cannot be encoded.
+     */
+    private ByteBuffer encode(K key, V value, long expiresAt) {
+        while (true) {
+            this.buffer.clear();
+            try {
+                this.buffer.putLong(expiresAt);
+                EntryWriter.encodeKey(this.serializer, this.buffer, key);
+                EntryWriter.encodeValue(this.serializer, this.buffer, value);
+                return this.buffer.flip();
+            } catch (BufferOverflowException e) {
+                if (this.buffer.capacity() >= EntryWriter.MAX_CAPACITY) {
+                    System.getLogger(MappedStore.class.getName()).log(System.Logger.Level.WARNING, "Cache entry too big to be stored");
+                    return null;
+                }
+                this.buffer = EntryWriter.grow(this.buffer.clear());
+            } catch (RuntimeException e) {
+                System.getLogger(MappedStore.class.getName()).log(System.Logger.Level.DEBUG, "Cannot encode cache entry", e);
+                return null;
+            }
+        }
+    }
+
+    private static boolean keyEquals(ByteBuffer record, ByteBuffer key) {
+        var keyLength = record.getInt(KEY);
+        return keyLength == key.remaining() && record.slice(KEY + Integer.BYTES, keyLength).equals(key);
+    }
+
+    /**
+     * Compute a hash from the encoded key, never 0.
+     * @param key Encoded key.
+     * @return The key hash.
+     */
+    private static int hash(ByteBuffer key) {
+        var h = key.hashCode() * 0x9E3779B9;
+        h ^= h >>> 16;
+        return h == 0 ? 1 : h;
+    }
+
+    private static int capacityFor(long expectedSize) {
+        var required = Math.min(MAX_CAPACITY, Math.max(MIN_CAPACITY, expectedSize * 2));
+        return Integer.highestOneBit((int) required - 1) << 1;
+    }
+
+    private static void create(Path index, Path data, int capacity) throws IOException {
+        var generation = ThreadLocalRandom.current().nextLong();
+        try (var channel = FileChannel.open(data, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeDataHeader(channel, generation);
+        }
+        createIndex(index, capacity, generation).force();
+    }
+
+    private static void writeDataHeader(FileChannel channel, long generation) throws IOException {
+        var header = ByteBuffer.allocate(DATA_HEADER_SIZE).putInt(MAGIC).putInt(VERSION).putLong(generation).flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+    }
+
+    private static MappedByteBuffer createIndex(Path path, int capacity, long generation) throws IOException {
+        try (var channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            var table = channel.map(FileChannel.MapMode.READ_WRITE, 0, INDEX_HEADER_SIZE + (long) capacity * SLOT_SIZE);
+            table.putInt(0, MAGIC);
+            table.putInt(Integer.BYTES, VERSION);
+            table.putInt(CAPACITY, capacity);
+            table.putInt(COUNT, 0);
+            table.putLong(DATA_SIZE, DATA_HEADER_SIZE);
+            table.putLong(GARBAGE, 0);
+            table.putLong(GENERATION, generation);
+            return table;
+        }
+    }
+
+    /**
+     * Compute the new offset of a record when an index is copied, 0 to drop the record.
+     */
+    @FunctionalInterface
+    private interface Relocation {
+
+        long offset(int hash, long offset);
+    }
+}
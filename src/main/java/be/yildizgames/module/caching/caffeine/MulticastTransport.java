@@ -0,0 +1,127 @@
+package be.yildizgames.module.caching.caffeine;
+
+import java.io.IOException;
+import java.net.Inet6Address;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.MembershipKey;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * <pre>
+ * Invalidation transport sending the messages as UDP multicast datagrams.
+ * The datagrams are looped back to the sending host, so several nodes can run on the same host, and received on a
+ * daemon thread delivering them to the subscribers.
+ * Mutable: yes.
+ * Thread safe: yes.
+ * Accept null: no.
+ * Returns null: no.
+ * Side effects: network read and write.
+ * Throws exceptions: yes.
+ * </pre>
+ * @author Gregory Van den Borre
+ */
+final class MulticastTransport implements InvalidationTransport {
+
+    private final InetSocketAddress group;
+
+    private final DatagramChannel channel;
+
+    private final MembershipKey membership;
+
+    private final List<Consumer<ByteBuffer>> subscribers = new CopyOnWriteArrayList<>();
+
+    private final Thread receiver;
+
+    /**
+     * @param group Multicast group address and port.
+     * @param networkInterface Network interface to send and receive the datagrams on.
+     * @throws IllegalArgumentException if a parameter is null, or if the address is not a multicast address.
+     * @throws IOException If the multicast group cannot be joined.
+     */
+    MulticastTransport(InetSocketAddress group, NetworkInterface networkInterface) throws IOException {
+        super();
+        if(group == null) {
+            throw new IllegalArgumentException("Group cannot be null.");
+        }
+        if(networkInterface == null) {
+            throw new IllegalArgumentException("Network interface cannot be null.");
+        }
+        if(group.getAddress() == null || !group.getAddress().isMulticastAddress()) {
+            throw new IllegalArgumentException("Not a multicast address: " + group + ".");
+        }
+        this.group = group;
+        this.channel = DatagramChannel.open(group.getAddress() instanceof Inet6Address ? StandardProtocolFamily.INET6 : StandardProtocolFamily.INET);
+        try {
+            this.channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            this.channel.setOption(StandardSocketOptions.IP_MULTICAST_IF, networkInterface);
+            this.channel.setOption(StandardSocketOptions.IP_MULTICAST_LOOP, true);
+            this.channel.bind(new InetSocketAddress(group.getPort()));
+            this.membership = this.channel.join(group.getAddress(), networkInterface);
+        } catch (IOException | RuntimeException e) {
+            this.channel.close();
+            throw e;
+        }
+        this.receiver = new Thread(this::receive, "cache-invalidation-receiver");
+        this.receiver.setDaemon(true);
+        this.receiver.start();
+    }
+
+    @Override
+    public void send(ByteBuffer message) {
+        try {
+            this.channel.send(message, this.group);
+        } catch (IOException e) {
+            System.getLogger(MulticastTransport.class.getName()).log(System.Logger.Level.WARNING, "Cannot send cache invalidation", e);
+        }
+    }
+
+    @Override
+    public void subscribe(Consumer<ByteBuffer> subscriber) {
+        this.subscribers.add(subscriber);
+    }
+
+    @Override
+    public void unsubscribe(Consumer<ByteBuffer> subscriber) {
+        this.subscribers.remove(subscriber);
+    }
+
+    @Override
+    public void close() {
+        this.subscribers.clear();
+        this.membership.drop();
+        try {
+            this.channel.close();
+        } catch (IOException e) {
+            System.getLogger(MulticastTransport.class.getName()).log(System.Logger.Level.ERROR, "Cannot close cache invalidation channel", e);
+        }
+    }
+
+    /**
+     * Receive the datagrams until the channel is closed.
+     */
+    private void receive() {
+        var buffer = ByteBuffer.allocateDirect(MAX_MESSAGE_SIZE);
+        while (this.channel.isOpen()) {
+            try {
+                buffer.clear();
+                this.channel.receive(buffer);
+                buffer.flip();
+                for(var subscriber : this.subscribers) {
+                    subscriber.accept(buffer.asReadOnlyBuffer());
+                }
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                System.getLogger(MulticastTransport.class.getName()).log(System.Logger.Level.WARNING, "Cannot receive cache invalidation", e);
+            }
+        }
+    }
+}
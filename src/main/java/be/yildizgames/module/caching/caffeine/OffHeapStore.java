@@ -0,0 +1,178 @@
+package be.yildizgames.module.caching.caffeine;
+
+import java.lang.invoke.VarHandle;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <pre>
+ * Overflow store keeping the encoded values in off-heap memory.
+ * The memory budget is split in segments of direct memory used as a ring: values are appended to the current segment,
+ * and when it is full, the next one is cleared, discarding its entries, and reused.
+ * Only the keys and the locations of the values are kept on the heap.
+ * Mutable: yes.
+ * Thread safe: yes.
+ * Accept null: no.
+ * Returns null: yes, get returns null when the key is not in the store or is expired.
+ * Side effects: none.
+ * Throws exceptions: yes.
+ * </pre>
+ * @param <K> Type of the key used to retrieve the data.
+ * @param <V> Type of the data associated to the key.
+ * @author Gregory Van den Borre
+ */
+final class OffHeapStore<K, V> implements OverflowStore<K, V> {
+
+    private static final int SEGMENTS = 16;
+
+    private final Serializer<K, V> serializer;
+
+    private final Map<K, Location> locations = new ConcurrentHashMap<>();
+
+    private final ByteBuffer[] segments;
+
+    /**
+     * Generation of each segment, incremented each time it is cleared, so a location pointing to a reused segment can
+     * be detected.
+     */
+    private final AtomicLongArray generations;
+
+    /**
+     * Keys stored in each segment, a key being only in the segment holding its last value, guarded by this.
+     */
+    private final List<Set<K>> keys;
+
+    private int current;
+
+    private volatile boolean closed;
+
+    OffHeapStore(Serializer<K, V> serializer, long maxBytes) {
+        super();
+        if (serializer == null) {
+            throw new IllegalArgumentException("Serializer cannot be null.");
+        }
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("Max bytes must be bigger than 0 (value " + maxBytes + ").");
+        }
+        this.serializer = serializer;
+        var segmentSize = (int) Math.min(EntryWriter.MAX_CAPACITY, Math.max(EntryWriter.DEFAULT_CAPACITY, maxBytes / SEGMENTS));
+        var count = (int) Math.max(2, Math.min(SEGMENTS, maxBytes / segmentSize));
+        this.segments = new ByteBuffer[count];
+        this.generations = new AtomicLongArray(count);
+        this.keys = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            this.segments[i] = ByteBuffer.allocateDirect(segmentSize);
+            this.keys.add(new HashSet<>());
+        }
+    }
+
+    @Override
+    public Entry<V> get(K key) {
+        var location = this.locations.get(key);
+        if (location == null || this.closed || location.expiresAt <= System.currentTimeMillis()) {
+            return null;
+        }
+        try {
+            var value = EntryReader.decodeValue(this.serializer, this.segments[location.segment].slice(location.offset, location.length));
+            // The segment bytes are plain reads, they must not be reordered after the generation check.
+            VarHandle.acquireFence();
+            return this.isValid(location) ? new Entry<>(value, location.expiresAt) : null;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public synchronized void put(K key, V value, long expiresAt) {
+        if (this.closed) {
+            return;
+        }
+        var segment = this.segments[this.current];
+        var start = segment.position();
+        try {
+            this.serializer.writeValue(value, segment);
+        } catch (BufferOverflowException e) {
+            segment.position(start);
+            if (start == 0) {
+                System.getLogger(OffHeapStore.class.getName()).log(System.Logger.Level.DEBUG, "Cache entry too big for the overflow store");
+                this.locations.remove(key);
+                return;
+            }
+            this.next();
+            this.put(key, value, expiresAt);
+            return;
+        } catch (RuntimeException e) {
+            segment.position(start);
+            System.getLogger(OffHeapStore.class.getName()).log(System.Logger.Level.DEBUG, "Cannot encode cache entry", e);
+            this.locations.remove(key);
+            return;
+        }
+        var previous = this.locations.get(key);
+        if (previous != null && previous.segment != this.current) {
+            this.keys.get(previous.segment).remove(key);
+        }
+        this.keys.get(this.current).add(key);
+        this.locations.put(key, new Location(this.current, this.generations.get(this.current), start, segment.position() - start, expiresAt));
+    }
+
+    @Override
+    public void remove(K key) {
+        this.locations.remove(key);
+    }
+
+    @Override
+    public synchronized void clear() {
+        this.locations.clear();
+        this.keys.forEach(Set::clear);
+    }
+
+    @Override
+    public synchronized void close() {
+        this.closed = true;
+        this.locations.clear();
+        this.keys.forEach(Set::clear);
+    }
+
+    /**
+     * Move to the next segment, discarding all the entries it contains.
+     */
+    private void next() {
+        this.current = (this.current + 1) % this.segments.length;
+        this.generations.incrementAndGet(this.current);
+        for (var key : this.keys.get(this.current)) {
+            var location = this.locations.get(key);
+            if (location != null && location.segment == this.current) {
+                this.locations.remove(key, location);
+            }
+        }
+        this.keys.get(this.current).clear();
+        this.segments[this.current].clear();
+    }
+
+    /**
+     * Check if the segment of a location was not reused, to be called after decoding the value.
+     * @param location Location to check.
+     * @return true if the value read at the location was not overwritten.
+     */
+    private boolean isValid(Location location) {
+        return this.generations.get(location.segment) == location.generation;
+    }
+
+    /**
+     * Position of a value in the segments.
+     * @param segment Index of the segment.
+     * @param generation Generation of the segment when the value was written.
+     * @param offset Value offset in the segment.
+     * @param length Value length.
+     * @param expiresAt Value expiration time, in milliseconds since the epoch.
+     */
+    private record Location(int segment, long generation, int offset, int length, long expiresAt) {
+    }
+}
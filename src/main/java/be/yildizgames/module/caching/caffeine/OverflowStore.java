@@ -0,0 +1,84 @@
+package be.yildizgames.module.caching.caffeine;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * <pre>
+ * Second level storage receiving the entries evicted from the in memory cache because of its size.
+ * When a key is missing from the cache, the overflow store is checked before calling the data provider, and an entry
+ * found there is moved back to the cache, keeping its original expiration time.
+ * Implementations must be thread safe.
+ * </pre>
+ * @param <K> Type of the key used to retrieve the data.
+ * @param <V> Type of the data associated to the key.
+ * @author Gregory Van den Borre
+ */
+public interface OverflowStore<K, V> extends AutoCloseable {
+
+    /**
+     * Retrieve an entry.
+     * @param key Key of the entry.
+     * @return The stored entry, or null if it is not in the store or is expired.
+     */
+    Entry<V> get(K key);
+
+    /**
+     * Store an entry, replacing any previous value for the same key, the store may discard older entries to make room.
+     * @param key Key of the entry.
+     * @param value Value of the entry.
+     * @param expiresAt Time when the entry expires, in milliseconds since the epoch.
+     */
+    void put(K key, V value, long expiresAt);
+
+    /**
+     * Remove an entry, if it exists.
+     * @param key Key of the entry.
+     */
+    void remove(K key);
+
+    /**
+     * Remove all the entries.
+     */
+    void clear();
+
+    @Override
+    void close();
+
+    /**
+     * Create an overflow store keeping the encoded entries in off-heap memory.
+     * When the memory budget is exhausted, the oldest entries are discarded.
+     * @param serializer Serializer used to encode the entries (no null).
+     * @param maxBytes Off-heap memory budget, in bytes (> 0).
+     * @param <K> Type of the key used to retrieve the data.
+     * @param <V> Type of the data associated to the key.
+     * @return The created store.
+     * @throws IllegalArgumentException for any parameter not following the restrictions.
+     */
+    static <K, V> OverflowStore<K, V> offHeap(Serializer<K, V> serializer, long maxBytes) {
+        return new OffHeapStore<>(serializer, maxBytes);
+    }
+
+    /**
+     * Create an overflow store keeping the entries in a memory mapped file store.
+     * @param index Path of the index file (no null).
+     * @param data Path of the data file (no null).
+     * @param serializer Serializer used to encode the entries (no null).
+     * @param <K> Type of the key used to retrieve the data.
+     * @param <V> Type of the data associated to the key.
+     * @return The created store.
+     * @throws IOException If the files cannot be opened or created.
+     */
+    static <K, V> OverflowStore<K, V> file(Path index, Path data, Serializer<K, V> serializer) throws IOException {
+        return new MappedStore<>(index.toString(), data.toString(), serializer, 0);
+    }
+
+    /**
+     * Value retrieved from a store.
+     * @param value Stored value.
+     * @param expiresAt Time when the entry expires, in milliseconds since the epoch.
+     * @param <V> Type of the value.
+     */
+    record Entry<V>(V value, long expiresAt) {
+    }
+}
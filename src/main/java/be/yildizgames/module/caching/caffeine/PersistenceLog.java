@@ -0,0 +1,448 @@
+package be.yildizgames.module.caching.caffeine;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+import java.util.zip.CRC32;
+
+/**
+ * <pre>
+ * Segmented append-only log recording the changes of a cache.
+ * Each record is stored as [length][crc32][type][expiration time][key length][key][value length][value], encoded
+ * with the cache serializer in a reusable direct buffer, removal records only contain the key. A truncated or
+ * corrupted record stops the replay of its segment, so a killed process only loses the record being written.
+ * Segments are rolled once they reach a maximum size, and when too many of them exist, the log is compacted in
+ * the background by writing a snapshot of the cache content in place of all the rolled segments.
+ * Mutable: yes.
+ * Thread safe: yes.
+ * Accept null: no.
+ * Returns null: no.
+ * Side effects: file read and write.
+ * Throws exceptions: no.
+ * </pre>
+ * @param <K> Type of the key used to retrieve the data.
+ * @param <V> Type of the data associated to the key.
+ * @author Gregory Van den Borre
+ */
+final class PersistenceLog<K, V> implements AutoCloseable {
+
+    private static final byte PUT = 1;
+
+    private static final byte REMOVE = 2;
+
+    private static final int HEADER_SIZE = Integer.BYTES * 2;
+
+    private static final long MAX_SEGMENT_SIZE = 8L * 1024 * 1024;
+
+    private static final int MAX_SEGMENTS = 4;
+
+    private static final String TEMPORARY = ".tmp";
+
+    /**
+     * Path of the log files, each segment is suffixed by its id.
+     */
+    private final Path base;
+
+    /**
+     * Encode the keys and values of the records.
+     */
+    private final Serializer<K, V> serializer;
+
+    /**
+     * Size of a compacted segment above which no more entries are written to it.
+     */
+    private volatile long maxCompactedBytes;
+
+    /**
+     * Writers appending a put take the read lock, so rolling a segment under the write lock guarantees every put
+     * recorded in a rolled segment is also visible in the cache content when it is compacted.
+     */
+    private final ReadWriteLock rollLock = new ReentrantReadWriteLock();
+
+    private final Object writeLock = new Object();
+
+    /**
+     * Buffer used to encode the records, guarded by the write lock.
+     */
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(EntryWriter.DEFAULT_CAPACITY);
+
+    private final AtomicBoolean compacting = new AtomicBoolean();
+
+    private Supplier<Map<K, V>> content;
+
+    private ToLongFunction<K> expiresAt;
+
+    private FileChannel channel;
+
+    private long activeId;
+
+    private long activeSize;
+
+    private CompletableFuture<Void> compaction = CompletableFuture.completedFuture(null);
+
+    /**
+     * Create a new log, no file is opened until the log is replayed and started.
+     * @param file Path of the log, segment ids will be appended to it.
+     * @param serializer Serializer to encode the records.
+     * @param maxCompactedBytes Size of a compacted segment above which no more entries are written to it,
+     *                          Long.MAX_VALUE for no limit.
+     */
+    PersistenceLog(String file, Serializer<K, V> serializer, long maxCompactedBytes) {
+        super();
+        this.base = Path.of(file).toAbsolutePath();
+        this.serializer = serializer;
+        this.maxCompactedBytes = maxCompactedBytes;
+    }
+
+    /**
+     * Change the size above which no more entries are written to a compacted segment, from the next compaction.
+     * @param maxCompactedBytes New size limit, Long.MAX_VALUE for no limit.
+     */
+    void limit(long maxCompactedBytes) {
+        this.maxCompactedBytes = maxCompactedBytes;
+    }
+
+    /**
+     * Read all the existing segments, in order, and forward their records.
+     * Put records already expired are forwarded as removals, without decoding their value.
+     * @param onPut Called for every put or load record.
+     * @param onRemove Called for every removal record.
+     */
+    void replay(EntryConsumer<K, V> onPut, Consumer<K> onRemove) {
+        var now = System.currentTimeMillis();
+        var payload = new byte[EntryWriter.DEFAULT_CAPACITY];
+        for (long id : this.segments()) {
+            try (var input = new DataInputStream(new BufferedInputStream(Files.newInputStream(this.segment(id))))) {
+                while (true) {
+                    var length = readRecord(input, payload);
+                    if (length > payload.length) {
+                        payload = new byte[length];
+                        length = readRecord(input, payload);
+                    }
+                    if (length < 0) {
+                        break;
+                    }
+                    var data = ByteBuffer.wrap(payload, 0, length);
+                    var type = data.get();
+                    try {
+                        var expiresAt = type == PUT ? data.getLong() : 0;
+                        var keyLength = data.getInt();
+                        var key = EntryReader.decodeKey(this.serializer, data.slice(data.position(), keyLength));
+                        if (type == PUT && expiresAt > now) {
+                            data.position(data.position() + keyLength);
+                            var valueLength = data.getInt();
+                            onPut.accept(key, EntryReader.decodeValue(this.serializer, data.slice(data.position(), valueLength)), expiresAt);
+                        } else if (type == PUT || type == REMOVE) {
+                            onRemove.accept(key);
+                        }
+                    } catch (RuntimeException e) {
+                        System.getLogger(PersistenceLog.class.getName()).log(System.Logger.Level.WARNING, "Unreadable cache log entry", e);
+                    }
+                }
+            } catch (IOException e) {
+                System.getLogger(PersistenceLog.class.getName()).log(System.Logger.Level.ERROR, "Unreadable cache log segment", e);
+            }
+            this.activeId = id;
+        }
+    }
+
+    /**
+     * Open a new segment to append the records to, existing segments are never appended to,
+     * to avoid writing after a truncated record.
+     * @param content Provide the current cache content when the log is compacted.
+     * @param expiresAt Provide the expiration time of an entry of the cache content, in milliseconds since the epoch.
+     */
+    void start(Supplier<Map<K, V>> content, ToLongFunction<K> expiresAt) {
+        this.content = content;
+        this.expiresAt = expiresAt;
+        synchronized (this.writeLock) {
+            this.roll();
+        }
+    }
+
+    /**
+     * Record a value put in the cache.
+     * @param key Entry key.
+     * @param value Entry value.
+     * @param expiresAt Time when the entry expires, in milliseconds since the epoch.
+     */
+    void put(K key, V value, long expiresAt) {
+        this.write(PUT, key, value, expiresAt);
+    }
+
+    /**
+     * Record a value removed from the cache.
+     * @param key Entry key.
+     */
+    void remove(K key) {
+        this.write(REMOVE, key, null, 0);
+    }
+
+    /**
+     * Apply a change to the cache so it cannot be missed by a concurrent compaction.
+     * @param change Change applying the value to the cache and recording it in this log.
+     */
+    void guard(Runnable change) {
+        this.rollLock.readLock().lock();
+        try {
+            change.run();
+        } finally {
+            this.rollLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Force the records written so far in the active segment to disk.
+     */
+    void force() {
+        synchronized (this.writeLock) {
+            if (this.channel == null) {
+                return;
+            }
+            try {
+                this.channel.force(false);
+            } catch (IOException e) {
+                System.getLogger(PersistenceLog.class.getName()).log(System.Logger.Level.ERROR, "Cannot flush cache log", e);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        this.compaction.join();
+        synchronized (this.writeLock) {
+            this.closeChannel();
+        }
+    }
+
+    private void write(byte type, K key, V value, long expiresAt) {
+        var compact = false;
+        synchronized (this.writeLock) {
+            if (this.channel == null) {
+                return;
+            }
+            this.buffer = this.encode(this.buffer, type, key, value, expiresAt);
+            if (this.buffer.hasRemaining()) {
+                try {
+                    var size = this.buffer.remaining();
+                    while (this.buffer.hasRemaining()) {
+                        this.channel.write(this.buffer);
+                    }
+                    this.activeSize += size;
+                } catch (IOException e) {
+                    System.getLogger(PersistenceLog.class.getName()).log(System.Logger.Level.ERROR, "Cannot write cache log", e);
+                }
+            }
+            if (this.activeSize >= MAX_SEGMENT_SIZE) {
+                this.roll();
+                compact = this.segments().size() > MAX_SEGMENTS;
+            }
+        }
+        if (compact && this.compacting.compareAndSet(false, true)) {
+            this.compaction = CompletableFuture.runAsync(this::compact, ForkJoinPool.commonPool());
+        }
+    }
+
+    private void roll() {
+        this.closeChannel();
+        this.activeId++;
+        this.activeSize = 0;
+        try {
+            this.channel = FileChannel.open(this.segment(this.activeId), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        } catch (IOException e) {
+            System.getLogger(PersistenceLog.class.getName()).log(System.Logger.Level.ERROR, "Cannot open cache log segment", e);
+        }
+    }
+
+    private void closeChannel() {
+        if (this.channel != null) {
+            try {
+                this.channel.close();
+            } catch (IOException e) {
+                System.getLogger(PersistenceLog.class.getName()).log(System.Logger.Level.ERROR, "Cannot close cache log segment", e);
+            }
+            this.channel = null;
+        }
+    }
+
+    /**
+     * Replace all the rolled segments by a single one containing the current cache content.
+     * The active segment is rolled first, the snapshot is then written under the id of the last rolled segment,
+     * so records appended during the compaction are still replayed after it. The snapshot is forced to disk before it
+     * replaces the rolled segments, so a crash cannot leave a truncated snapshot as their only copy.
+     */
+    private void compact() {
+        long target;
+        this.rollLock.writeLock().lock();
+        try {
+            synchronized (this.writeLock) {
+                if (this.channel == null) {
+                    return;
+                }
+                this.roll();
+                target = this.activeId - 1;
+            }
+        } finally {
+            this.rollLock.writeLock().unlock();
+        }
+        var temporary = Path.of(this.segment(target) + TEMPORARY);
+        try {
+            try (var output = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                var records = ByteBuffer.allocateDirect(EntryWriter.DEFAULT_CAPACITY);
+                for (var entry : this.content.get().entrySet()) {
+                    if (output.position() >= this.maxCompactedBytes) {
+                        break;
+                    }
+                    records = this.encode(records, PUT, entry.getKey(), entry.getValue(), this.expiresAt.applyAsLong(entry.getKey()));
+                    while (records.hasRemaining()) {
+                        output.write(records);
+                    }
+                }
+                output.force(true);
+            }
+            Files.move(temporary, this.segment(target), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            for (long id : this.segments()) {
+                if (id < target) {
+                    Files.deleteIfExists(this.segment(id));
+                }
+            }
+        } catch (IOException e) {
+            System.getLogger(PersistenceLog.class.getName()).log(System.Logger.Level.ERROR, "Cannot compact cache log", e);
+        } finally {
+            this.compacting.set(false);
+        }
+    }
+
+    private List<Long> segments() {
+        var prefix = this.base.getFileName().toString() + ".";
+        try (var files = Files.list(this.base.getParent())) {
+            return files
+                    .map(p -> p.getFileName().toString())
+                    .filter(n -> n.startsWith(prefix) && n.length() > prefix.length())
+                    .map(n -> n.substring(prefix.length()))
+                    .filter(n -> n.chars().allMatch(Character::isDigit))
+                    .map(Long::parseLong)
+                    .sorted()
+                    .toList();
+        } catch (IOException e) {
+            System.getLogger(PersistenceLog.class.getName()).log(System.Logger.Level.ERROR, "Cannot list cache log segments", e);
+            return List.of();
+        }
+    }
+
+    /**
+     * @return The size of all the log segments in bytes.
+     */
+    long bytes() {
+        var result = 0L;
+        for (long id : this.segments()) {
+            try {
+                result += Files.size(this.segment(id));
+            } catch (IOException e) {
+                // segment removed by a concurrent compaction.
+            }
+        }
+        return result;
+    }
+
+    private Path segment(long id) {
+        return Path.of(this.base + "." + String.format("%010d", id));
+    }
+
+    /**
+     * Encode a record.
+     * @param buffer Buffer to encode the record into, its content is discarded.
+     * @param type Record type.
+     * @param key Record key.
+     * @param value Record value, null for removal.
+     * @param expiresAt Record expiration time, ignored for removal.
+     * @return The buffer containing the record ready to be written, it is empty if the record could not be encoded,
+     * and is a new buffer if the provided one was too small.
+     */
+    private ByteBuffer encode(ByteBuffer buffer, byte type, K key, V value, long expiresAt) {
+        var result = buffer;
+        while (true) {
+            result.clear();
+            try {
+                result.position(HEADER_SIZE);
+                result.put(type);
+                if (value != null) {
+                    result.putLong(expiresAt);
+                }
+                EntryWriter.encodeKey(this.serializer, result, key);
+                if (value != null) {
+                    EntryWriter.encodeValue(this.serializer, result, value);
+                }
+                var length = result.position() - HEADER_SIZE;
+                var crc = new CRC32();
+                crc.update(result.slice(HEADER_SIZE, length));
+                result.putInt(0, length);
+                result.putInt(Integer.BYTES, (int) crc.getValue());
+                return result.flip();
+            } catch (BufferOverflowException e) {
+                if (result.capacity() >= EntryWriter.MAX_CAPACITY) {
+                    System.getLogger(PersistenceLog.class.getName()).log(System.Logger.Level.WARNING, "Cache entry too big to be logged");
+                    return result.limit(0);
+                }
+                result = EntryWriter.grow(result.clear());
+            } catch (RuntimeException e) {
+                System.getLogger(PersistenceLog.class.getName()).log(System.Logger.Level.DEBUG, "Cannot encode cache log entry", e);
+                return result.limit(0);
+            }
+        }
+    }
+
+    /**
+     * Read the next record payload.
+     * If the payload does not fit in the provided array, the input is reset to the beginning of the record so
+     * it can be read again with a bigger array.
+     * @param input Stream to read from.
+     * @param payload Array receiving the payload.
+     * @return The payload length, or -1 if the end of the segment, or a truncated or corrupted record was reached.
+     * @throws IOException If the segment cannot be read.
+     */
+    private static int readRecord(DataInputStream input, byte[] payload) throws IOException {
+        try {
+            input.mark(HEADER_SIZE);
+            var length = input.readInt();
+            var crc = input.readInt();
+            if (length <= 0 || length > EntryWriter.MAX_CAPACITY) {
+                return -1;
+            }
+            if (length > payload.length) {
+                input.reset();
+                return length;
+            }
+            if (input.readNBytes(payload, 0, length) != length) {
+                return -1;
+            }
+            var check = new CRC32();
+            check.update(payload, 0, length);
+            if ((int) check.getValue() != crc) {
+                System.getLogger(PersistenceLog.class.getName()).log(System.Logger.Level.WARNING, "Corrupted cache log segment");
+                return -1;
+            }
+            return length;
+        } catch (EOFException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package be.yildizgames.module.caching.caffeine;
+
+/**
+ * Strategy used by a cache to persist its content on disk.
+ * @author Gregory Van den Borre
+ */
+public enum PersistenceMode {
+
+    /**
+     * The cache content is only kept in memory, nothing is read from nor written to disk.
+     */
+    NONE,
+
+    /**
+     * The whole cache content is written in a single file when the cache is closed, and read back when it is opened.
+     */
+    SNAPSHOT,
+
+    /**
+     * Every put, load and eviction is appended to a segmented log while the cache is running.
+     * The log is compacted in the background and replayed when the cache is opened, closing only flushes the tail.
+     */
+    LOG,
+
+    /**
+     * The cache content is kept in a memory mapped store on disk, opened in constant time whatever its size.
+     * Entries are loaded lazily, on the first get of their key, and new entries are written to the store when they are
+     * evicted or when the cache is closed.
+     */
+    MAPPED,
+
+    /**
+     * The cache content is kept in a memory mapped store on disk, like with MAPPED, shared by all the processes of the
+     * host opening a cache with the same name in the same directory.
+     * Entries put or loaded by a process are written to the store immediately, under a file lock, so the other
+     * processes find them on their next miss instead of calling their data provider.
+     */
+    SHARED
+}
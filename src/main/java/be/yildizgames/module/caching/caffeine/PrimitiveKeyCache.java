@@ -0,0 +1,134 @@
+package be.yildizgames.module.caching.caffeine;
+
+import be.yildizgames.module.caching.CacheStatistics;
+
+import java.util.function.Function;
+import java.util.function.LongFunction;
+
+/**
+ * <pre>
+ * Caffeine cache using primitive keys, shared by the caches indexed by int and long ids.
+ * The boxed keys are kept in a {@link KeyIndex}, so a key already used is not boxed again, and a hit does not
+ * allocate anything: lookups without data provider return the value or null, and a lookup with a data provider only
+ * adapts the provider on a miss.
+ * Keys are persisted with their primitive codec, whatever the serializer used for the values.
+ * Persistence is the same as for {@link CaffeineCache}.
+ * Mutable: yes.
+ * Thread safe: yes.
+ * Accept null: no.
+ * Returns null: yes.
+ * Side effects: file read and write.
+ * Throws exceptions: yes.
+ * </pre>
+ * @param <K> Type of the boxed keys.
+ * @param <V> Type of the data associated to the key.
+ * @author Gregory Van den Borre
+ */
+abstract class PrimitiveKeyCache<K extends Number, V> implements AutoCloseable {
+
+    /**
+     * Cache holding the entries and their persistence.
+     */
+    private final CaffeineCache<K, V> cache;
+
+    private final KeyIndex<K> keys;
+
+    /**
+     * Create a cache from a copy of a builder, its serializer being replaced by one encoding the keys with the
+     * primitive codec, and the values with the builder serializer, the builder itself is left unchanged.
+     * @param builder Builder holding the cache options. (no null)
+     * @param key Codec of the primitive keys.
+     * @param boxing Box a primitive key.
+     * @throws IllegalArgumentException for any option not following the restrictions.
+     */
+    PrimitiveKeyCache(CaffeineCacheBuilder<K, V> builder, Codec<K> key, LongFunction<K> boxing) {
+        super();
+        if(builder == null) {
+            throw new IllegalArgumentException("Builder cannot be null.");
+        }
+        var copy = builder.copy();
+        copy.serializer(Serializer.withKeys(key, builder.serializer));
+        this.cache = copy.build();
+        this.keys = new KeyIndex<>(builder.weigher == null ? builder.maximum : KeyIndex.DEFAULT_CAPACITY, boxing);
+    }
+
+    /**
+     * Provide the statistics of the cache since it was opened.
+     * @return A snapshot of the statistics (no null).
+     */
+    public final CacheStatistics statistics() {
+        return this.cache.statistics();
+    }
+
+    /**
+     * Remove all the elements from the cache, and from its persisted content.
+     */
+    public final void invalidateAll() {
+        this.cache.invalidateAll();
+    }
+
+    @Override
+    public final void close() {
+        this.cache.close();
+    }
+
+    /**
+     * @param key Primitive key.
+     * @return The boxed key, without allocation if it was already used.
+     */
+    final K key(long key) {
+        return this.keys.box(key);
+    }
+
+    /**
+     * Retrieve an element, from the memory, the overflow store or the on disk store.
+     * @param key Primitive key.
+     * @return The value, or null if the entry is not stored.
+     */
+    final V present(long key) {
+        return this.cache.getIfPresent(this.keys.box(key));
+    }
+
+    /**
+     * Retrieve an element from the memory only, a miss not being recorded, so it can be retried with load.
+     * @param key Boxed key.
+     * @return The value, or null if the entry is not in memory.
+     */
+    final V cached(K key) {
+        return this.cache.getIfCached(key);
+    }
+
+    /**
+     * Retrieve an element, calling the data provider if the entry is not yet stored.
+     * @param key Boxed key.
+     * @param addValue Data provider.
+     * @return The value, or null if the provider returned null.
+     */
+    final V load(K key, Function<? super K, ? extends V> addValue) {
+        return this.cache.getOrNull(key, addValue);
+    }
+
+    /**
+     * Add or replace an element.
+     * @param key Primitive key.
+     * @param value Element to store (no null).
+     */
+    final void store(long key, V value) {
+        this.cache.put(this.keys.box(key), value);
+    }
+
+    /**
+     * Remove an element, and its persisted content.
+     * @param key Primitive key.
+     */
+    final void remove(long key) {
+        this.cache.invalidate(this.keys.box(key));
+    }
+
+    static <V> Codec<V> requireCodec(Codec<V> value) {
+        if(value == null) {
+            throw new IllegalArgumentException("Codec cannot be null.");
+        }
+        return value;
+    }
+}
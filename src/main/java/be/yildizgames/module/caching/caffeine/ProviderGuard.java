@@ -0,0 +1,283 @@
+package be.yildizgames.module.caching.caffeine;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+/**
+ * <pre>
+ * Protect a data provider from the callers of a cache while it is failing.
+ * A key whose load failed is remembered for a short time, during which it is not loaded again (negative caching).
+ * After a number of consecutive failures, the circuit opens and no load is attempted for a backoff time, then a single
+ * load is let through: its success closes the circuit, its failure reopens it with a doubled backoff, up to a maximum.
+ * Concurrent loads of the same key can also share a single provider call, for when no cache does it, a key being shared
+ * whether it is loaded alone or with other keys. A provider loading again a key it is loading is not shared, and calls
+ * the provider again instead of waiting for itself.
+ * Failed and blocked loads return null, the provider exceptions are logged and never rethrown.
+ * Mutable: yes.
+ * Thread safe: yes.
+ * Accept null: no.
+ * Returns null: yes, when the load is blocked, failed, or the provider returned null.
+ * Side effects: none.
+ * Throws exceptions: no.
+ * </pre>
+ * @param <K> Type of the key used to retrieve the data.
+ * @param <V> Type of the data associated to the key.
+ * @author Gregory Van den Borre
+ */
+final class ProviderGuard<K, V> {
+
+    /**
+     * Maximum number of failed keys remembered at once.
+     */
+    private static final int MAX_FAILED_KEYS = 10_000;
+
+    /**
+     * Maximum backoff, as a multiple of the initial one.
+     */
+    private static final int MAX_BACKOFF_FACTOR = 64;
+
+    /**
+     * Keys whose last load failed, null if negative caching is disabled.
+     */
+    private final Cache<K, Boolean> failed;
+
+    /**
+     * Shared loads running, by key.
+     */
+    private final ConcurrentMap<K, Shared<V>> inFlight = new ConcurrentHashMap<>();
+
+    private final int threshold;
+
+    private final long initialBackoff;
+
+    private final long maxBackoff;
+
+    /**
+     * Consecutive failures, guarded by this.
+     */
+    private int failures;
+
+    /**
+     * Time until which the circuit is open, in nanoseconds, guarded by this.
+     */
+    private long openUntil;
+
+    /**
+     * True while the circuit is open or half open, guarded by this.
+     */
+    private boolean open;
+
+    /**
+     * Current backoff in nanoseconds, guarded by this.
+     */
+    private long backoff;
+
+    /**
+     * @param negativeTtl Time during which a failed key is not loaded again, zero to disable. (>= 0)
+     * @param threshold Number of consecutive failures opening the circuit. (> 0)
+     * @param backoff Time the circuit stays open after opening, doubled at every failed attempt. (> 0)
+     */
+    ProviderGuard(Duration negativeTtl, int threshold, Duration backoff) {
+        super();
+        this.failed = negativeTtl.isZero()
+                ? null
+                : Caffeine.newBuilder().expireAfterWrite(negativeTtl).maximumSize(MAX_FAILED_KEYS).build();
+        this.threshold = threshold;
+        this.initialBackoff = backoff.toNanos();
+        this.maxBackoff = this.initialBackoff > Long.MAX_VALUE / MAX_BACKOFF_FACTOR ? Long.MAX_VALUE : this.initialBackoff * MAX_BACKOFF_FACTOR;
+        this.backoff = this.initialBackoff;
+    }
+
+    /**
+     * Call the provider, unless the key failed recently or the circuit is open.
+     * @param key Key to load.
+     * @param provider Data provider.
+     * @return The loaded value, null if the load was blocked or failed.
+     */
+    V load(K key, Function<? super K, ? extends V> provider) {
+        if (this.failed != null && this.failed.getIfPresent(key) != null) {
+            return null;
+        }
+        if (!this.allowed()) {
+            return null;
+        }
+        try {
+            V value = provider.apply(key);
+            this.succeeded();
+            return value;
+        } catch (Exception e) {
+            System.getLogger(ProviderGuard.class.getName()).log(System.Logger.Level.ERROR, "Error retrieving value", e);
+            this.failed();
+            if (this.failed != null) {
+                this.failed.put(key, Boolean.TRUE);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Call the provider like load, concurrent calls for the same key waiting for the first one and sharing its result.
+     * A call from the thread already loading the key, from within the provider, calls the provider again.
+     * @param key Key to load.
+     * @param provider Data provider.
+     * @return The loaded value, null if the load was blocked or failed.
+     */
+    V loadShared(K key, Function<? super K, ? extends V> provider) {
+        var shared = new Shared<V>(Thread.currentThread(), new CompletableFuture<>());
+        var running = this.inFlight.putIfAbsent(key, shared);
+        if (running != null) {
+            return running.thread == Thread.currentThread() ? this.load(key, provider) : running.result.join();
+        }
+        V value = null;
+        try {
+            value = this.load(key, provider);
+        } finally {
+            this.inFlight.remove(key, shared);
+            shared.result.complete(value);
+        }
+        return value;
+    }
+
+    /**
+     * Call the provider like loadAll, the keys already being loaded by another call being waited for and shared,
+     * instead of being loaded again, and the other keys being shared with the concurrent calls.
+     * The keys of the call are all loaded before waiting for the other calls, so two calls sharing keys with each
+     * other never wait for each other.
+     * @param keys Keys to load.
+     * @param provider Data provider.
+     * @return The loaded values, without the keys whose load was blocked or failed.
+     */
+    Map<K, V> loadAllShared(Set<? extends K> keys, Function<? super Set<? extends K>, ? extends Map<? extends K, ? extends V>> provider) {
+        var owned = new HashMap<K, Shared<V>>();
+        var toLoad = new HashSet<K>();
+        var waiting = new HashMap<K, Shared<V>>();
+        for (var key : keys) {
+            var shared = new Shared<V>(Thread.currentThread(), new CompletableFuture<>());
+            var running = this.inFlight.putIfAbsent(key, shared);
+            if (running == null) {
+                owned.put(key, shared);
+                toLoad.add(key);
+            } else if (running.thread == Thread.currentThread()) {
+                toLoad.add(key);
+            } else {
+                waiting.put(key, running);
+            }
+        }
+        Map<K, V> result = new HashMap<>();
+        try {
+            if (!toLoad.isEmpty()) {
+                result = new HashMap<>(this.loadAll(toLoad, provider));
+            }
+        } finally {
+            for (var entry : owned.entrySet()) {
+                this.inFlight.remove(entry.getKey(), entry.getValue());
+                entry.getValue().result.complete(result.get(entry.getKey()));
+            }
+        }
+        for (var entry : waiting.entrySet()) {
+            var value = entry.getValue().result.join();
+            if (value != null) {
+                result.put(entry.getKey(), value);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Call the provider for the keys that did not fail recently, unless the circuit is open.
+     * @param keys Keys to load.
+     * @param provider Data provider.
+     * @return The loaded values, empty if the load was blocked or failed.
+     */
+    Map<K, V> loadAll(Set<? extends K> keys, Function<? super Set<? extends K>, ? extends Map<? extends K, ? extends V>> provider) {
+        var wanted = new HashSet<K>(keys);
+        if (this.failed != null) {
+            wanted.removeIf(k -> this.failed.getIfPresent(k) != null);
+        }
+        if (wanted.isEmpty() || !this.allowed()) {
+            return Map.of();
+        }
+        try {
+            var values = provider.apply(wanted);
+            this.succeeded();
+            var result = new HashMap<K, V>();
+            if (values != null) {
+                values.forEach((key, value) -> {
+                    if (key != null && value != null) {
+                        result.put(key, value);
+                    }
+                });
+            }
+            return result;
+        } catch (Exception e) {
+            System.getLogger(ProviderGuard.class.getName()).log(System.Logger.Level.ERROR, "Error retrieving values", e);
+            this.failed();
+            if (this.failed != null) {
+                wanted.forEach(k -> this.failed.put(k, Boolean.TRUE));
+            }
+            return Map.of();
+        }
+    }
+
+    /**
+     * @return true if the circuit is open or half open.
+     */
+    synchronized boolean isOpen() {
+        return this.open;
+    }
+
+    /**
+     * Check if a load can be attempted, once the backoff is elapsed, a single load is let through per backoff time.
+     * @return true if the provider can be called.
+     */
+    private synchronized boolean allowed() {
+        if (!this.open) {
+            return true;
+        }
+        var now = System.nanoTime();
+        if (now - this.openUntil < 0) {
+            return false;
+        }
+        this.openUntil = now + this.backoff;
+        return true;
+    }
+
+    private synchronized void succeeded() {
+        this.failures = 0;
+        this.open = false;
+        this.backoff = this.initialBackoff;
+    }
+
+    private synchronized void failed() {
+        this.failures++;
+        if (this.failures < this.threshold) {
+            return;
+        }
+        if (this.open) {
+            this.backoff = this.backoff > this.maxBackoff / 2 ? this.maxBackoff : this.backoff * 2;
+        } else {
+            this.open = true;
+            System.getLogger(ProviderGuard.class.getName()).log(System.Logger.Level.WARNING, "Data provider failing, calls suspended for " + Duration.ofNanos(this.backoff).toMillis() + " ms");
+        }
+        this.openUntil = System.nanoTime() + this.backoff;
+    }
+
+    /**
+     * Load shared by concurrent calls.
+     * @param thread Thread calling the provider.
+     * @param result Completed with the loaded value, null if the load was blocked or failed.
+     * @param <V> Type of the loaded value.
+     */
+    private record Shared<V>(Thread thread, CompletableFuture<V> result) {
+    }
+}
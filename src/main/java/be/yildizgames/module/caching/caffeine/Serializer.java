@@ -0,0 +1,149 @@
+package be.yildizgames.module.caching.caffeine;
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+/**
+ * <pre>
+ * Binary encoding of the cache entries, used to persist the cache content on disk.
+ * Keys and values are written directly in reusable buffers, so persisting and loading a cache does not allocate more
+ * than the decoded entries themselves, and any type can be persisted as long as a codec exists for it.
+ * </pre>
+ * @param <K> Type of the key used to retrieve the data.
+ * @param <V> Type of the data associated to the key.
+ * @author Gregory Van den Borre
+ */
+public interface Serializer<K, V> {
+
+    /**
+     * Encode a key.
+     * @param key Key to encode.
+     * @param buffer Buffer to write the encoded key into.
+     * @throws java.nio.BufferOverflowException if the buffer is too small.
+     */
+    void writeKey(K key, ByteBuffer buffer);
+
+    /**
+     * Decode a key.
+     * @param buffer Buffer containing the encoded key between its position and its limit.
+     * @return The decoded key.
+     */
+    K readKey(ByteBuffer buffer);
+
+    /**
+     * Encode a value.
+     * @param value Value to encode.
+     * @param buffer Buffer to write the encoded value into.
+     * @throws java.nio.BufferOverflowException if the buffer is too small.
+     */
+    void writeValue(V value, ByteBuffer buffer);
+
+    /**
+     * Decode a value.
+     * @param buffer Buffer containing the encoded value between its position and its limit.
+     * @return The decoded value.
+     */
+    V readValue(ByteBuffer buffer);
+
+    /**
+     * Describe the encoding of this serializer, stored with the persisted data so data written with another serializer
+     * is discarded without being decoded.
+     * Serializers writing the same encoding are expected to return the same schema, the class name by default.
+     * @return The serializer schema.
+     */
+    default String schema() {
+        return this.getClass().getName();
+    }
+
+    /**
+     * Create a serializer from a key and a value codec.
+     * @param key Codec for the keys (no null).
+     * @param value Codec for the values (no null).
+     * @param <K> Type of the key used to retrieve the data.
+     * @param <V> Type of the data associated to the key.
+     * @return The created serializer.
+     * @throws NullPointerException if a codec is null.
+     */
+    static <K, V> Serializer<K, V> of(Codec<K> key, Codec<V> value) {
+        Objects.requireNonNull(key);
+        Objects.requireNonNull(value);
+        return new Serializer<>() {
+
+            @Override
+            public void writeKey(K k, ByteBuffer buffer) {
+                key.write(k, buffer);
+            }
+
+            @Override
+            public K readKey(ByteBuffer buffer) {
+                return key.read(buffer);
+            }
+
+            @Override
+            public void writeValue(V v, ByteBuffer buffer) {
+                value.write(v, buffer);
+            }
+
+            @Override
+            public V readValue(ByteBuffer buffer) {
+                return value.read(buffer);
+            }
+
+            @Override
+            public String schema() {
+                return key.schema() + "," + value.schema();
+            }
+        };
+    }
+
+    /**
+     * Create a serializer encoding the keys with a codec, and the values with another serializer.
+     * @param key Codec for the keys (no null).
+     * @param values Serializer for the values, its key encoding is not used (no null).
+     * @param <K> Type of the key used to retrieve the data.
+     * @param <V> Type of the data associated to the key.
+     * @return The created serializer.
+     * @throws NullPointerException if the codec or the serializer is null.
+     */
+    static <K, V> Serializer<K, V> withKeys(Codec<K> key, Serializer<?, V> values) {
+        Objects.requireNonNull(key);
+        Objects.requireNonNull(values);
+        return new Serializer<>() {
+
+            @Override
+            public void writeKey(K k, ByteBuffer buffer) {
+                key.write(k, buffer);
+            }
+
+            @Override
+            public K readKey(ByteBuffer buffer) {
+                return key.read(buffer);
+            }
+
+            @Override
+            public void writeValue(V v, ByteBuffer buffer) {
+                values.writeValue(v, buffer);
+            }
+
+            @Override
+            public V readValue(ByteBuffer buffer) {
+                return values.readValue(buffer);
+            }
+
+            @Override
+            public String schema() {
+                return key.schema() + "," + values.schema();
+            }
+        };
+    }
+
+    /**
+     * Create a serializer using java serialization for keys and values, non-serializable entries are not persisted.
+     * @param <K> Type of the key used to retrieve the data.
+     * @param <V> Type of the data associated to the key.
+     * @return The java serialization based serializer.
+     */
+    static <K, V> Serializer<K, V> java() {
+        return of(Codec.java(), Codec.java());
+    }
+}
@@ -0,0 +1,196 @@
+package be.yildizgames.module.caching.caffeine;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.ToLongFunction;
+
+/**
+ * <pre>
+ * Snapshot of a cache content split in several independent snapshot files, written and read in parallel.
+ * An entry is always written in the same shard, chosen from the hash of its key, the entries are split between the
+ * shards in a single pass, and every shard is then encoded by its own task, and decoded independently of the others.
+ * Each shard is replaced atomically, but not all the shards at once: a crash during a write can leave shards from
+ * two consecutive snapshots, which are both valid cache content.
+ * The shard files are read whatever the number of shards used to write them, so changing the number of shards keeps
+ * the content of the shards still read: all of it with more shards, only the first shards with less shards, and none
+ * of it when switching between a single file and shards. The files no longer read are deleted with the next write.
+ * Mutable: no.
+ * Thread safe: yes.
+ * Accept null: no.
+ * Returns null: no.
+ * Side effects: file read and write.
+ * Throws exceptions: yes.
+ * </pre>
+ * @param <K> Type of the key used to retrieve the data.
+ * @param <V> Type of the data associated to the key.
+ * @author Gregory Van den Borre
+ */
+final class ShardedSnapshotFile<K, V> {
+
+    private final List<SnapshotFile<K, V>> shards;
+
+    /**
+     * Files written with another number of shards, and no longer read.
+     */
+    private final List<Path> stale;
+
+    private final Executor executor;
+
+    /**
+     * @param shards Snapshot file of every shard. (not empty)
+     * @param stale Files written with another number of shards, deleted once all the shards are written.
+     * @param executor Executor running the shard writes and reads when there is more than one shard.
+     */
+    ShardedSnapshotFile(List<SnapshotFile<K, V>> shards, List<Path> stale, Executor executor) {
+        super();
+        this.shards = List.copyOf(shards);
+        this.stale = List.copyOf(stale);
+        this.executor = executor;
+    }
+
+    /**
+     * @return true if any shard exists.
+     */
+    boolean exists() {
+        return this.shards.stream().anyMatch(SnapshotFile::exists);
+    }
+
+    /**
+     * @return The number of entries in all the shards, from their headers.
+     */
+    long entries() {
+        return this.shards.stream().mapToLong(SnapshotFile::entries).sum();
+    }
+
+    /**
+     * @return The size of all the shards in bytes.
+     */
+    long bytes() {
+        return this.shards.stream().mapToLong(SnapshotFile::bytes).sum();
+    }
+
+    /**
+     * Replace the content of all the shards with the provided entries, one task per shard, and delete the files
+     * written with another number of shards once every shard is written.
+     * @param content Entries to write, in the order they are written in every shard.
+     * @param expiresAt Provide the expiration time of an entry, in milliseconds since the epoch.
+     * @param maxBytes Size of the entries above which no more entries are written, split evenly between the shards,
+     *                 Long.MAX_VALUE for no limit.
+     * @throws IOException If a shard cannot be written, the other shards are written anyway.
+     */
+    void write(Map<K, V> content, ToLongFunction<K> expiresAt, long maxBytes) throws IOException {
+        var count = this.shards.size();
+        if (count == 1) {
+            this.shards.get(0).write(content.entrySet(), expiresAt, maxBytes);
+            this.deleteStale();
+            return;
+        }
+        var shardBytes = maxBytes == Long.MAX_VALUE ? Long.MAX_VALUE : maxBytes / count;
+        var split = new ArrayList<List<Map.Entry<K, V>>>(count);
+        for (int i = 0; i < count; i++) {
+            split.add(new ArrayList<>(content.size() / count + 1));
+        }
+        for (var entry : content.entrySet()) {
+            split.get(shard(entry.getKey(), count)).add(entry);
+        }
+        var tasks = new ArrayList<CompletableFuture<Void>>(count);
+        for (int i = 0; i < count; i++) {
+            var shard = i;
+            var entries = split.get(i);
+            tasks.add(CompletableFuture.runAsync(() -> {
+                try {
+                    this.shards.get(shard).write(entries, expiresAt, shardBytes);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, this.executor));
+        }
+        join(tasks);
+        this.deleteStale();
+    }
+
+    /**
+     * Read all the existing shards, one task per shard, entries are forwarded while being decoded.
+     * @param consumer Consumer receiving the entries, called concurrently when there is more than one shard.
+     * @throws IOException If a shard cannot be read, the other shards are read anyway.
+     */
+    void read(EntryConsumer<K, V> consumer) throws IOException {
+        if (this.shards.size() == 1) {
+            this.shards.get(0).read(consumer);
+            return;
+        }
+        var tasks = new ArrayList<CompletableFuture<Void>>(this.shards.size());
+        for (var shard : this.shards) {
+            if (shard.exists()) {
+                tasks.add(CompletableFuture.runAsync(() -> {
+                    try {
+                        shard.read(consumer);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }, this.executor));
+            }
+        }
+        join(tasks);
+    }
+
+    /**
+     * Delete the files written with another number of shards, the content they hold is no longer read.
+     * @throws IOException If a file cannot be deleted.
+     */
+    private void deleteStale() throws IOException {
+        for (var file : this.stale) {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Compute the shard of a key.
+     * @param key Key to place.
+     * @param count Number of shards.
+     * @return The shard index, between 0 and count - 1.
+     */
+    static int shard(Object key, int count) {
+        var hash = key.hashCode();
+        return Math.floorMod(hash ^ (hash >>> 16), count);
+    }
+
+    /**
+     * Wait for all the tasks, and rethrow the first failure once they are all completed, the other failures being
+     * suppressed.
+     * @param tasks Tasks to wait for.
+     * @throws IOException If a task failed with an IOException.
+     */
+    private static void join(List<CompletableFuture<Void>> tasks) throws IOException {
+        Throwable error = null;
+        for (var task : tasks) {
+            try {
+                task.join();
+            } catch (CompletionException e) {
+                var cause = e.getCause() instanceof UncheckedIOException u ? u.getCause() : e.getCause();
+                if (error == null) {
+                    error = cause;
+                } else {
+                    error.addSuppressed(cause);
+                }
+            }
+        }
+        if (error instanceof IOException e) {
+            throw e;
+        }
+        if (error instanceof RuntimeException e) {
+            throw e;
+        }
+        if (error instanceof Error e) {
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,317 @@
+package be.yildizgames.module.caching.caffeine;
+
+import java.io.IOException;
+import java.io.ObjectStreamConstants;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+import java.util.zip.CRC32;
+
+/**
+ * <pre>
+ * File containing a full snapshot of a cache content.
+ * The file starts with a header [magic][version][flags][schema][entry count][data length][crc32 of the data]
+ * [crc32 of the header], followed by the entries as written by an EntryWriter. A truncated file does not match the
+ * length of its header, and a damaged one does not match the crc32 of its data, the whole file is checked before any
+ * entry is read, so an invalid file falls back to the previous snapshot without restoring any of its entries.
+ * The schema is a fingerprint of the serializer and types of the cache, a file written with another schema is
+ * discarded from its header only, without decoding any entry, and the entry count is available without reading the
+ * entries, to size the cache before loading it.
+ * When compressed, the entries are written in deflate blocks of the EntryWriter buffer size, and decoded one block at a
+ * time while reading, the flags of the header tell if a file is compressed, so both kinds of file can be read whatever
+ * the current setting.
+ * A snapshot is written in a temporary file, forced to disk, and atomically moved in place of the current one, which
+ * is kept as previous snapshot, so an invalid current snapshot can fall back to the previous one.
+ * Files of the legacy format, a java serialized map, are recognized from their stream header and discarded.
+ * Mutable: no.
+ * Thread safe: yes.
+ * Accept null: no.
+ * Returns null: no.
+ * Side effects: file read and write.
+ * Throws exceptions: yes.
+ * </pre>
+ * @param <K> Type of the key used to retrieve the data.
+ * @param <V> Type of the data associated to the key.
+ * @author Gregory Van den Borre
+ */
+final class SnapshotFile<K, V> {
+
+    private static final int MAGIC = 0x59434346;
+
+    /**
+     * First bytes of the files written with java serialization, by the legacy format.
+     */
+    static final int LEGACY_MAGIC = (ObjectStreamConstants.STREAM_MAGIC & 0xFFFF) << 16 | ObjectStreamConstants.STREAM_VERSION;
+
+    private static final short VERSION = 6;
+
+    private static final byte COMPRESSED = 1;
+
+    /**
+     * Size of the header, written before the first entry.
+     */
+    static final int HEADER_SIZE = Integer.BYTES + Short.BYTES + Byte.BYTES + Long.BYTES * 3 + Integer.BYTES * 2;
+
+    private static final int FLAGS = Integer.BYTES + Short.BYTES;
+
+    private static final int SCHEMA = FLAGS + Byte.BYTES;
+
+    private static final int ENTRIES = SCHEMA + Long.BYTES;
+
+    private static final int LENGTH = ENTRIES + Long.BYTES;
+
+    private static final int DATA_CHECKSUM = LENGTH + Long.BYTES;
+
+    private static final int CHECKED_SIZE = HEADER_SIZE - Integer.BYTES;
+
+    private static final String TEMPORARY = ".tmp";
+
+    private final Path path;
+
+    private final Path previous;
+
+    private final Path temporary;
+
+    private final Serializer<K, V> serializer;
+
+    private final boolean compressed;
+
+    private final long schema;
+
+    /**
+     * @param file Path of the snapshot file.
+     * @param previous Path of the previous snapshot file.
+     * @param serializer Serializer to encode the entries.
+     * @param compressed true to compress the written snapshots.
+     * @param schema Fingerprint of the cache schema, as computed by fingerprint.
+     */
+    SnapshotFile(String file, String previous, Serializer<K, V> serializer, boolean compressed, long schema) {
+        super();
+        this.path = Path.of(file);
+        this.previous = Path.of(previous);
+        this.temporary = Path.of(file + TEMPORARY);
+        this.serializer = serializer;
+        this.compressed = compressed;
+        this.schema = schema;
+    }
+
+    /**
+     * Compute the fingerprint of a cache schema.
+     * @param schema Description of the serializer and types of the cache.
+     * @return The 64 bits FNV-1a hash of the description.
+     */
+    static long fingerprint(String schema) {
+        var hash = 0xcbf29ce484222325L;
+        for (var b : schema.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Read the number of entries from the header of the file, or of the previous file if the file is not valid.
+     * @return The number of entries in the snapshot, 0 if there is no valid snapshot or if its schema does not match.
+     */
+    long entries() {
+        for (var file : new Path[]{this.path, this.previous}) {
+            try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                var header = readHeader(channel);
+                return header.getLong(SCHEMA) == this.schema ? header.getLong(ENTRIES) : 0;
+            } catch (IOException e) {
+                // invalid or missing, try the previous one.
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return true if the snapshot file or the previous snapshot file exists.
+     */
+    boolean exists() {
+        return Files.exists(this.path) || Files.exists(this.previous);
+    }
+
+    /**
+     * @return The size of the snapshot file in bytes, 0 if it does not exist.
+     */
+    long bytes() {
+        try {
+            return Files.size(this.path);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Replace the file content with the provided entries, entries that cannot be encoded are ignored.
+     * The current file is only replaced once the new one is completely written on disk.
+     * @param content Entries to write.
+     * @param expiresAt Provide the expiration time of an entry, in milliseconds since the epoch.
+     * @param maxBytes Size of the entries, before compression, above which no more entries are written, Long.MAX_VALUE
+     *                 for no limit.
+     * @throws IOException If the file cannot be written.
+     */
+    void write(Iterable<? extends Map.Entry<K, V>> content, ToLongFunction<K> expiresAt, long maxBytes) throws IOException {
+        try (var channel = FileChannel.open(this.temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.position(HEADER_SIZE);
+            var checked = new ChecksumChannel(channel);
+            var deflate = this.compressed ? new DeflateChannel(checked) : null;
+            var writer = new EntryWriter<>(deflate == null ? checked : deflate, this.serializer);
+            var entries = 0L;
+            for (var entry : content) {
+                if (writer.size() >= maxBytes) {
+                    break;
+                }
+                if (writer.write(entry.getKey(), entry.getValue(), expiresAt.applyAsLong(entry.getKey()))) {
+                    entries++;
+                }
+            }
+            writer.flush();
+            if (deflate != null) {
+                deflate.close();
+            }
+            var header = header(this.compressed ? COMPRESSED : 0, this.schema, entries, channel.position() - HEADER_SIZE, checked.checksum());
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            channel.force(true);
+        }
+        if (Files.exists(this.path)) {
+            Files.move(this.path, this.previous, StandardCopyOption.REPLACE_EXISTING);
+        }
+        Files.move(this.temporary, this.path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Read all the entries from the file, entries are forwarded while being decoded, expired entries are skipped.
+     * If the file is missing, or its header or its data is invalid, the previous snapshot is read instead, the file
+     * being checked before any entry is forwarded. If the schema of the file does not match, or if the file has the
+     * legacy format, no entry is read.
+     * @param consumer Consumer receiving the entries.
+     * @throws StreamCorruptedException If neither the file nor the previous one is a valid snapshot file.
+     * @throws IOException If the file cannot be read, or an entry of a checked file cannot be read.
+     */
+    void read(EntryConsumer<K, V> consumer) throws IOException {
+        try {
+            read(this.path, consumer);
+        } catch (StreamCorruptedException | NoSuchFileException e) {
+            if (Files.notExists(this.previous)) {
+                throw e;
+            }
+            System.getLogger(SnapshotFile.class.getName()).log(System.Logger.Level.WARNING, "Invalid cache file, reading previous checkpoint", e);
+            read(this.previous, consumer);
+        }
+    }
+
+    private void read(Path file, EntryConsumer<K, V> consumer) throws IOException {
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (isLegacy(channel)) {
+                System.getLogger(SnapshotFile.class.getName()).log(System.Logger.Level.INFO, "Legacy cache format discarded: " + file);
+                return;
+            }
+            var header = readHeader(channel);
+            if (header.getLong(SCHEMA) != this.schema) {
+                System.getLogger(SnapshotFile.class.getName()).log(System.Logger.Level.INFO, "Cache file written with another serializer or other types, discarded: " + file);
+                return;
+            }
+            checkData(channel, header.getInt(DATA_CHECKSUM));
+            try {
+                if ((header.get(FLAGS) & COMPRESSED) == 0) {
+                    new EntryReader<>(channel, this.serializer).forEach(consumer);
+                } else {
+                    try (var inflate = new InflateChannel(channel)) {
+                        new EntryReader<>(inflate, this.serializer).forEach(consumer);
+                    }
+                }
+            } catch (StreamCorruptedException e) {
+                // entries were already restored, the previous snapshot must not be read over them.
+                throw new IOException("Invalid cache entry in a checked file: " + file, e);
+            }
+        }
+    }
+
+    /**
+     * Check the crc32 of the data of a snapshot file, leaving the channel positioned on the first entry.
+     * @param channel Channel of the file, positioned on the first entry.
+     * @param expected Crc32 of the data, from the header.
+     * @throws StreamCorruptedException If the data does not match the crc32.
+     * @throws IOException If the file cannot be read.
+     */
+    private static void checkData(FileChannel channel, int expected) throws IOException {
+        var crc = new CRC32();
+        var buffer = ByteBuffer.allocateDirect(EntryWriter.DEFAULT_CAPACITY);
+        var position = channel.position();
+        while (channel.read(buffer, position) > 0) {
+            buffer.flip();
+            position += buffer.remaining();
+            crc.update(buffer);
+            buffer.clear();
+        }
+        if ((int) crc.getValue() != expected) {
+            throw new StreamCorruptedException("Invalid cache file data.");
+        }
+    }
+
+    /**
+     * Check if a file was written by the legacy format, without moving the channel position.
+     * @param channel Channel of the file.
+     * @return true if the file starts with a java serialization stream header.
+     * @throws IOException If the file cannot be read.
+     */
+    private static boolean isLegacy(FileChannel channel) throws IOException {
+        var start = ByteBuffer.allocate(Integer.BYTES);
+        while (start.hasRemaining()) {
+            if (channel.read(start, start.position()) < 0) {
+                return false;
+            }
+        }
+        return start.getInt(0) == LEGACY_MAGIC;
+    }
+
+    /**
+     * Read and validate the header of a snapshot file, leaving the channel positioned on the first entry.
+     * @param channel Channel of the file.
+     * @return The header.
+     * @throws StreamCorruptedException If the header is invalid or does not match the file length.
+     * @throws IOException If the file cannot be read.
+     */
+    private static ByteBuffer readHeader(FileChannel channel) throws IOException {
+        var header = ByteBuffer.allocate(HEADER_SIZE);
+        while (header.hasRemaining()) {
+            if (channel.read(header) < 0) {
+                break;
+            }
+        }
+        header.flip();
+        if (header.remaining() < HEADER_SIZE
+                || header.getInt(0) != MAGIC
+                || header.getShort(Integer.BYTES) != VERSION
+                || (header.get(FLAGS) & ~COMPRESSED) != 0
+                || header.getLong(ENTRIES) < 0
+                || header.getLong(LENGTH) != channel.size() - HEADER_SIZE
+                || header.getInt(CHECKED_SIZE) != checksum(header)) {
+            throw new StreamCorruptedException("Invalid cache file header.");
+        }
+        return header;
+    }
+
+    private static ByteBuffer header(int flags, long schema, long entries, long length, int dataChecksum) {
+        var header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putShort(VERSION).put((byte) flags).putLong(schema).putLong(entries).putLong(length).putInt(dataChecksum);
+        return header.putInt(checksum(header)).flip();
+    }
+
+    private static int checksum(ByteBuffer header) {
+        var crc = new CRC32();
+        crc.update(header.slice(0, CHECKED_SIZE));
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,203 @@
+package be.yildizgames.module.caching.caffeine;
+
+import be.yildizgames.module.caching.CacheStatistics;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.github.benmanes.caffeine.cache.stats.StatsCounter;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <pre>
+ * Caffeine statistics counter, also recording the load time distribution, the evictions by cause and the persistence
+ * cost.
+ * Load times are recorded in a log-linear histogram: each power of two is split in 8 buckets, so a percentile is
+ * known within 12.5% while recording stays a single atomic increment.
+ * Mutable: yes.
+ * Thread safe: yes.
+ * </pre>
+ * @author Gregory Van den Borre
+ */
+final class StatisticsCounter implements StatsCounter {
+
+    private static final int SUB_BUCKET_BITS = 3;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder loadSuccesses = new LongAdder();
+
+    private final LongAdder loadFailures = new LongAdder();
+
+    private final LongAdder totalLoadTime = new LongAdder();
+
+    private final AtomicLongArray loadTimes = new AtomicLongArray(BUCKETS);
+
+    private final LongAdder[] evictions = new LongAdder[RemovalCause.values().length];
+
+    private final LongAdder evictionWeight = new LongAdder();
+
+    private final LongAdder persistenceLoadTime = new LongAdder();
+
+    private final LongAdder persistenceLoadBytes = new LongAdder();
+
+    /**
+     * Time spent by the last save, written with the size under the cache persistence lock.
+     */
+    private volatile long persistenceSaveTime;
+
+    /**
+     * Size written by the last save.
+     */
+    private volatile long persistenceSaveBytes;
+
+    StatisticsCounter() {
+        super();
+        for (int i = 0; i < this.evictions.length; i++) {
+            this.evictions[i] = new LongAdder();
+        }
+    }
+
+    @Override
+    public void recordHits(int count) {
+        this.hits.add(count);
+    }
+
+    @Override
+    public void recordMisses(int count) {
+        this.misses.add(count);
+    }
+
+    @Override
+    public void recordLoadSuccess(long loadTime) {
+        this.loadSuccesses.increment();
+        this.recordLoadTime(loadTime);
+    }
+
+    @Override
+    public void recordLoadFailure(long loadTime) {
+        this.loadFailures.increment();
+        this.recordLoadTime(loadTime);
+    }
+
+    @Override
+    public void recordEviction(int weight, RemovalCause cause) {
+        this.evictions[cause.ordinal()].increment();
+        this.evictionWeight.add(weight);
+    }
+
+    /**
+     * Record the cost of reading the persisted data.
+     * @param time Time spent, in nanoseconds.
+     * @param bytes Number of bytes read.
+     */
+    void recordPersistenceLoad(long time, long bytes) {
+        this.persistenceLoadTime.add(time);
+        this.persistenceLoadBytes.add(bytes);
+    }
+
+    /**
+     * Record the cost of writing the persisted data, replacing the one of the previous save.
+     * @param time Time spent, in nanoseconds.
+     * @param bytes Number of bytes written.
+     */
+    void recordPersistenceSave(long time, long bytes) {
+        this.persistenceSaveTime = time;
+        this.persistenceSaveBytes = bytes;
+    }
+
+    @Override
+    public CacheStats snapshot() {
+        var evicted = 0L;
+        for (var cause : RemovalCause.values()) {
+            if (cause.wasEvicted()) {
+                evicted += this.evictions[cause.ordinal()].sum();
+            }
+        }
+        return CacheStats.of(this.hits.sum(), this.misses.sum(), this.loadSuccesses.sum(), this.loadFailures.sum(),
+                this.totalLoadTime.sum(), evicted, this.evictionWeight.sum());
+    }
+
+    /**
+     * @return A snapshot of all the recorded statistics.
+     */
+    CacheStatistics statistics() {
+        var counts = new long[BUCKETS];
+        var total = 0L;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = this.loadTimes.get(i);
+            total += counts[i];
+        }
+        return new CacheStatistics(
+                this.hits.sum(),
+                this.misses.sum(),
+                this.loadSuccesses.sum(),
+                this.loadFailures.sum(),
+                this.totalLoadTime.sum(),
+                percentile(counts, total, 0.5),
+                percentile(counts, total, 0.9),
+                percentile(counts, total, 0.99),
+                this.evictions[RemovalCause.SIZE.ordinal()].sum(),
+                this.evictions[RemovalCause.EXPIRED.ordinal()].sum(),
+                this.evictions[RemovalCause.COLLECTED.ordinal()].sum(),
+                this.persistenceLoadTime.sum(),
+                this.persistenceLoadBytes.sum(),
+                this.persistenceSaveTime,
+                this.persistenceSaveBytes);
+    }
+
+    private void recordLoadTime(long loadTime) {
+        this.totalLoadTime.add(loadTime);
+        this.loadTimes.incrementAndGet(bucket(Math.max(0, loadTime)));
+    }
+
+    /**
+     * Compute the histogram bucket of a value, values smaller than the sub bucket count have their own bucket,
+     * bigger ones are indexed by their highest bit, then by the following bits.
+     * @param value Positive value.
+     * @return The bucket index.
+     */
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        var exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        var sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * Compute the highest value of a bucket.
+     * @param bucket Bucket index.
+     * @return The highest value stored in the bucket.
+     */
+    static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        var shift = bucket / SUB_BUCKETS - 1;
+        var lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lower + (1L << shift) - 1;
+    }
+
+    private static long percentile(long[] counts, long total, double percentile) {
+        if (total == 0) {
+            return 0;
+        }
+        var target = (long) Math.ceil(total * percentile);
+        var cumulated = 0L;
+        for (int i = 0; i < counts.length; i++) {
+            cumulated += counts[i];
+            if (cumulated >= target) {
+                return upperBound(i);
+            }
+        }
+        return upperBound(counts.length - 1);
+    }
+}
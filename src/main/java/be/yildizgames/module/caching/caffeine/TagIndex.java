@@ -0,0 +1,251 @@
+package be.yildizgames.module.caching.caffeine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * <pre>
+ * Secondary index of the cache keys by tag, so all the entries sharing a tag can be found in a time proportional to
+ * their number, without scanning the cache.
+ * The index is kept in both directions, tag to keys and key to tags, so removing a key only visits its own tags.
+ * Both directions are updated together under a single lock, so they always match, a key added to a tag concurrently
+ * removed is either removed with it or kept with the tag in both directions. Writing the index to a file does not
+ * take the lock.
+ * The index is persisted in a file of [magic][schema] followed by [key length][key][tag count][tags] records, the keys
+ * being encoded with the cache serializer, a file written with another schema is ignored.
+ * Mutable: yes.
+ * Thread safe: yes.
+ * Accept null: no.
+ * Returns null: no.
+ * Side effects: file read and write.
+ * Throws exceptions: no.
+ * </pre>
+ * @param <K> Type of the key used to retrieve the data.
+ * @author Gregory Van den Borre
+ */
+final class TagIndex<K> {
+
+    private static final int MAGIC = 0x59434354;
+
+    private static final String TEMPORARY = ".tmp";
+
+    /**
+     * Upper bound of the number of tags of a key read from a file, above it the file is considered corrupted.
+     */
+    private static final int MAX_TAGS = 1 << 16;
+
+    private final Map<String, Set<K>> keys = new ConcurrentHashMap<>();
+
+    private final Map<K, Set<String>> tags = new ConcurrentHashMap<>();
+
+    /**
+     * Guard the updates of both maps.
+     */
+    private final Object lock = new Object();
+
+    private final Path path;
+
+    private final Serializer<K, ?> serializer;
+
+    private final long schema;
+
+    /**
+     * @param file Path of the file persisting the index.
+     * @param serializer Serializer to encode the keys.
+     * @param schema Fingerprint of the cache schema, as computed by SnapshotFile.fingerprint.
+     */
+    TagIndex(String file, Serializer<K, ?> serializer, long schema) {
+        super();
+        this.path = Path.of(file);
+        this.serializer = serializer;
+        this.schema = schema;
+    }
+
+    /**
+     * Associate a key to tags.
+     * @param key Key to tag.
+     * @param tags Tags of the key, null tags are ignored.
+     */
+    void tag(K key, String... tags) {
+        synchronized (this.lock) {
+            for (String tag : tags) {
+                if (tag != null) {
+                    this.keys.compute(tag, (t, set) -> add(set, key));
+                    this.tags.compute(key, (k, set) -> add(set, tag));
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove a tag, and provide the keys it was associated to.
+     * @param tag Tag to remove.
+     * @return The keys associated to the tag, empty if none.
+     */
+    Set<K> remove(String tag) {
+        synchronized (this.lock) {
+            var removed = this.keys.remove(tag);
+            if (removed == null) {
+                return Set.of();
+            }
+            for (K key : removed) {
+                this.tags.computeIfPresent(key, (k, set) -> remove(set, tag));
+            }
+            return removed;
+        }
+    }
+
+    /**
+     * Remove all the tags of a key.
+     * @param key Key to untag.
+     */
+    void untag(K key) {
+        synchronized (this.lock) {
+            var removed = this.tags.remove(key);
+            if (removed == null) {
+                return;
+            }
+            for (String tag : removed) {
+                this.keys.computeIfPresent(tag, (t, set) -> remove(set, key));
+            }
+        }
+    }
+
+    /**
+     * Remove all the tags.
+     */
+    void clear() {
+        synchronized (this.lock) {
+            this.keys.clear();
+            this.tags.clear();
+        }
+    }
+
+    /**
+     * Persist the index, in a temporary file atomically moved in place, the file is deleted if the index is empty.
+     * Keys that cannot be encoded are not persisted.
+     */
+    void write() {
+        var temporary = Path.of(this.path + TEMPORARY);
+        try {
+            if (this.tags.isEmpty()) {
+                Files.deleteIfExists(this.path);
+                return;
+            }
+            try (var stream = new BufferedOutputStream(Files.newOutputStream(temporary)); var output = new DataOutputStream(stream)) {
+                output.writeInt(MAGIC);
+                output.writeLong(this.schema);
+                var buffer = ByteBuffer.allocate(1024);
+                for (var entry : this.tags.entrySet()) {
+                    buffer = this.encode(buffer, entry.getKey());
+                    var tags = Set.copyOf(entry.getValue());
+                    if (buffer.position() > 0 && !tags.isEmpty()) {
+                        output.writeInt(buffer.position());
+                        output.write(buffer.array(), 0, buffer.position());
+                        output.writeInt(tags.size());
+                        for (String tag : tags) {
+                            output.writeUTF(tag);
+                        }
+                    }
+                }
+            }
+            Files.move(temporary, this.path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.getLogger(TagIndex.class.getName()).log(System.Logger.Level.ERROR, "Cannot write cache tags", e);
+        }
+    }
+
+    /**
+     * Load the persisted index, a truncated file is read up to its last complete record.
+     * @param present Tell if a key is still in the cache, the tags of the other keys are not loaded.
+     */
+    void read(Predicate<K> present) {
+        if (Files.notExists(this.path)) {
+            return;
+        }
+        try (var stream = new BufferedInputStream(Files.newInputStream(this.path)); var input = new DataInputStream(stream)) {
+            if (input.readInt() != MAGIC) {
+                throw new StreamCorruptedException("Invalid tags header.");
+            }
+            if (input.readLong() != this.schema) {
+                System.getLogger(TagIndex.class.getName()).log(System.Logger.Level.INFO, "Cache tags written with another schema, discarded");
+                return;
+            }
+            while (true) {
+                var length = input.readInt();
+                if (length < 0 || length > EntryWriter.MAX_CAPACITY) {
+                    throw new StreamCorruptedException("Invalid tagged key length.");
+                }
+                var encoded = new byte[length];
+                input.readFully(encoded);
+                var count = input.readInt();
+                if (count < 0 || count > MAX_TAGS) {
+                    throw new StreamCorruptedException("Invalid tag count.");
+                }
+                var tags = new String[count];
+                for (int i = 0; i < tags.length; i++) {
+                    tags[i] = input.readUTF();
+                }
+                K key = EntryReader.decodeKey(this.serializer, ByteBuffer.wrap(encoded));
+                if (present.test(key)) {
+                    this.tag(key, tags);
+                }
+            }
+        } catch (EOFException e) {
+            // end of the file, or truncated record.
+        } catch (IOException | RuntimeException e) {
+            System.getLogger(TagIndex.class.getName()).log(System.Logger.Level.ERROR, "Unreadable cache tags file", e);
+        }
+    }
+
+    /**
+     * Encode a key, growing the buffer if it is too small.
+     * @param buffer Buffer to write into.
+     * @param key Key to encode.
+     * @return The buffer containing the key, with a position of 0 if the key cannot be encoded.
+     */
+    private ByteBuffer encode(ByteBuffer buffer, K key) {
+        while (true) {
+            buffer.clear();
+            try {
+                this.serializer.writeKey(key, buffer);
+                return buffer;
+            } catch (BufferOverflowException e) {
+                if (buffer.capacity() >= EntryWriter.MAX_CAPACITY) {
+                    buffer.clear();
+                    return buffer;
+                }
+                buffer = ByteBuffer.allocate(Math.min(EntryWriter.MAX_CAPACITY, buffer.capacity() * 2));
+            } catch (RuntimeException e) {
+                System.getLogger(TagIndex.class.getName()).log(System.Logger.Level.DEBUG, "Cannot encode tagged key", e);
+                buffer.clear();
+                return buffer;
+            }
+        }
+    }
+
+    private static <T> Set<T> add(Set<T> set, T element) {
+        var result = set == null ? ConcurrentHashMap.<T>newKeySet() : set;
+        result.add(element);
+        return result;
+    }
+
+    private static <T> Set<T> remove(Set<T> set, T element) {
+        set.remove(element);
+        return set.isEmpty() ? null : set;
+    }
+}
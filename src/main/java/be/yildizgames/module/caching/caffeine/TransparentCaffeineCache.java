@@ -1,27 +1,61 @@
 package be.yildizgames.module.caching.caffeine;
 
 import java.time.Duration;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.function.Function;
 import be.yildizgames.module.caching.Cache;
+import be.yildizgames.module.caching.CacheStatistics;
 
-
+/**
+ * <pre>
+ * Cache never throwing exceptions, errors are logged and the data is retrieved as if there was no cache.
+ * The data providers are protected while they are failing: a key whose load failed is not loaded again for a short
+ * time, and after several consecutive failures, the providers are no longer called for a backoff time, growing while
+ * they keep failing, during which the cached entries are still returned.
+ * If the underlying cache cannot be built, every get calls the provider directly, concurrent gets of the same key
+ * sharing a single provider call.
+ * Mutable: yes.
+ * Thread safe: yes.
+ * Accept null: no.
+ * Returns null: no.
+ * Side effects: file read and write.
+ * Throws exceptions: no.
+ * </pre>
+ * @param <K> Type of the key used to retrieve the data.
+ * @param <V> Type of the data associated to the key.
+ * @author Gregory Van den Borre
+ */
 public class TransparentCaffeineCache<K, V> implements Cache<K,V> {
 
     public static void main(String[] args) {
 
     }
 
+    /**
+     * Underlying cache, null if it could not be built.
+     */
     private final CaffeineCache<K, V> cache;
 
+    private final ProviderGuard<K, V> guard;
+
     public TransparentCaffeineCache(String name, long maxItem, Duration duration) {
+        this(CaffeineCacheBuilder.<K, V>newBuilder(name).maximumSize(maxItem).expireAfterWrite(duration));
+    }
+
+    TransparentCaffeineCache(CaffeineCacheBuilder<K, V> builder) {
         CaffeineCache<K, V> tmp;
         try {
-            tmp = new CaffeineCache<>(name, maxItem, duration);
+            tmp = builder.build();
         } catch (Exception e) {
+            System.getLogger(CaffeineCache.class.getName()).log(System.Logger.Level.ERROR, "Error building cache", e);
             tmp = null;
         }
         this.cache = tmp;
+        this.guard = new ProviderGuard<>(builder.negativeTtl, builder.failureThreshold, builder.backoff);
     }
 
     @Override
@@ -33,16 +67,98 @@ public class TransparentCaffeineCache<K, V> implements Cache<K,V> {
         }
     }
 
+    @Override
+    public void put(K key, V value, String... tags) {
+        try {
+            Optional.ofNullable(this.cache).ifPresent(c -> c.put(key, value, tags));
+        } catch (Exception e) {
+            System.getLogger(CaffeineCache.class.getName()).log(System.Logger.Level.ERROR, "Error putting value", e);
+        }
+    }
+
     @Override
     public Optional<V> get(K key, Function<? super K, ? extends V> addValue) {
         try {
-            return Optional.ofNullable(this.cache).flatMap(c -> c.get(key, addValue));
+            if(this.cache == null) {
+                return Optional.ofNullable(this.guard.loadShared(key, addValue));
+            }
+            return this.cache.get(key, k -> this.guard.load(k, addValue));
+        } catch (Exception e) {
+            System.getLogger(CaffeineCache.class.getName()).log(System.Logger.Level.ERROR, "Error retrieving value", e);
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public Optional<V> get(K key, Function<? super K, ? extends V> addValue, String... tags) {
+        try {
+            if(this.cache == null) {
+                return Optional.ofNullable(this.guard.loadShared(key, addValue));
+            }
+            return this.cache.get(key, k -> this.guard.load(k, addValue), tags);
         } catch (Exception e) {
             System.getLogger(CaffeineCache.class.getName()).log(System.Logger.Level.ERROR, "Error retrieving value", e);
             return Optional.empty();
         }
     }
 
+    @Override
+    public Map<K, V> getAll(Collection<? extends K> keys, Function<? super Set<? extends K>, ? extends Map<? extends K, ? extends V>> addValues) {
+        try {
+            if(this.cache == null) {
+                return this.guard.loadAllShared(new HashSet<>(keys), addValues);
+            }
+            return this.cache.getAll(keys, k -> this.guard.loadAll(k, addValues));
+        } catch (Exception e) {
+            System.getLogger(CaffeineCache.class.getName()).log(System.Logger.Level.ERROR, "Error retrieving values", e);
+            return Map.of();
+        }
+    }
+
+    @Override
+    public void invalidate(K key) {
+        try {
+            Optional.ofNullable(this.cache).ifPresent(c -> c.invalidate(key));
+        } catch (Exception e) {
+            System.getLogger(CaffeineCache.class.getName()).log(System.Logger.Level.ERROR, "Error invalidating value", e);
+        }
+    }
+
+    @Override
+    public void invalidateTag(String tag) {
+        try {
+            Optional.ofNullable(this.cache).ifPresent(c -> c.invalidateTag(tag));
+        } catch (Exception e) {
+            System.getLogger(CaffeineCache.class.getName()).log(System.Logger.Level.ERROR, "Error invalidating tag", e);
+        }
+    }
+
+    @Override
+    public void invalidateAll() {
+        try {
+            Optional.ofNullable(this.cache).ifPresent(CaffeineCache::invalidateAll);
+        } catch (Exception e) {
+            System.getLogger(CaffeineCache.class.getName()).log(System.Logger.Level.ERROR, "Error invalidating values", e);
+        }
+    }
+
+    /**
+     * @return true if the data providers are currently not called because of repeated failures.
+     */
+    public boolean isSuspended() {
+        return this.guard.isOpen();
+    }
+
+    @Override
+    public CacheStatistics statistics() {
+        try {
+            return Optional.ofNullable(this.cache).map(CaffeineCache::statistics).orElse(CacheStatistics.EMPTY);
+        } catch (Exception e) {
+            System.getLogger(CaffeineCache.class.getName()).log(System.Logger.Level.ERROR, "Error retrieving statistics", e);
+            return CacheStatistics.EMPTY;
+        }
+    }
+
     @Override
     public void close() {
         try {
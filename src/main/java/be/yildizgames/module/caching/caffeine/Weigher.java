@@ -0,0 +1,115 @@
+package be.yildizgames.module.caching.caffeine;
+
+/**
+ * <pre>
+ * Estimate the memory used by a cache entry, in bytes, so a cache can be bounded by a memory budget instead of an
+ * item count.
+ * The weight of an entry is computed when it is written and is not updated afterwards, values are expected not to
+ * change size once cached.
+ * Implementations are expected to be stateless, thread safe and fast, as they are called on every write.
+ * </pre>
+ * @param <K> Type of the key used to retrieve the data.
+ * @param <V> Type of the data associated to the key.
+ * @author Gregory Van den Borre
+ */
+@FunctionalInterface
+public interface Weigher<K, V> {
+
+    /**
+     * Approximate memory used by the cache itself for every entry, in bytes.
+     */
+    int ENTRY_OVERHEAD = 64;
+
+    /**
+     * Size of an object header, in bytes.
+     */
+    int OBJECT_HEADER = 16;
+
+    /**
+     * Size of an array header, in bytes.
+     */
+    int ARRAY_HEADER = 16;
+
+    /**
+     * Size assumed for an object of unknown type, in bytes.
+     */
+    int UNKNOWN_SIZE = 64;
+
+    /**
+     * Compute the weight of an entry.
+     * @param key Entry key.
+     * @param value Entry value.
+     * @return The entry weight in bytes. (>= 0)
+     */
+    int weigh(K key, V value);
+
+    /**
+     * Provide a weigher estimating the size of strings, byte arrays, primitive arrays and boxed primitives from
+     * their length, other objects are assumed to use UNKNOWN_SIZE bytes. The cache overhead of an entry is included.
+     * @param <K> Type of the key used to retrieve the data.
+     * @param <V> Type of the data associated to the key.
+     * @return The default weigher.
+     */
+    static <K, V> Weigher<K, V> estimate() {
+        return (key, value) -> (int) Math.min(Integer.MAX_VALUE, ENTRY_OVERHEAD + sizeOf(key) + sizeOf(value));
+    }
+
+    /**
+     * Estimate the memory used by an object, without following its references.
+     * @param o Object to estimate.
+     * @return The estimated size, in bytes.
+     */
+    static long sizeOf(Object o) {
+        if (o == null) {
+            return 0;
+        }
+        if (o instanceof String s) {
+            return OBJECT_HEADER + 8 + ARRAY_HEADER + (long) s.length() * (isLatin1(s) ? 1 : 2);
+        }
+        if (o instanceof byte[] a) {
+            return ARRAY_HEADER + (long) a.length;
+        }
+        if (o instanceof boolean[] a) {
+            return ARRAY_HEADER + (long) a.length;
+        }
+        if (o instanceof char[] a) {
+            return ARRAY_HEADER + (long) a.length * Character.BYTES;
+        }
+        if (o instanceof short[] a) {
+            return ARRAY_HEADER + (long) a.length * Short.BYTES;
+        }
+        if (o instanceof int[] a) {
+            return ARRAY_HEADER + (long) a.length * Integer.BYTES;
+        }
+        if (o instanceof float[] a) {
+            return ARRAY_HEADER + (long) a.length * Float.BYTES;
+        }
+        if (o instanceof long[] a) {
+            return ARRAY_HEADER + (long) a.length * Long.BYTES;
+        }
+        if (o instanceof double[] a) {
+            return ARRAY_HEADER + (long) a.length * Double.BYTES;
+        }
+        if (o instanceof Long || o instanceof Double) {
+            return OBJECT_HEADER + Long.BYTES;
+        }
+        if (o instanceof Integer || o instanceof Float || o instanceof Short || o instanceof Byte || o instanceof Character || o instanceof Boolean) {
+            return OBJECT_HEADER + Integer.BYTES;
+        }
+        return UNKNOWN_SIZE;
+    }
+
+    /**
+     * Check if a string only contains Latin-1 characters, and is then stored with one byte per character.
+     * @param s String to check.
+     * @return true if all the characters are Latin-1.
+     */
+    private static boolean isLatin1(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) >= 0x100) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
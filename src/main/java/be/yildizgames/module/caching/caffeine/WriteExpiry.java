@@ -0,0 +1,80 @@
+package be.yildizgames.module.caching.caffeine;
+
+import com.github.benmanes.caffeine.cache.Expiry;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <pre>
+ * Expire the entries a fixed duration after they were written, like expireAfterWrite, or after they were last read or
+ * written, like expireAfterAccess, except for the entries restored from disk, which keep the expiration time they were
+ * persisted with until they are accessed.
+ * Mutable: yes.
+ * Thread safe: yes.
+ * </pre>
+ * @param <K> Type of the key used to retrieve the data.
+ * @param <V> Type of the data associated to the key.
+ * @author Gregory Van den Borre
+ */
+final class WriteExpiry<K, V> implements Expiry<K, V> {
+
+    private final long duration;
+
+    /**
+     * true to reset the expiration when an entry is read.
+     */
+    private final boolean access;
+
+    /**
+     * Expiration time of the entries being restored, in milliseconds since the epoch, consumed on their creation.
+     */
+    private final Map<K, Long> restored = new ConcurrentHashMap<>();
+
+    WriteExpiry(Duration duration, boolean access) {
+        super();
+        this.duration = duration.toNanos();
+        this.access = access;
+    }
+
+    /**
+     * Register the expiration time of an entry about to be created from persisted data.
+     * @param key Entry key.
+     * @param expiresAt Expiration time, in milliseconds since the epoch.
+     */
+    void restore(K key, long expiresAt) {
+        this.restored.put(key, expiresAt);
+    }
+
+    /**
+     * Compute the time left before an expiration time.
+     * @param expiresAt Expiration time, in milliseconds since the epoch.
+     * @return The time left, in nanoseconds, 0 if already expired.
+     */
+    static long remaining(long expiresAt) {
+        return TimeUnit.MILLISECONDS.toNanos(Math.max(0, expiresAt - System.currentTimeMillis()));
+    }
+
+    @Override
+    public long expireAfterCreate(K key, V value, long currentTime) {
+        if (!this.restored.isEmpty()) {
+            var expiresAt = this.restored.remove(key);
+            if (expiresAt != null) {
+                return remaining(expiresAt);
+            }
+        }
+        return this.duration;
+    }
+
+    @Override
+    public long expireAfterUpdate(K key, V value, long currentTime, long currentDuration) {
+        return this.duration;
+    }
+
+    @Override
+    public long expireAfterRead(K key, V value, long currentTime, long currentDuration) {
+        return this.access ? this.duration : currentDuration;
+    }
+}
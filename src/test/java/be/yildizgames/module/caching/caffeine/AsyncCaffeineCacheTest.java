@@ -0,0 +1,145 @@
+package be.yildizgames.module.caching.caffeine;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static be.yildizgames.module.caching.caffeine.CaffeineCache.DATA;
+import static be.yildizgames.module.caching.caffeine.CaffeineCache.METADATA;
+import static be.yildizgames.module.caching.caffeine.CaffeineCache.PREVIOUS_DATA;
+
+public class AsyncCaffeineCacheTest {
+
+    @BeforeEach
+    void clean() throws IOException {
+        Files.deleteIfExists(Path.of(DATA.replace("{NAME}", "test")));
+        Files.deleteIfExists(Path.of(PREVIOUS_DATA.replace("{NAME}", "test")));
+        Files.deleteIfExists(Path.of(METADATA.replace("{NAME}", "test")));
+    }
+
+    @Nested
+    class Constructor {
+
+        @Test
+        void nullExecutor() {
+            Assertions.assertThrows(IllegalArgumentException.class, () -> new AsyncCaffeineCache<Integer, String>("test", 5, Duration.of(2, ChronoUnit.DAYS), PersistenceMode.SNAPSHOT, Serializer.java(), null));
+        }
+
+        @Test
+        void nullName() {
+            Assertions.assertThrows(IllegalArgumentException.class, () -> new AsyncCaffeineCache<Integer, String>(null, 5, Duration.of(2, ChronoUnit.DAYS)));
+        }
+
+        @Test
+        void withCache() {
+            try(var cache = basicCache()) {
+                cache.put(1, "test 1");
+            }
+            try(var cache = basicCache()) {
+                var used = new AtomicInteger();
+                Assertions.assertEquals("test 1", cache.get(1, k -> "other " + used.incrementAndGet()).join());
+                Assertions.assertEquals(0, used.get());
+            }
+        }
+    }
+
+    @Nested
+    class Get {
+
+        @Test
+        void providerNotRunOnCaller() throws InterruptedException {
+            try(var cache = basicCache()) {
+                var release = new CountDownLatch(1);
+                var future = cache.get(1, k -> {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return "test " + k;
+                });
+                Assertions.assertFalse(future.isDone());
+                release.countDown();
+                Assertions.assertEquals("test 1", future.join());
+            }
+        }
+
+        @Test
+        void concurrentGetShareLoad() {
+            try(var cache = basicCache()) {
+                var used = new AtomicInteger();
+                var release = new CountDownLatch(1);
+                var first = cache.get(1, k -> {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return "test " + used.incrementAndGet();
+                });
+                var second = cache.get(1, k -> "test " + used.incrementAndGet());
+                release.countDown();
+                Assertions.assertEquals("test 1", first.join());
+                Assertions.assertEquals("test 1", second.join());
+                Assertions.assertEquals(1, used.get());
+            }
+        }
+
+        @Test
+        void providerReturnsNull() {
+            try(var cache = basicCache()) {
+                Assertions.assertNull(cache.get(1, k -> null).join());
+            }
+        }
+
+        @Test
+        void providerFails() {
+            try(var cache = new AsyncCaffeineCache<Integer, String>("test", 1000, Duration.of(2, ChronoUnit.DAYS), PersistenceMode.SNAPSHOT, Serializer.java(), Runnable::run)) {
+                var future = cache.get(1, k -> {
+                    throw new IllegalStateException();
+                });
+                Assertions.assertThrows(CompletionException.class, future::join);
+                Assertions.assertEquals("test 1", cache.get(1, k -> "test " + k).join());
+            }
+        }
+
+        @Test
+        void withExecutor() {
+            var executor = Executors.newSingleThreadExecutor();
+            try(var cache = new AsyncCaffeineCache<Integer, String>("test", 1000, Duration.of(2, ChronoUnit.DAYS), PersistenceMode.SNAPSHOT, Serializer.java(), executor)) {
+                Assertions.assertEquals("test 1", cache.get(1, k -> "test " + k).join());
+            }
+            Assertions.assertFalse(executor.isShutdown());
+            executor.shutdown();
+        }
+
+        @Test
+        void nullKey() {
+            try(var cache = basicCache()) {
+                Assertions.assertThrows(NullPointerException.class, () -> cache.get(null, k -> "test"));
+            }
+        }
+
+        @Test
+        void nullAddElement() {
+            try(var cache = basicCache()) {
+                Assertions.assertThrows(NullPointerException.class, () -> cache.get(1, null));
+            }
+        }
+    }
+
+    private static AsyncCaffeineCache<Integer, String> basicCache() {
+        return new AsyncCaffeineCache<>("test", 1000, Duration.of(2, ChronoUnit.DAYS));
+    }
+}
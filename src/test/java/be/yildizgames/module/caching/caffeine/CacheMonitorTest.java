@@ -0,0 +1,66 @@
+package be.yildizgames.module.caching.caffeine;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+
+import static be.yildizgames.module.caching.caffeine.CaffeineCache.DATA;
+import static be.yildizgames.module.caching.caffeine.CaffeineCache.METADATA;
+import static be.yildizgames.module.caching.caffeine.CaffeineCache.PREVIOUS_DATA;
+
+public class CacheMonitorTest {
+
+    @BeforeEach
+    void clean() throws IOException {
+        Files.deleteIfExists(Path.of(DATA.replace("{NAME}", "test")));
+        Files.deleteIfExists(Path.of(PREVIOUS_DATA.replace("{NAME}", "test")));
+        Files.deleteIfExists(Path.of(METADATA.replace("{NAME}", "test")));
+    }
+
+    @Nested
+    class Register {
+
+        @Test
+        void happyFlow() throws Exception {
+            try(var cache = new CaffeineCache<Integer, String>("test", 1000, Duration.of(2, ChronoUnit.DAYS))) {
+                cache.get(1, k -> "test " + k);
+                cache.get(1, k -> "test " + k);
+                var name = new ObjectName("be.yildizgames.module.caching:type=Cache,name=\"test\"");
+                try(var monitor = CacheMonitor.register("test", cache)) {
+                    Assertions.assertEquals(1L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "HitCount"));
+                    Assertions.assertEquals(0.5, monitor.getHitRate(), 0.0001);
+                }
+                Assertions.assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+            }
+        }
+
+        @Test
+        void sameName() {
+            try(var cache = new CaffeineCache<Integer, String>("test", 1000, Duration.of(2, ChronoUnit.DAYS));
+                var monitor = CacheMonitor.register("test", cache)) {
+                Assertions.assertThrows(IllegalArgumentException.class, () -> CacheMonitor.register("test", cache));
+            }
+        }
+
+        @Test
+        void nullName() {
+            try(var cache = new CaffeineCache<Integer, String>("test", 1000, Duration.of(2, ChronoUnit.DAYS))) {
+                Assertions.assertThrows(IllegalArgumentException.class, () -> CacheMonitor.register(null, cache));
+            }
+        }
+
+        @Test
+        void nullCache() {
+            Assertions.assertThrows(IllegalArgumentException.class, () -> CacheMonitor.register("test", (CaffeineCache<Integer, String>) null));
+        }
+    }
+}
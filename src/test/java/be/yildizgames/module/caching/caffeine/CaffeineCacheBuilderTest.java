@@ -0,0 +1,313 @@
+package be.yildizgames.module.caching.caffeine;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+import java.util.Comparator;
+
+import static be.yildizgames.module.caching.caffeine.CaffeineCache.DATA;
+import static be.yildizgames.module.caching.caffeine.CaffeineCache.METADATA;
+import static be.yildizgames.module.caching.caffeine.CaffeineCache.PREVIOUS_DATA;
+
+public class CaffeineCacheBuilderTest {
+
+    private static final Path DIRECTORY = Path.of("target", "cache-builder-test");
+
+    @BeforeEach
+    void clean() throws IOException {
+        Files.deleteIfExists(Path.of(DATA.replace("{NAME}", "test")));
+        Files.deleteIfExists(Path.of(PREVIOUS_DATA.replace("{NAME}", "test")));
+        Files.deleteIfExists(Path.of(METADATA.replace("{NAME}", "test")));
+        if(Files.exists(DIRECTORY)) {
+            try (var files = Files.walk(DIRECTORY)) {
+                for (var file : files.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    @Nested
+    class Build {
+
+        @Test
+        void noBound() {
+            Assertions.assertThrows(IllegalArgumentException.class, () -> CaffeineCacheBuilder.<Integer, String>newBuilder("test")
+                    .expireAfterWrite(Duration.of(2, ChronoUnit.DAYS))
+                    .build());
+        }
+
+        @Test
+        void noExpiration() {
+            Assertions.assertThrows(IllegalArgumentException.class, () -> CaffeineCacheBuilder.<Integer, String>newBuilder("test")
+                    .maximumSize(1000)
+                    .build());
+        }
+
+        @Test
+        void nullName() {
+            Assertions.assertThrows(IllegalArgumentException.class, () -> builder(null).build());
+        }
+
+        @Test
+        void nullMode() {
+            Assertions.assertThrows(IllegalArgumentException.class, () -> builder("test").persistence(null));
+        }
+
+        @Test
+        void negativeInitialCapacity() {
+            Assertions.assertThrows(IllegalArgumentException.class, () -> builder("test").initialCapacity(-1));
+        }
+
+        @Test
+        void weakValuesAsync() {
+            Assertions.assertThrows(IllegalArgumentException.class, () -> builder("test").weakValues().buildAsync());
+        }
+
+        @Test
+        void weakValuesVirtualThreadLoads() {
+            Assertions.assertThrows(IllegalArgumentException.class, () -> builder("test").weakValues().virtualThreadLoads(2).build());
+        }
+
+        @Test
+        void invalidConcurrentLoads() {
+            Assertions.assertThrows(IllegalArgumentException.class, () -> builder("test").virtualThreadLoads(0));
+        }
+
+        @Test
+        void happyFlow() {
+            try(var cache = builder("test").initialCapacity(100).recordStats(true).build()) {
+                var provider = new CaffeineCacheTest.DataProvider();
+                Assertions.assertEquals("test 1", cache.get(1, provider::getData).get());
+                Assertions.assertEquals("test 1", cache.get(1, provider::getData).get());
+                Assertions.assertEquals(1, cache.statistics().hitCount());
+            }
+        }
+
+        @Test
+        void noStatistics() {
+            try(var cache = builder("test").recordStats(false).build()) {
+                cache.get(1, k -> "test " + k);
+                cache.get(1, k -> "test " + k);
+                Assertions.assertEquals(0, cache.statistics().hitCount());
+            }
+        }
+
+        @Test
+        void softValues() {
+            try(var cache = builder("test").softValues().build()) {
+                cache.put(1, "test 1");
+                Assertions.assertEquals("test 1", cache.get(1, k -> "other").get());
+            }
+        }
+
+        @Test
+        void withLoader() {
+            try(var cache = builder("test").loader(k -> "test " + k).build()) {
+                Assertions.assertEquals("test 1", cache.get(1).get());
+            }
+        }
+    }
+
+    @Nested
+    class Persistence {
+
+        @Test
+        void directory() {
+            try(var cache = builder("test").directory(DIRECTORY).build()) {
+                cache.put(1, "test 1");
+            }
+            Assertions.assertTrue(Files.exists(DIRECTORY.resolve(DATA.replace("{NAME}", "test"))));
+            Assertions.assertTrue(Files.notExists(Path.of(DATA.replace("{NAME}", "test"))));
+            try(var cache = builder("test").directory(DIRECTORY).build()) {
+                Assertions.assertEquals("test 1", cache.get(1, k -> "other").get());
+            }
+        }
+
+        @Test
+        void compressed() {
+            try(var cache = builder("test").compressed(true).build()) {
+                for (int i = 0; i < 10_000; i++) {
+                    cache.put(i, "test " + i);
+                }
+            }
+            try(var cache = builder("test").compressed(true).build()) {
+                Assertions.assertEquals("test 1", cache.get(1, k -> "other").get());
+                Assertions.assertEquals("test 9999", cache.get(9999, k -> "other").get());
+            }
+        }
+
+        @Test
+        void compressedSmaller() throws IOException {
+            try(var cache = builder("test").build()) {
+                for (int i = 0; i < 10_000; i++) {
+                    cache.put(i, "test " + i);
+                }
+            }
+            var uncompressed = Files.size(Path.of(DATA.replace("{NAME}", "test")));
+            try(var cache = builder("test").compressed(true).build()) {
+                Assertions.assertEquals("test 1", cache.get(1, k -> "other").get());
+            }
+            Assertions.assertTrue(Files.size(Path.of(DATA.replace("{NAME}", "test"))) < uncompressed);
+        }
+
+        @Test
+        void readUncompressedAfterCompressed() {
+            try(var cache = builder("test").compressed(true).build()) {
+                cache.put(1, "test 1");
+            }
+            try(var cache = builder("test").build()) {
+                Assertions.assertEquals("test 1", cache.get(1, k -> "other").get());
+            }
+        }
+
+        @Test
+        void sharded() {
+            try(var cache = builder("test").directory(DIRECTORY).shards(4).build()) {
+                for (int i = 0; i < 10_000; i++) {
+                    cache.put(i, "test " + i);
+                }
+            }
+            for (int i = 0; i < 4; i++) {
+                Assertions.assertTrue(Files.exists(DIRECTORY.resolve(CaffeineCache.DATA_SHARD.replace("{NAME}", "test").replace("{SHARD}", String.valueOf(i)))));
+            }
+            Assertions.assertTrue(Files.notExists(DIRECTORY.resolve(DATA.replace("{NAME}", "test"))));
+            try(var cache = builder("test").directory(DIRECTORY).shards(4).build()) {
+                for (int i = 0; i < 10_000; i++) {
+                    Assertions.assertEquals("test " + i, cache.get(i, k -> "other").get());
+                }
+            }
+        }
+
+        @Test
+        void lessShards() {
+            try(var cache = builder("test").directory(DIRECTORY).shards(4).build()) {
+                for (int i = 0; i < 1_000; i++) {
+                    cache.put(i, "test " + i);
+                }
+            }
+            try(var cache = builder("test").directory(DIRECTORY).shards(2).build()) {
+                Assertions.assertEquals("test 1", cache.get(1, k -> "other").get());
+                Assertions.assertEquals("other", cache.get(3, k -> "other").get());
+            }
+            for (int i = 0; i < 4; i++) {
+                var shard = DIRECTORY.resolve(CaffeineCache.DATA_SHARD.replace("{NAME}", "test").replace("{SHARD}", String.valueOf(i)));
+                Assertions.assertEquals(i < 2, Files.exists(shard));
+            }
+        }
+
+        @Test
+        void shardedCompressed() {
+            try(var cache = builder("test").directory(DIRECTORY).shards(3).compressed(true).build()) {
+                for (int i = 0; i < 1_000; i++) {
+                    cache.put(i, "test " + i);
+                }
+            }
+            try(var cache = builder("test").directory(DIRECTORY).shards(3).compressed(true).build()) {
+                Assertions.assertEquals("test 1", cache.get(1, k -> "other").get());
+                Assertions.assertEquals("test 999", cache.get(999, k -> "other").get());
+            }
+        }
+
+        @Test
+        void zeroShards() {
+            Assertions.assertThrows(IllegalArgumentException.class, () -> builder("test").shards(0));
+        }
+
+        @Test
+        void otherTypesDiscarded() {
+            try(var cache = builder("test").types(Integer.class, String.class).build()) {
+                cache.put(1, "test 1");
+            }
+            try(var cache = CaffeineCacheBuilder.<Long, String>newBuilder("test")
+                    .maximumSize(1000)
+                    .expireAfterWrite(Duration.of(2, ChronoUnit.DAYS))
+                    .types(Long.class, String.class)
+                    .build()) {
+                Assertions.assertEquals("other", cache.get(1L, k -> "other").get());
+            }
+            try(var cache = builder("test").types(Integer.class, String.class).build()) {
+                Assertions.assertEquals("other", cache.get(1, k -> "other").get());
+            }
+        }
+
+        @Test
+        void otherSerializerDiscarded() {
+            try(var cache = builder("test").serializer(Serializer.of(Codec.INTEGER, Codec.STRING)).build()) {
+                cache.put(1, "test 1");
+            }
+            try(var cache = builder("test").serializer(Serializer.of(Codec.INTEGER, Codec.java())).build()) {
+                Assertions.assertEquals("other", cache.get(1, k -> "other").get());
+            }
+        }
+
+        @Test
+        void sameSchemaLoaded() {
+            try(var cache = builder("test").types(Integer.class, String.class).serializer(Serializer.of(Codec.INTEGER, Codec.STRING)).build()) {
+                cache.put(1, "test 1");
+            }
+            try(var cache = builder("test").types(Integer.class, String.class).serializer(Serializer.of(Codec.INTEGER, Codec.STRING)).build()) {
+                Assertions.assertEquals("test 1", cache.get(1, k -> "other").get());
+            }
+        }
+
+        @Test
+        void shorterExpiration() throws InterruptedException {
+            try(var cache = builder("test").build()) {
+                cache.put(1, "test 1");
+            }
+            try(var cache = builder("test").expireAfterWrite(Duration.ofMillis(50)).build()) {
+                Thread.sleep(150);
+                Assertions.assertEquals("other", cache.get(1, k -> "other").get());
+            }
+        }
+
+        @Test
+        void nullTypes() {
+            Assertions.assertThrows(IllegalArgumentException.class, () -> builder("test").types(null, String.class));
+        }
+
+        @Test
+        void none() {
+            try(var cache = builder("test").persistence(PersistenceMode.NONE).build()) {
+                cache.put(1, "test 1");
+            }
+            Assertions.assertTrue(Files.notExists(Path.of(DATA.replace("{NAME}", "test"))));
+            Assertions.assertTrue(Files.notExists(Path.of(METADATA.replace("{NAME}", "test"))));
+        }
+    }
+
+    @Nested
+    class Transparent {
+
+        @Test
+        void invalidOptions() {
+            try(var cache = CaffeineCacheBuilder.<Integer, String>newBuilder("test").buildTransparent()) {
+                var provider = new CaffeineCacheTest.DataProvider();
+                Assertions.assertEquals("test 1", cache.get(1, provider::getData).get());
+                Assertions.assertEquals("test 1", cache.get(1, provider::getData).get());
+            }
+        }
+
+        @Test
+        void happyFlow() {
+            try(var cache = builder("test").persistence(PersistenceMode.NONE).buildTransparent()) {
+                cache.put(1, "test 1");
+                Assertions.assertEquals("test 1", cache.get(1, k -> "other").get());
+            }
+        }
+    }
+
+    private static CaffeineCacheBuilder<Integer, String> builder(String name) {
+        return CaffeineCacheBuilder.<Integer, String>newBuilder(name)
+                .maximumSize(1000)
+                .expireAfterWrite(Duration.of(2, ChronoUnit.DAYS));
+    }
+}
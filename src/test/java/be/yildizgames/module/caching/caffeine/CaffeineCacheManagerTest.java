@@ -0,0 +1,222 @@
+package be.yildizgames.module.caching.caffeine;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+import java.util.Comparator;
+import java.util.Set;
+
+import static be.yildizgames.module.caching.caffeine.CaffeineCache.DATA;
+
+public class CaffeineCacheManagerTest {
+
+    private static final Path DIRECTORY = Path.of("target", "cache-manager-test");
+
+    @BeforeEach
+    void clean() throws IOException {
+        if(Files.exists(DIRECTORY)) {
+            try (var files = Files.walk(DIRECTORY)) {
+                for (var file : files.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    @Nested
+    class Constructor {
+
+        @Test
+        void zeroBudget() {
+            Assertions.assertThrows(IllegalArgumentException.class, () -> new CaffeineCacheManager(0, Duration.ofSeconds(1)));
+        }
+
+        @Test
+        void nullRebalance() {
+            Assertions.assertThrows(IllegalArgumentException.class, () -> new CaffeineCacheManager(1000, null));
+        }
+
+        @Test
+        void zeroRebalance() {
+            Assertions.assertThrows(IllegalArgumentException.class, () -> new CaffeineCacheManager(1000, Duration.ZERO));
+        }
+    }
+
+    @Nested
+    class Open {
+
+        @Test
+        void happyFlow() {
+            try(var manager = new CaffeineCacheManager()) {
+                var cache = manager.open(builder("first"));
+                cache.put(1, "test 1");
+                Assertions.assertEquals(Set.of("first"), manager.names());
+                Assertions.assertEquals("test 1", manager.<Integer, String>cache("first").orElseThrow().get(1, k -> "other").get());
+                Assertions.assertTrue(manager.cache("second").isEmpty());
+            }
+        }
+
+        @Test
+        void duplicateName() {
+            try(var manager = new CaffeineCacheManager()) {
+                manager.open(builder("first"));
+                Assertions.assertThrows(IllegalArgumentException.class, () -> manager.open(builder("first")));
+            }
+        }
+
+        @Test
+        void reopenAfterClose() {
+            try(var manager = new CaffeineCacheManager()) {
+                manager.open(builder("first")).put(1, "test 1");
+                Assertions.assertTrue(manager.close("first"));
+                Assertions.assertFalse(manager.close("first"));
+                Assertions.assertTrue(manager.names().isEmpty());
+                Assertions.assertEquals("test 1", manager.open(builder("first")).get(1, k -> "other").get());
+            }
+        }
+
+        @Test
+        void reopenAfterCacheClosed() {
+            try(var manager = new CaffeineCacheManager()) {
+                manager.open(builder("first")).close();
+                Assertions.assertTrue(manager.names().isEmpty());
+                Assertions.assertDoesNotThrow(() -> manager.open(builder("first")));
+            }
+        }
+
+        @Test
+        void closedManager() {
+            var manager = new CaffeineCacheManager();
+            manager.close();
+            Assertions.assertThrows(IllegalStateException.class, () -> manager.open(builder("first")));
+        }
+
+        @Test
+        void nullBuilder() {
+            try(var manager = new CaffeineCacheManager()) {
+                Assertions.assertThrows(IllegalArgumentException.class, () -> manager.open(null));
+            }
+        }
+    }
+
+    @Nested
+    class Close {
+
+        @Test
+        void allPersisted() {
+            var manager = new CaffeineCacheManager();
+            for(int i = 0; i < 5; i++) {
+                manager.open(builder("cache" + i)).put(i, "test " + i);
+            }
+            manager.close();
+            for(int i = 0; i < 5; i++) {
+                Assertions.assertTrue(Files.exists(DIRECTORY.resolve(DATA.replace("{NAME}", "cache" + i))));
+            }
+            try(var reopened = new CaffeineCacheManager()) {
+                Assertions.assertEquals("test 3", reopened.open(builder("cache3")).get(3, k -> "other").get());
+            }
+        }
+
+        @Test
+        void checkpoint() {
+            try(var manager = new CaffeineCacheManager()) {
+                manager.open(builder("first")).put(1, "test 1");
+                manager.open(builder("second")).put(2, "test 2");
+                manager.checkpoint();
+                Assertions.assertTrue(Files.exists(DIRECTORY.resolve(DATA.replace("{NAME}", "first"))));
+                Assertions.assertTrue(Files.exists(DIRECTORY.resolve(DATA.replace("{NAME}", "second"))));
+                Assertions.assertEquals(Set.of("first", "second"), manager.names());
+            }
+        }
+    }
+
+    @Nested
+    class Budget {
+
+        @Test
+        void splitEvenly() {
+            try(var manager = new CaffeineCacheManager(10_000, Duration.ofMinutes(1))) {
+                var first = manager.open(weightedBuilder("first"));
+                var second = manager.open(weightedBuilder("second"));
+                Assertions.assertEquals(5_000, first.maximum());
+                Assertions.assertEquals(5_000, second.maximum());
+            }
+        }
+
+        @Test
+        void splitByHits() {
+            try(var manager = new CaffeineCacheManager(10_000, Duration.ofMinutes(1))) {
+                var first = manager.open(weightedBuilder("first"));
+                var second = manager.open(weightedBuilder("second"));
+                first.put(1, "test 1");
+                for(int i = 0; i < 100; i++) {
+                    first.get(1, k -> "other");
+                }
+                manager.rebalance();
+                Assertions.assertTrue(first.maximum() > second.maximum());
+                Assertions.assertTrue(second.maximum() >= 2_500);
+                Assertions.assertTrue(first.maximum() + second.maximum() <= 10_000);
+            }
+        }
+
+        @Test
+        void closedCacheShareReleased() {
+            try(var manager = new CaffeineCacheManager(10_000, Duration.ofMinutes(1))) {
+                var first = manager.open(weightedBuilder("first"));
+                manager.open(weightedBuilder("second"));
+                Assertions.assertEquals(5_000, first.maximum());
+                manager.close("second");
+                Assertions.assertEquals(10_000, first.maximum());
+            }
+        }
+
+        @Test
+        void persistedContentFollowsShare() {
+            try(var manager = new CaffeineCacheManager(1_000_000, Duration.ofMinutes(1))) {
+                var cache = manager.open(weightedBuilder("first").maximumWeight(1_000, Weigher.estimate()));
+                Assertions.assertEquals(1_000_000, cache.maximum());
+                for(int i = 0; i < 200; i++) {
+                    cache.put(i, "test " + i);
+                }
+                manager.checkpoint();
+            }
+            try(var manager = new CaffeineCacheManager(1_000_000, Duration.ofMinutes(1))) {
+                var cache = manager.open(weightedBuilder("first"));
+                for(int i = 0; i < 200; i++) {
+                    Assertions.assertEquals("test " + i, cache.getIfPresent(i));
+                }
+            }
+        }
+
+        @Test
+        void sizeBoundedIgnored() {
+            try(var manager = new CaffeineCacheManager(10_000, Duration.ofMinutes(1))) {
+                var weighted = manager.open(weightedBuilder("first"));
+                var sized = manager.open(builder("second"));
+                Assertions.assertEquals(10_000, weighted.maximum());
+                Assertions.assertEquals(1000, sized.maximum());
+            }
+        }
+    }
+
+    private static CaffeineCacheBuilder<Integer, String> builder(String name) {
+        return CaffeineCacheBuilder.<Integer, String>newBuilder(name)
+                .maximumSize(1000)
+                .expireAfterWrite(Duration.of(2, ChronoUnit.DAYS))
+                .directory(DIRECTORY);
+    }
+
+    private static CaffeineCacheBuilder<Integer, String> weightedBuilder(String name) {
+        return CaffeineCacheBuilder.<Integer, String>newBuilder(name)
+                .maximumWeight(1_000_000, Weigher.estimate())
+                .expireAfterWrite(Duration.of(2, ChronoUnit.DAYS))
+                .directory(DIRECTORY);
+    }
+}
@@ -8,22 +8,49 @@ import org.junit.jupiter.api.Test;
 import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.time.Duration;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 import static be.yildizgames.module.caching.caffeine.CaffeineCache.DATA;
+import static be.yildizgames.module.caching.caffeine.CaffeineCache.INDEX;
+import static be.yildizgames.module.caching.caffeine.CaffeineCache.LOG;
 import static be.yildizgames.module.caching.caffeine.CaffeineCache.METADATA;
+import static be.yildizgames.module.caching.caffeine.CaffeineCache.PREVIOUS_DATA;
+import static be.yildizgames.module.caching.caffeine.CaffeineCache.STORE;
+import static be.yildizgames.module.caching.caffeine.CaffeineCache.TAGS;
 
 public class CaffeineCacheTest {
 
     @BeforeEach
     void clean() throws IOException {
         Files.deleteIfExists(Path.of(DATA.replace("{NAME}", "test")));
+        Files.deleteIfExists(Path.of(PREVIOUS_DATA.replace("{NAME}", "test")));
         Files.deleteIfExists(Path.of(METADATA.replace("{NAME}", "test")));
+        Files.deleteIfExists(Path.of(INDEX.replace("{NAME}", "test")));
+        Files.deleteIfExists(Path.of(STORE.replace("{NAME}", "test")));
+        Files.deleteIfExists(Path.of(INDEX.replace("{NAME}", "test") + ".lock"));
+        Files.deleteIfExists(Path.of(TAGS.replace("{NAME}", "test")));
+        try (var files = Files.list(Path.of(""))) {
+            for (var file : files.filter(f -> f.getFileName().toString().startsWith(LOG.replace("{NAME}", "test"))).toList()) {
+                Files.delete(file);
+            }
+        }
     }
 
     @Nested
@@ -255,99 +282,1136 @@ public class CaffeineCacheTest {
                 Assertions.assertEquals(1, provider.used);
             }
         }
+
+        @Test
+        void legacyFormatDiscarded() throws IOException {
+            var legacy = new HashMap<Integer, String>();
+            legacy.put(1, "legacy 1");
+            try (var output = new ObjectOutputStream(Files.newOutputStream(Path.of(DATA.replace("{NAME}", "test"))))) {
+                output.writeObject(legacy);
+            }
+            try (var output = new ObjectOutputStream(Files.newOutputStream(Path.of(METADATA.replace("{NAME}", "test"))))) {
+                output.writeObject("legacy metadata");
+            }
+            try(var cache = basicCache()) {
+                var provider = new DataProvider();
+                Assertions.assertEquals("test 1", cache.get(1, provider::getData).get());
+                Assertions.assertEquals(1, provider.used);
+            }
+            try(var cache = basicCache()) {
+                Assertions.assertEquals("test 1", cache.get(1, k -> "other").get());
+            }
+        }
     }
 
     @Nested
-    class Get {
+    class Log {
 
         @Test
-        void nullKey() {
-            try(var cache = basicCache()) {
+        void nullMode() {
+            Assertions.assertThrows(IllegalArgumentException.class, () -> CaffeineCacheBuilder.<Integer, String>newBuilder("test").maximumSize(5).expireAfterWrite(Duration.of(2, ChronoUnit.DAYS)).persistence(null).build());
+        }
+
+        @Test
+        void withCache() {
+            try(var cache = logCache()) {
                 var provider = new DataProvider();
-                Assertions.assertThrows(NullPointerException.class, () -> cache.get(null, provider::getData));
+                cache.get(1, provider::getData);
+                cache.put(2, "test 2");
+                Assertions.assertEquals(1, provider.used);
+            }
+            Assertions.assertTrue(Files.notExists(Path.of(DATA.replace("{NAME}", "test"))));
+            try(var cache = logCache()) {
+                var provider = new DataProvider();
+                Assertions.assertEquals("test 1", cache.get(1, provider::getData).get());
+                Assertions.assertEquals("test 2", cache.get(2, provider::getData).get());
+                Assertions.assertEquals(0, provider.used);
             }
         }
 
         @Test
-        void nullAddElement() {
-            try(var cache = basicCache()) {
-                Assertions.assertThrows(NullPointerException.class, () -> cache.get(1, null));
+        void notClosed() {
+            var cache = logCache();
+            cache.put(1, "test 1");
+            cache.put(1, "test 1 updated");
+            try(var reopened = logCache()) {
+                var provider = new DataProvider();
+                Assertions.assertEquals("test 1 updated", reopened.get(1, provider::getData).get());
+                Assertions.assertEquals(0, provider.used);
+            }
+            cache.close();
+        }
+
+        @Test
+        void evicted() {
+            try(var cache = CaffeineCacheBuilder.<Integer, String>newBuilder("test").maximumSize(1).expireAfterWrite(Duration.of(2, ChronoUnit.DAYS)).persistence(PersistenceMode.LOG).build()) {
+                for(int i = 0; i < 100; i++) {
+                    cache.put(i, "test " + i);
+                }
+            }
+            try(var cache = logCache()) {
+                var provider = new DataProvider();
+                for(int i = 0; i < 100; i++) {
+                    cache.get(i, provider::getData);
+                }
+                Assertions.assertTrue(provider.used >= 99);
+            }
+        }
+
+        @Test
+        void truncatedLog() throws IOException {
+            try(var cache = logCache()) {
+                cache.put(1, "test 1");
+                cache.put(2, "test 2");
+            }
+            try (var files = Files.list(Path.of(""))) {
+                var segment = files.filter(f -> f.getFileName().toString().startsWith(LOG.replace("{NAME}", "test"))).findFirst().orElseThrow();
+                try(var file = new RandomAccessFile(segment.toFile(), "rw")) {
+                    file.setLength(file.length() - 3);
+                }
+            }
+            try(var cache = logCache()) {
+                var provider = new DataProvider();
+                Assertions.assertEquals("test 1", cache.get(1, provider::getData).get());
+                Assertions.assertEquals(0, provider.used);
+                Assertions.assertEquals("test 2", cache.get(2, provider::getData).get());
+                Assertions.assertEquals(1, provider.used);
             }
         }
     }
 
     @Nested
-    class Put {
+    class Mapped {
 
         @Test
-        void addElement() {
-            try(var cache = basicCache()) {
+        void withCache() {
+            try(var cache = mappedCache(1000)) {
                 var provider = new DataProvider();
-                Assertions.assertEquals(0, provider.used);
+                cache.get(1, provider::getData);
                 cache.put(2, "test 2");
-                var result = cache.get(2, provider::getData);
-                Assertions.assertEquals("test 2", result.get());
+                Assertions.assertEquals(1, provider.used);
+            }
+            try(var cache = mappedCache(1000)) {
+                var provider = new DataProvider();
+                Assertions.assertEquals("test 1", cache.get(1, provider::getData).get());
+                Assertions.assertEquals("test 2", cache.get(2, provider::getData).get());
+                Assertions.assertEquals("test 3", cache.get(3, provider::getData).get());
+                Assertions.assertEquals(1, provider.used);
+            }
+        }
+
+        @Test
+        void manyEntriesAndUpdates() {
+            try(var cache = mappedCache(10)) {
+                for(int i = 0; i < 5000; i++) {
+                    cache.put(i, "test " + i);
+                }
+            }
+            for(int round = 0; round < 3; round++) {
+                try(var cache = mappedCache(10)) {
+                    for(int i = 0; i < 5000; i += 2) {
+                        cache.put(i, "updated " + i);
+                    }
+                }
+            }
+            try(var cache = mappedCache(10)) {
+                var provider = new DataProvider();
+                for(int i = 0; i < 5000; i++) {
+                    Assertions.assertEquals((i % 2 == 0 ? "updated " : "test ") + i, cache.get(i, provider::getData).get());
+                }
                 Assertions.assertEquals(0, provider.used);
             }
         }
 
         @Test
-        void nullKey() {
-            try(var cache = basicCache()) {
-                Assertions.assertThrows(NullPointerException.class, () -> cache.put(null, "test 2"));
+        void corruptedStore() throws IOException {
+            try(var cache = mappedCache(1000)) {
+                cache.put(1, "test 1");
+            }
+            Files.writeString(Path.of(INDEX.replace("{NAME}", "test")), "qwerty");
+            try(var cache = mappedCache(1000)) {
+                var provider = new DataProvider();
+                Assertions.assertEquals("test 1", cache.get(1, provider::getData).get());
+                Assertions.assertEquals(1, provider.used);
+            }
+        }
+    }
+
+    @Nested
+    class Shared {
+
+        @Test
+        void visibleToOtherInstance() {
+            try(var first = sharedCache(1000); var second = sharedCache(1000)) {
+                var provider = new DataProvider();
+                first.get(1, provider::getData);
+                first.put(2, "test 2");
+                Assertions.assertEquals("test 1", second.get(1, provider::getData).get());
+                Assertions.assertEquals("test 2", second.get(2, provider::getData).get());
+                Assertions.assertEquals(1, provider.used);
             }
         }
 
         @Test
-        void nullElement() {
-            try(var cache = basicCache()) {
-                Assertions.assertThrows(NullPointerException.class, () -> cache.put(2, null));
+        void indexGrownByOtherInstance() {
+            try(var first = sharedCache(10); var second = sharedCache(10)) {
+                Assertions.assertNull(second.get(1, k -> null).orElse(null));
+                for(int i = 0; i < 5000; i++) {
+                    first.put(i, "test " + i);
+                }
+                var provider = new DataProvider();
+                for(int i = 0; i < 5000; i++) {
+                    Assertions.assertEquals("test " + i, second.get(i, provider::getData).get());
+                }
+                Assertions.assertEquals(0, provider.used);
+                second.put(5000, "test 5000");
+                Assertions.assertEquals("test 5000", first.get(5000, provider::getData).get());
+                Assertions.assertEquals(0, provider.used);
+            }
+        }
+
+        @Test
+        void persisted() {
+            try(var cache = sharedCache(1000)) {
+                cache.put(1, "test 1");
+            }
+            try(var cache = sharedCache(1000)) {
+                var provider = new DataProvider();
+                Assertions.assertEquals("test 1", cache.get(1, provider::getData).get());
+                Assertions.assertEquals(0, provider.used);
             }
         }
     }
 
-    private static CaffeineCache<Integer, String> basicCache() {
-        return new CaffeineCache<>("test", 1000, Duration.of(2, ChronoUnit.DAYS));
+    @Nested
+    class Hottest {
+
+        @Test
+        void onlyHottestPersisted() {
+            try(var cache = hottestCache(100).maximumPersisted(10).build()) {
+                fillWithHotKeys(cache);
+            }
+            try(var cache = hottestCache(100).build()) {
+                var provider = new DataProvider();
+                for(int i = 0; i < 10; i++) {
+                    Assertions.assertEquals("test " + i, cache.get(i, provider::getData).get());
+                }
+                Assertions.assertEquals(0, provider.used);
+                cache.get(50, provider::getData);
+                Assertions.assertEquals(1, provider.used);
+            }
+        }
+
+        @Test
+        void smallerCacheKeepsHottest() {
+            try(var cache = hottestCache(100).build()) {
+                fillWithHotKeys(cache);
+            }
+            try(var cache = hottestCache(10).build()) {
+                cache.cleanUp();
+                var provider = new DataProvider();
+                for(int i = 0; i < 10; i++) {
+                    Assertions.assertEquals("test " + i, cache.get(i, provider::getData).get());
+                }
+                Assertions.assertEquals(0, provider.used);
+            }
+        }
+
+        @Test
+        void invalidMaximum() {
+            Assertions.assertThrows(IllegalArgumentException.class, () -> hottestCache(100).maximumPersisted(0));
+        }
+
+        private void fillWithHotKeys(CaffeineCache<Integer, String> cache) {
+            for(int i = 0; i < 100; i++) {
+                cache.put(i, "test " + i);
+            }
+            for(int round = 0; round < 5; round++) {
+                for(int i = 0; i < 10; i++) {
+                    cache.get(i, k -> "other");
+                }
+            }
+            cache.cleanUp();
+        }
+
+        private CaffeineCacheBuilder<Integer, String> hottestCache(long maxItem) {
+            return CaffeineCacheBuilder.<Integer, String>newBuilder("test")
+                    .maximumSize(maxItem)
+                    .expireAfterWrite(Duration.of(2, ChronoUnit.DAYS))
+                    .executor(Runnable::run);
+        }
     }
 
-    public static class DataProvider {
+    @Nested
+    class Checkpoint {
 
-        private int used = 0;
+        @Test
+        void nullCheckpoint() {
+            Assertions.assertThrows(IllegalArgumentException.class, () -> CaffeineCacheBuilder.<Integer, String>newBuilder("test").maximumSize(5).expireAfterWrite(Duration.of(2, ChronoUnit.DAYS)).checkpoint(null).persistence(PersistenceMode.SNAPSHOT).serializer(Serializer.java()).build());
+        }
 
-        public String getData(int key) {
-            this.used++;
-            return "test " + key;
+        @Test
+        void zeroCheckpoint() {
+            Assertions.assertThrows(IllegalArgumentException.class, () -> CaffeineCacheBuilder.<Integer, String>newBuilder("test").maximumSize(5).expireAfterWrite(Duration.of(2, ChronoUnit.DAYS)).checkpoint(Duration.ZERO).persistence(PersistenceMode.SNAPSHOT).serializer(Serializer.java()).build());
+        }
+
+        @Test
+        void persistedWhileRunning() {
+            try(var cache = basicCache()) {
+                cache.put(1, "test 1");
+                cache.checkpoint();
+                try(var reopened = basicCache()) {
+                    var provider = new DataProvider();
+                    Assertions.assertEquals("test 1", reopened.get(1, provider::getData).get());
+                    Assertions.assertEquals(0, provider.used);
+                }
+            }
+        }
+
+        @Test
+        void scheduled() throws InterruptedException {
+            var file = Path.of(DATA.replace("{NAME}", "test"));
+            try(var cache = CaffeineCacheBuilder.<Integer, String>newBuilder("test").maximumSize(1000).expireAfterWrite(Duration.of(2, ChronoUnit.DAYS)).checkpoint(Duration.ofMillis(10)).persistence(PersistenceMode.SNAPSHOT).serializer(Serializer.java()).build()) {
+                cache.put(1, "test 1");
+                for(int i = 0; i < 500 && Files.notExists(file); i++) {
+                    Thread.sleep(10);
+                }
+                Assertions.assertTrue(Files.exists(file));
+            }
+        }
+
+        @Test
+        void truncatedUsesPrevious() throws IOException {
+            try(var cache = basicCache()) {
+                cache.put(1, "test 1");
+            }
+            try(var cache = basicCache()) {
+                cache.put(2, "test 2");
+            }
+            var file = Path.of(DATA.replace("{NAME}", "test"));
+            try(var channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.truncate(channel.size() - 1);
+            }
+            try(var cache = basicCache()) {
+                var provider = new DataProvider();
+                Assertions.assertEquals("test 1", cache.get(1, provider::getData).get());
+                Assertions.assertEquals(0, provider.used);
+                Assertions.assertEquals("test 2", cache.get(2, provider::getData).get());
+                Assertions.assertEquals(1, provider.used);
+            }
+        }
+
+        @Test
+        void damagedUsesPreviousOnly() throws IOException {
+            try(var cache = basicCache()) {
+                cache.put(1, "test 1");
+            }
+            try(var cache = basicCache()) {
+                cache.put(1, "new 1");
+            }
+            var file = Path.of(DATA.replace("{NAME}", "test"));
+            try(var channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                var last = ByteBuffer.allocate(1);
+                channel.read(last, channel.size() - 1);
+                last.put(0, (byte) ~last.get(0)).rewind();
+                channel.write(last, channel.size() - 1);
+            }
+            try(var cache = basicCache()) {
+                var provider = new DataProvider();
+                Assertions.assertEquals("test 1", cache.get(1, provider::getData).get());
+                Assertions.assertEquals(0, provider.used);
+            }
         }
 
+        @Test
+        void checkpointAfterClose() {
+            var cache = basicCache();
+            cache.put(1, "test 1");
+            cache.close();
+            Assertions.assertDoesNotThrow(cache::checkpoint);
+        }
     }
 
-    public static class WrongKeyTypeDataProvider {
+    @Nested
+    class Weight {
 
-        private int used = 0;
+        @Test
+        void nullWeigher() {
+            Assertions.assertThrows(IllegalArgumentException.class, () -> CaffeineCacheBuilder.<Integer, String>newBuilder("test").maximumWeight(1000, (Weigher<Integer, String>) null).expireAfterWrite(Duration.of(2, ChronoUnit.DAYS)).persistence(PersistenceMode.SNAPSHOT).serializer(Serializer.java()).build());
+        }
 
-        public String getData(Date date) {
-            this.used++;
-            return date.toString();
+        @Test
+        void zeroBudget() {
+            Assertions.assertThrows(IllegalArgumentException.class, () -> CaffeineCacheBuilder.<Integer, String>newBuilder("test").maximumWeight(0, Weigher.estimate()).expireAfterWrite(Duration.of(2, ChronoUnit.DAYS)).persistence(PersistenceMode.SNAPSHOT).serializer(Serializer.java()).build());
+        }
+
+        @Test
+        void boundedByBudget() {
+            try(var cache = weightedCache(100_000)) {
+                for(int i = 0; i < 1000; i++) {
+                    cache.put(i, "a".repeat(1000));
+                }
+                cache.cleanUp();
+                var provider = new DataProvider();
+                for(int i = 0; i < 1000; i++) {
+                    cache.get(i, provider::getData);
+                }
+                Assertions.assertTrue(provider.used >= 900);
+            }
+        }
+
+        @Test
+        void persistedBoundedByBudget() throws IOException {
+            try(var cache = CaffeineCacheBuilder.<Integer, String>newBuilder("test").maximumWeight(100_000, (k, v) -> 100).expireAfterWrite(Duration.of(2, ChronoUnit.DAYS)).persistence(PersistenceMode.SNAPSHOT).serializer(Serializer.java()).build()) {
+                for(int i = 0; i < 1000; i++) {
+                    cache.put(i, "a".repeat(1000));
+                }
+            }
+            Assertions.assertTrue(Files.size(Path.of(DATA.replace("{NAME}", "test"))) < 110_000);
+        }
+
+        @Test
+        void estimate() {
+            Assertions.assertEquals(16 + 100, Weigher.sizeOf(new byte[100]));
+            Assertions.assertEquals(16 + 800, Weigher.sizeOf(new long[100]));
+            Assertions.assertEquals(40 + 100, Weigher.sizeOf("a".repeat(100)));
+            Assertions.assertEquals(40 + 200, Weigher.sizeOf("\u0100".repeat(100)));
+            Assertions.assertEquals(24, Weigher.sizeOf(1L));
+            Assertions.assertEquals(Weigher.UNKNOWN_SIZE, Weigher.sizeOf(new Object()));
+            Assertions.assertEquals(Weigher.ENTRY_OVERHEAD + 20 + 16 + 100, Weigher.<Integer, byte[]>estimate().weigh(1, new byte[100]));
         }
     }
 
-    public static class WrongDataTypeDataProvider {
+    @Nested
+    class Expiration {
 
-        private int used = 0;
+        @Test
+        void remainingTimeKeptSnapshot() throws InterruptedException {
+            assertRemainingTimeKept(PersistenceMode.SNAPSHOT);
+        }
 
-        public Date getData(long key) {
-            this.used++;
-            return new Date(key);
+        @Test
+        void remainingTimeKeptLog() throws InterruptedException {
+            assertRemainingTimeKept(PersistenceMode.LOG);
+        }
+
+        @Test
+        void remainingTimeKeptMapped() throws InterruptedException {
+            assertRemainingTimeKept(PersistenceMode.MAPPED);
+        }
+
+        @Test
+        void expiredNotRestored() throws InterruptedException {
+            try(var cache = new CaffeineCache<Integer, String>("test", 1000, Duration.of(500, ChronoUnit.MILLIS))) {
+                cache.put(1, "test 1");
+            }
+            Thread.sleep(600);
+            try(var cache = new CaffeineCache<Integer, String>("test", 1000, Duration.of(2, ChronoUnit.DAYS))) {
+                var provider = new DataProvider();
+                Assertions.assertEquals("test 1", cache.get(1, provider::getData).get());
+                Assertions.assertEquals(1, provider.used);
+            }
+        }
+
+        private void assertRemainingTimeKept(PersistenceMode mode) throws InterruptedException {
+            try(var cache = CaffeineCacheBuilder.<Integer, String>newBuilder("test").maximumSize(1000).expireAfterWrite(Duration.of(1500, ChronoUnit.MILLIS)).persistence(mode).build()) {
+                cache.put(1, "test 1");
+                Thread.sleep(1000);
+            }
+            try(var cache = CaffeineCacheBuilder.<Integer, String>newBuilder("test").maximumSize(1000).expireAfterWrite(Duration.of(1500, ChronoUnit.MILLIS)).persistence(mode).build()) {
+                var provider = new DataProvider();
+                cache.get(1, provider::getData);
+                Assertions.assertEquals(0, provider.used);
+                Thread.sleep(700);
+                cache.get(1, provider::getData);
+                Assertions.assertEquals(1, provider.used);
+            }
         }
     }
 
-    public static class NotSerializableTypeDataProvider {
+    @Nested
+    class Refresh {
 
-        private int used = 0;
+        @Test
+        void nullRefresh() {
+            Assertions.assertThrows(IllegalArgumentException.class, () -> CaffeineCacheBuilder.<Integer, String>newBuilder("test").maximumSize(5).expireAfterWrite(Duration.of(2, ChronoUnit.DAYS)).persistence(PersistenceMode.SNAPSHOT).serializer(Serializer.java()).refreshAfterWrite(null, k -> "test").build());
+        }
 
-        public NotSerializableType getData(int key) {
-            this.used++;
-            return new NotSerializableType("tt", 2);
+        @Test
+        void refreshLongerThanDuration() {
+            Assertions.assertThrows(IllegalArgumentException.class, () -> CaffeineCacheBuilder.<Integer, String>newBuilder("test").maximumSize(5).expireAfterWrite(Duration.of(2, ChronoUnit.SECONDS)).persistence(PersistenceMode.SNAPSHOT).serializer(Serializer.java()).refreshAfterWrite(Duration.of(2, ChronoUnit.SECONDS), k -> "test").build());
+        }
+
+        @Test
+        void nullLoader() {
+            Assertions.assertThrows(IllegalArgumentException.class, () -> CaffeineCacheBuilder.<Integer, String>newBuilder("test").maximumSize(5).expireAfterWrite(Duration.of(2, ChronoUnit.DAYS)).persistence(PersistenceMode.SNAPSHOT).serializer(Serializer.java()).refreshAfterWrite(Duration.of(1, ChronoUnit.SECONDS), null).build());
+        }
+
+        @Test
+        void noLoader() {
+            try(var cache = basicCache()) {
+                Assertions.assertThrows(IllegalStateException.class, () -> cache.get(1));
+            }
+        }
+
+        @Test
+        void staleValueServedWhileReloading() throws InterruptedException {
+            var used = new AtomicInteger();
+            var release = new CountDownLatch(1);
+            Function<Integer, String> loader = k -> {
+                if(used.get() > 0) {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return "test " + used.incrementAndGet();
+            };
+            try(var cache = CaffeineCacheBuilder.<Integer, String>newBuilder("test").maximumSize(1000).expireAfterWrite(Duration.of(2, ChronoUnit.DAYS)).persistence(PersistenceMode.SNAPSHOT).serializer(Serializer.java()).refreshAfterWrite(Duration.of(200, ChronoUnit.MILLIS), loader).build()) {
+                Assertions.assertEquals("test 1", cache.get(1).get());
+                Thread.sleep(300);
+                Assertions.assertEquals("test 1", cache.get(1).get());
+                release.countDown();
+                var value = cache.get(1).get();
+                for(int i = 0; i < 100 && value.equals("test 1"); i++) {
+                    Thread.sleep(10);
+                    value = cache.get(1).get();
+                }
+                Assertions.assertEquals("test 2", value);
+                Assertions.assertEquals(2, used.get());
+            }
+        }
+    }
+
+    @Nested
+    class Statistics {
+
+        @Test
+        void hitsAndMisses() {
+            try(var cache = basicCache()) {
+                var provider = new DataProvider();
+                cache.get(1, provider::getData);
+                cache.get(1, provider::getData);
+                cache.get(2, provider::getData);
+                var statistics = cache.statistics();
+                Assertions.assertEquals(1, statistics.hitCount());
+                Assertions.assertEquals(2, statistics.missCount());
+                Assertions.assertEquals(2, statistics.loadSuccessCount());
+                Assertions.assertEquals(1.0 / 3, statistics.hitRate(), 0.0001);
+                Assertions.assertTrue(statistics.loadTimeP50() > 0);
+                Assertions.assertTrue(statistics.loadTimeP99() >= statistics.loadTimeP50());
+            }
+        }
+
+        @Test
+        void evictions() {
+            try(var cache = new CaffeineCache<Integer, String>("test", 1, Duration.of(2, ChronoUnit.DAYS))) {
+                cache.put(1, "test 1");
+                cache.put(2, "test 2");
+                cache.cleanUp();
+                Assertions.assertEquals(1, cache.statistics().evictionSizeCount());
+                Assertions.assertEquals(0, cache.statistics().evictionExpiredCount());
+            }
+        }
+
+        @Test
+        void persistence() {
+            try(var cache = basicCache()) {
+                cache.put(1, "test 1");
+                Assertions.assertEquals(0, cache.statistics().persistenceLoadBytes());
+            }
+            try(var cache = basicCache()) {
+                Assertions.assertTrue(cache.statistics().persistenceLoadBytes() > 0);
+                Assertions.assertTrue(cache.statistics().persistenceLoadTime() > 0);
+            }
+        }
+
+        @Test
+        void percentiles() {
+            Assertions.assertEquals(0, StatisticsCounter.bucket(0));
+            Assertions.assertEquals(7, StatisticsCounter.upperBound(StatisticsCounter.bucket(7)));
+            Assertions.assertEquals(8, StatisticsCounter.upperBound(StatisticsCounter.bucket(8)));
+            for(long value = 9; value < Long.MAX_VALUE / 3; value = value * 3 + 1) {
+                var bound = StatisticsCounter.upperBound(StatisticsCounter.bucket(value));
+                Assertions.assertTrue(bound >= value && bound <= value * 1.125, "value " + value);
+            }
+            Assertions.assertEquals(Long.MAX_VALUE, StatisticsCounter.upperBound(StatisticsCounter.bucket(Long.MAX_VALUE)));
+        }
+    }
+
+    @Nested
+    class Overflow {
+
+        @Test
+        void nullOverflow() {
+            Assertions.assertThrows(IllegalArgumentException.class, () -> CaffeineCacheBuilder.<Integer, String>newBuilder("test").maximumSize(5).expireAfterWrite(Duration.of(2, ChronoUnit.DAYS)).persistence(PersistenceMode.SNAPSHOT).serializer(Serializer.java()).overflow(null).build());
+        }
+
+        @Test
+        void offHeap() {
+            var overflow = OverflowStore.offHeap(Serializer.of(Codec.INTEGER, Codec.STRING), 1024 * 1024);
+            try(var cache = CaffeineCacheBuilder.<Integer, String>newBuilder("test").maximumSize(10).expireAfterWrite(Duration.of(2, ChronoUnit.DAYS)).persistence(PersistenceMode.SNAPSHOT).serializer(Serializer.java()).overflow(overflow).build()) {
+                assertOverflowUsed(cache);
+            }
+        }
+
+        @Test
+        void offHeapBudgetExceeded() {
+            var overflow = OverflowStore.offHeap(Serializer.of(Codec.INTEGER, Codec.STRING), 1);
+            try(var cache = CaffeineCacheBuilder.<Integer, String>newBuilder("test").maximumSize(10).expireAfterWrite(Duration.of(2, ChronoUnit.DAYS)).persistence(PersistenceMode.SNAPSHOT).serializer(Serializer.java()).overflow(overflow).build()) {
+                var value = "x".repeat(10_000);
+                for(int i = 0; i < 100; i++) {
+                    cache.put(i, value);
+                }
+                cache.cleanUp();
+                var provider = new DataProvider();
+                for(int i = 0; i < 100; i++) {
+                    cache.get(i, provider::getData);
+                }
+                Assertions.assertTrue(provider.used > 0);
+                Assertions.assertTrue(provider.used < 100);
+            }
+        }
+
+        @Test
+        void file() throws IOException {
+            var overflow = OverflowStore.file(Path.of(INDEX.replace("{NAME}", "test")), Path.of(STORE.replace("{NAME}", "test")), Serializer.of(Codec.INTEGER, Codec.STRING));
+            try(var cache = CaffeineCacheBuilder.<Integer, String>newBuilder("test").maximumSize(10).expireAfterWrite(Duration.of(2, ChronoUnit.DAYS)).persistence(PersistenceMode.SNAPSHOT).serializer(Serializer.java()).overflow(overflow).build()) {
+                assertOverflowUsed(cache);
+            }
+        }
+
+        @Test
+        void noStaleValue() {
+            var overflow = OverflowStore.offHeap(Serializer.of(Codec.INTEGER, Codec.STRING), 1024 * 1024);
+            try(var cache = CaffeineCacheBuilder.<Integer, String>newBuilder("test").maximumSize(1).expireAfterWrite(Duration.of(2, ChronoUnit.DAYS)).persistence(PersistenceMode.SNAPSHOT).serializer(Serializer.java()).overflow(overflow).build()) {
+                cache.put(1, "old");
+                cache.put(2, "test 2");
+                cache.put(3, "test 3");
+                cache.cleanUp();
+                cache.put(1, "new");
+                cache.put(2, "test 2");
+                cache.put(3, "test 3");
+                cache.cleanUp();
+                Assertions.assertEquals("new", cache.get(1, k -> "provided").get());
+            }
+        }
+
+        private void assertOverflowUsed(CaffeineCache<Integer, String> cache) {
+            for(int i = 0; i < 100; i++) {
+                cache.put(i, "test " + i);
+            }
+            cache.cleanUp();
+            var provider = new DataProvider();
+            for(int i = 0; i < 100; i++) {
+                Assertions.assertEquals("test " + i, cache.get(i, provider::getData).get());
+            }
+            Assertions.assertEquals(0, provider.used);
+        }
+    }
+
+    @Nested
+    class Serialization {
+
+        @Test
+        void nullSerializer() {
+            Assertions.assertThrows(IllegalArgumentException.class, () -> CaffeineCacheBuilder.<Integer, String>newBuilder("test").maximumSize(5).expireAfterWrite(Duration.of(2, ChronoUnit.DAYS)).persistence(PersistenceMode.SNAPSHOT).serializer(null).build());
+        }
+
+        @Test
+        void notSerializableTypeWithCodec() {
+            var serializer = Serializer.of(Codec.INTEGER, new NotSerializableTypeCodec());
+            for (var mode : PersistenceMode.values()) {
+                try (var cache = CaffeineCacheBuilder.<Integer, NotSerializableType>newBuilder("test").maximumSize(1000).expireAfterWrite(Duration.of(2, ChronoUnit.DAYS)).persistence(mode).serializer(serializer).build()) {
+                    var provider = new NotSerializableTypeDataProvider();
+                    cache.get(1, provider::getData);
+                    Assertions.assertEquals(1, provider.used);
+                }
+                try (var cache = CaffeineCacheBuilder.<Integer, NotSerializableType>newBuilder("test").maximumSize(1000).expireAfterWrite(Duration.of(2, ChronoUnit.DAYS)).persistence(mode).serializer(serializer).build()) {
+                    var provider = new NotSerializableTypeDataProvider();
+                    var result = cache.get(1, provider::getData).get();
+                    Assertions.assertEquals(0, provider.used);
+                    Assertions.assertEquals("tt", result.data1);
+                    Assertions.assertEquals(2, result.data2);
+                }
+            }
+        }
+
+        @Test
+        void builtInCodecs() {
+            var big = "é".repeat(100_000);
+            var serializer = Serializer.of(Codec.STRING, Codec.BYTES);
+            try (var cache = CaffeineCacheBuilder.<String, byte[]>newBuilder("test").maximumSize(1000).expireAfterWrite(Duration.of(2, ChronoUnit.DAYS)).persistence(PersistenceMode.SNAPSHOT).serializer(serializer).build()) {
+                cache.put("ascii", new byte[]{1, 2, 3});
+                cache.put(big, new byte[200_000]);
+            }
+            try (var cache = CaffeineCacheBuilder.<String, byte[]>newBuilder("test").maximumSize(1000).expireAfterWrite(Duration.of(2, ChronoUnit.DAYS)).persistence(PersistenceMode.SNAPSHOT).serializer(serializer).build()) {
+                Assertions.assertArrayEquals(new byte[]{1, 2, 3}, cache.get("ascii", k -> new byte[0]).get());
+                Assertions.assertEquals(200_000, cache.get(big, k -> new byte[0]).get().length);
+            }
+        }
+    }
+
+    @Nested
+    class Get {
+
+        @Test
+        void nullKey() {
+            try(var cache = basicCache()) {
+                var provider = new DataProvider();
+                Assertions.assertThrows(NullPointerException.class, () -> cache.get(null, provider::getData));
+            }
+        }
+
+        @Test
+        void nullAddElement() {
+            try(var cache = basicCache()) {
+                Assertions.assertThrows(NullPointerException.class, () -> cache.get(1, null));
+            }
+        }
+    }
+
+    @Nested
+    class GetAll {
+
+        @Test
+        void missesLoadedInOneCall() {
+            try(var cache = basicCache()) {
+                cache.put(1, "test 1");
+                var calls = new ArrayList<Set<? extends Integer>>();
+                var result = cache.getAll(List.of(1, 2, 3), keys -> {
+                    calls.add(Set.copyOf(keys));
+                    var values = new HashMap<Integer, String>();
+                    keys.forEach(k -> values.put(k, "test " + k));
+                    return values;
+                });
+                Assertions.assertEquals(Map.of(1, "test 1", 2, "test 2", 3, "test 3"), result);
+                Assertions.assertEquals(List.of(Set.of(2, 3)), calls);
+                Assertions.assertEquals("test 2", cache.get(2, new DataProvider()::getData).get());
+            }
+        }
+
+        @Test
+        void missingValue() {
+            try(var cache = basicCache()) {
+                var result = cache.getAll(List.of(1, 2), keys -> Map.of(1, "test 1"));
+                Assertions.assertEquals(Map.of(1, "test 1"), result);
+            }
+        }
+
+        @Test
+        void persisted() {
+            try(var cache = logCache()) {
+                cache.getAll(List.of(1, 2), keys -> Map.of(1, "test 1", 2, "test 2"));
+            }
+            try(var cache = logCache()) {
+                Assertions.assertEquals(Map.of(1, "test 1", 2, "test 2"), cache.getAll(List.of(1, 2), keys -> Map.of()));
+            }
+        }
+
+        @Test
+        void nullKeys() {
+            try(var cache = basicCache()) {
+                Assertions.assertThrows(NullPointerException.class, () -> cache.getAll(null, keys -> Map.of()));
+            }
+        }
+
+        @Test
+        void nullAddElements() {
+            try(var cache = basicCache()) {
+                Assertions.assertThrows(NullPointerException.class, () -> cache.getAll(List.of(1), null));
+            }
+        }
+    }
+
+    @Nested
+    class VirtualThreadLoads {
+
+        @Test
+        void concurrentLoadsBounded() throws InterruptedException {
+            try(var cache = virtualThreadCache(2)) {
+                var running = new AtomicInteger();
+                var maxRunning = new AtomicInteger();
+                var threads = new ArrayList<Thread>();
+                for(int i = 0; i < 20; i++) {
+                    var key = i;
+                    threads.add(Thread.ofVirtual().start(() -> cache.get(key, k -> {
+                        maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                        try {
+                            Thread.sleep(10);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        running.decrementAndGet();
+                        return "test " + k;
+                    })));
+                }
+                for(var thread : threads) {
+                    thread.join();
+                }
+                Assertions.assertTrue(maxRunning.get() <= 2);
+                for(int i = 0; i < 20; i++) {
+                    Assertions.assertEquals("test " + i, cache.get(i, k -> "other").get());
+                }
+            }
+        }
+
+        @Test
+        void oneLoadPerKey() throws InterruptedException {
+            try(var cache = virtualThreadCache(10)) {
+                var calls = new AtomicInteger();
+                var release = new CountDownLatch(1);
+                var threads = new ArrayList<Thread>();
+                for(int i = 0; i < 10; i++) {
+                    threads.add(Thread.ofVirtual().start(() -> cache.get(1, k -> {
+                        calls.incrementAndGet();
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        return "test " + k;
+                    })));
+                }
+                release.countDown();
+                for(var thread : threads) {
+                    thread.join();
+                }
+                Assertions.assertEquals(1, calls.get());
+                Assertions.assertEquals("test 1", cache.get(1, k -> "other").get());
+            }
+        }
+
+        @Test
+        void providerExceptionRethrown() {
+            try(var cache = virtualThreadCache(2)) {
+                Assertions.assertThrows(IllegalStateException.class, () -> cache.get(1, k -> {
+                    throw new IllegalStateException("provider failed");
+                }));
+                Assertions.assertEquals("test 1", cache.get(1, k -> "test 1").get());
+            }
+        }
+
+        @Test
+        void nullValueNotStored() {
+            try(var cache = virtualThreadCache(2)) {
+                Assertions.assertTrue(cache.get(1, k -> null).isEmpty());
+                Assertions.assertEquals("test 1", cache.get(1, k -> "test 1").get());
+            }
+        }
+
+        @Test
+        void getAll() {
+            try(var cache = virtualThreadCache(2)) {
+                cache.put(1, "test 1");
+                var result = cache.getAll(List.of(1, 2), keys -> Map.of(2, "test 2"));
+                Assertions.assertEquals(Map.of(1, "test 1", 2, "test 2"), result);
+            }
+        }
+
+        @Test
+        void persisted() {
+            try(var cache = virtualThreadCache(2)) {
+                cache.get(1, k -> "test 1");
+            }
+            try(var cache = virtualThreadCache(2)) {
+                Assertions.assertEquals("test 1", cache.get(1, k -> "other").get());
+            }
+        }
+    }
+
+    @Nested
+    class Put {
+
+        @Test
+        void addElement() {
+            try(var cache = basicCache()) {
+                var provider = new DataProvider();
+                Assertions.assertEquals(0, provider.used);
+                cache.put(2, "test 2");
+                var result = cache.get(2, provider::getData);
+                Assertions.assertEquals("test 2", result.get());
+                Assertions.assertEquals(0, provider.used);
+            }
+        }
+
+        @Test
+        void nullKey() {
+            try(var cache = basicCache()) {
+                Assertions.assertThrows(NullPointerException.class, () -> cache.put(null, "test 2"));
+            }
+        }
+
+        @Test
+        void nullElement() {
+            try(var cache = basicCache()) {
+                Assertions.assertThrows(NullPointerException.class, () -> cache.put(2, null));
+            }
+        }
+    }
+
+    @Nested
+    class Invalidate {
+
+        @Test
+        void happyFlow() {
+            try(var cache = basicCache()) {
+                var provider = new DataProvider();
+                cache.put(1, "test 1");
+                cache.invalidate(1);
+                Assertions.assertEquals("test 1", cache.get(1, provider::getData).get());
+                Assertions.assertEquals(1, provider.used);
+            }
+        }
+
+        @Test
+        void nullKey() {
+            try(var cache = basicCache()) {
+                Assertions.assertThrows(NullPointerException.class, () -> cache.invalidate(null));
+            }
+        }
+
+        @Test
+        void snapshot() {
+            try(var cache = basicCache()) {
+                cache.put(1, "test 1");
+                cache.put(2, "test 2");
+                cache.invalidate(1);
+            }
+            try(var cache = basicCache()) {
+                Assertions.assertEquals("other", cache.get(1, k -> "other").get());
+                Assertions.assertEquals("test 2", cache.get(2, k -> "other").get());
+            }
+        }
+
+        @Test
+        void log() {
+            var cache = logCache();
+            cache.put(1, "test 1");
+            cache.put(2, "test 2");
+            cache.invalidate(1);
+            try(var reopened = logCache()) {
+                Assertions.assertEquals("other", reopened.get(1, k -> "other").get());
+                Assertions.assertEquals("test 2", reopened.get(2, k -> "other").get());
+            }
+            cache.close();
+        }
+
+        @Test
+        void mapped() {
+            try(var cache = mappedCache(1000)) {
+                cache.put(1, "test 1");
+                cache.put(2, "test 2");
+            }
+            try(var cache = mappedCache(1000)) {
+                cache.invalidate(1);
+            }
+            try(var cache = mappedCache(1000)) {
+                Assertions.assertEquals("other", cache.get(1, k -> "other").get());
+                Assertions.assertEquals("test 2", cache.get(2, k -> "other").get());
+            }
+        }
+
+        @Test
+        void overflow() {
+            var serializer = Serializer.of(Codec.INTEGER, Codec.STRING);
+            try(var cache = CaffeineCacheBuilder.<Integer, String>newBuilder("test").maximumSize(1).expireAfterWrite(Duration.of(2, ChronoUnit.DAYS)).persistence(PersistenceMode.NONE).serializer(serializer).overflow(OverflowStore.offHeap(serializer, 1 << 20)).build()) {
+                cache.put(1, "test 1");
+                cache.put(2, "test 2");
+                cache.cleanUp();
+                cache.invalidate(1);
+                cache.invalidate(2);
+                Assertions.assertEquals("other", cache.get(1, k -> "other").get());
+                Assertions.assertEquals("other", cache.get(2, k -> "other").get());
+            }
+        }
+
+        @Test
+        void all() {
+            try(var cache = mappedCache(10)) {
+                for(int i = 0; i < 100; i++) {
+                    cache.put(i, "test " + i);
+                }
+                cache.invalidateAll();
+                Assertions.assertEquals("other", cache.get(5, k -> "other").get());
+            }
+            try(var cache = mappedCache(10)) {
+                var provider = new DataProvider();
+                for(int i = 0; i < 100; i++) {
+                    cache.get(i, provider::getData);
+                }
+                Assertions.assertEquals(99, provider.used);
+            }
+        }
+    }
+
+    @Nested
+    class Tags {
+
+        @Test
+        void put() {
+            try(var cache = basicCache()) {
+                cache.put(1, "test 1", "odd");
+                cache.put(2, "test 2", "even");
+                cache.put(3, "test 3", "odd", "three");
+                cache.invalidateTag("odd");
+                Assertions.assertEquals("other", cache.get(1, k -> "other").get());
+                Assertions.assertEquals("test 2", cache.get(2, k -> "other").get());
+                Assertions.assertEquals("other", cache.get(3, k -> "other").get());
+            }
+        }
+
+        @Test
+        void get() {
+            try(var cache = basicCache()) {
+                var provider = new DataProvider();
+                cache.get(1, provider::getData, "group");
+                cache.put(2, "test 2");
+                cache.get(2, provider::getData, "group");
+                cache.invalidateTag("group");
+                cache.get(1, provider::getData);
+                cache.get(2, provider::getData);
+                Assertions.assertEquals(3, provider.used);
+            }
+        }
+
+        @Test
+        void otherTagsRemoved() {
+            try(var cache = basicCache()) {
+                cache.put(1, "test 1", "a", "b");
+                cache.invalidateTag("a");
+                cache.put(1, "test 1 updated");
+                cache.invalidateTag("b");
+                Assertions.assertEquals("test 1 updated", cache.get(1, k -> "other").get());
+            }
+        }
+
+        @Test
+        void unknownTag() {
+            try(var cache = basicCache()) {
+                cache.put(1, "test 1", "a");
+                cache.invalidateTag("b");
+                Assertions.assertEquals("test 1", cache.get(1, k -> "other").get());
+            }
+        }
+
+        @Test
+        void persisted() {
+            try(var cache = basicCache()) {
+                cache.put(1, "test 1", "odd");
+                cache.put(2, "test 2", "even");
+            }
+            Assertions.assertTrue(Files.exists(Path.of(TAGS.replace("{NAME}", "test"))));
+            try(var cache = basicCache()) {
+                cache.invalidateTag("odd");
+                Assertions.assertEquals("other", cache.get(1, k -> "other").get());
+                Assertions.assertEquals("test 2", cache.get(2, k -> "other").get());
+            }
+            try(var cache = basicCache()) {
+                Assertions.assertEquals("other", cache.get(1, k -> "other").get());
+                Assertions.assertEquals("test 2", cache.get(2, k -> "other").get());
+            }
+        }
+
+        @Test
+        void noTagNoFile() {
+            try(var cache = basicCache()) {
+                cache.put(1, "test 1", "a");
+                cache.invalidateTag("a");
+            }
+            Assertions.assertTrue(Files.notExists(Path.of(TAGS.replace("{NAME}", "test"))));
+        }
+
+        @Test
+        void nullTag() {
+            try(var cache = basicCache()) {
+                Assertions.assertThrows(NullPointerException.class, () -> cache.invalidateTag(null));
+            }
+        }
+    }
+
+    private static CaffeineCache<Integer, String> basicCache() {
+        return new CaffeineCache<>("test", 1000, Duration.of(2, ChronoUnit.DAYS));
+    }
+
+    private static CaffeineCache<Integer, String> virtualThreadCache(int maxConcurrentLoads) {
+        return CaffeineCacheBuilder.<Integer, String>newBuilder("test")
+                .maximumSize(1000)
+                .expireAfterWrite(Duration.of(2, ChronoUnit.DAYS))
+                .virtualThreadLoads(maxConcurrentLoads)
+                .build();
+    }
+
+    private static CaffeineCache<Integer, String> logCache() {
+        return CaffeineCacheBuilder.<Integer, String>newBuilder("test").maximumSize(1000).expireAfterWrite(Duration.of(2, ChronoUnit.DAYS)).persistence(PersistenceMode.LOG).build();
+    }
+
+    private static CaffeineCache<Integer, String> weightedCache(long maxBytes) {
+        return CaffeineCacheBuilder.<Integer, String>newBuilder("test").maximumWeight(maxBytes, Weigher.estimate()).expireAfterWrite(Duration.of(2, ChronoUnit.DAYS)).persistence(PersistenceMode.SNAPSHOT).serializer(Serializer.java()).build();
+    }
+
+    private static CaffeineCache<Integer, String> sharedCache(long maxItem) {
+        return CaffeineCacheBuilder.<Integer, String>newBuilder("test").maximumSize(maxItem).expireAfterWrite(Duration.of(2, ChronoUnit.DAYS)).persistence(PersistenceMode.SHARED).build();
+    }
+
+    private static CaffeineCache<Integer, String> mappedCache(long maxItem) {
+        return CaffeineCacheBuilder.<Integer, String>newBuilder("test").maximumSize(maxItem).expireAfterWrite(Duration.of(2, ChronoUnit.DAYS)).persistence(PersistenceMode.MAPPED).build();
+    }
+
+    public static class DataProvider {
+
+        private int used = 0;
+
+        public String getData(int key) {
+            this.used++;
+            return "test " + key;
+        }
+
+    }
+
+    public static class WrongKeyTypeDataProvider {
+
+        private int used = 0;
+
+        public String getData(Date date) {
+            this.used++;
+            return date.toString();
+        }
+    }
+
+    public static class WrongDataTypeDataProvider {
+
+        private int used = 0;
+
+        public Date getData(long key) {
+            this.used++;
+            return new Date(key);
+        }
+    }
+
+    public static class NotSerializableTypeDataProvider {
+
+        private int used = 0;
+
+        public NotSerializableType getData(int key) {
+            this.used++;
+            return new NotSerializableType("tt", 2);
+        }
+    }
+
+    public static class NotSerializableTypeCodec implements Codec<NotSerializableType> {
+
+        @Override
+        public void write(NotSerializableType value, ByteBuffer buffer) {
+            buffer.putInt(value.data2);
+            Codec.STRING.write(value.data1, buffer);
+        }
+
+        @Override
+        public NotSerializableType read(ByteBuffer buffer) {
+            var data2 = buffer.getInt();
+            return new NotSerializableType(Codec.STRING.read(buffer), data2);
         }
     }
 
@@ -0,0 +1,66 @@
+package be.yildizgames.module.caching.caffeine;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+
+import static be.yildizgames.module.caching.caffeine.CaffeineCache.DATA;
+import static be.yildizgames.module.caching.caffeine.CaffeineCache.METADATA;
+import static be.yildizgames.module.caching.caffeine.CaffeineCache.PREVIOUS_DATA;
+
+public class IntKeyCacheTest {
+
+    @BeforeEach
+    void clean() throws IOException {
+        Files.deleteIfExists(Path.of(DATA.replace("{NAME}", "test")));
+        Files.deleteIfExists(Path.of(PREVIOUS_DATA.replace("{NAME}", "test")));
+        Files.deleteIfExists(Path.of(METADATA.replace("{NAME}", "test")));
+    }
+
+    @Nested
+    class Get {
+
+        @Test
+        void happyFlow() {
+            try(var cache = intKeyCache()) {
+                Assertions.assertNull(cache.getOrNull(1));
+                Assertions.assertEquals("test 1", cache.get(1, k -> "test " + k));
+                Assertions.assertEquals("test 1", cache.getOrDefault(1, "default"));
+            }
+        }
+
+        @Test
+        void negativeKey() {
+            try(var cache = intKeyCache()) {
+                cache.put(-7, "test -7");
+                Assertions.assertEquals("test -7", cache.getOrNull(-7));
+                Assertions.assertSame(cache.key(-100_000), cache.key(-100_000));
+            }
+        }
+    }
+
+    @Nested
+    class Persistence {
+
+        @Test
+        void reloaded() {
+            try(var cache = intKeyCache()) {
+                cache.put(1, "test 1");
+            }
+            try(var cache = intKeyCache()) {
+                Assertions.assertEquals("test 1", cache.getOrNull(1));
+            }
+        }
+    }
+
+    private static IntKeyCache<String> intKeyCache() {
+        return new IntKeyCache<>("test", 1000, Duration.of(2, ChronoUnit.DAYS), PersistenceMode.SNAPSHOT, Codec.STRING);
+    }
+}
@@ -0,0 +1,192 @@
+package be.yildizgames.module.caching.caffeine;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+public class InvalidationTransportTest {
+
+    @Nested
+    class Loopback {
+
+        @Test
+        void delivered() {
+            try(var first = InvalidationTransport.loopback("loopback"); var second = InvalidationTransport.loopback("loopback")) {
+                var received = new CopyOnWriteArrayList<Integer>();
+                second.subscribe(b -> received.add(b.getInt()));
+                first.send(ByteBuffer.allocate(4).putInt(0, 42));
+                Assertions.assertEquals(List.of(42), received);
+            }
+        }
+
+        @Test
+        void otherGroup() {
+            try(var first = InvalidationTransport.loopback("loopback"); var second = InvalidationTransport.loopback("other")) {
+                var received = new CopyOnWriteArrayList<Integer>();
+                second.subscribe(b -> received.add(b.getInt()));
+                first.send(ByteBuffer.allocate(4).putInt(0, 42));
+                Assertions.assertTrue(received.isEmpty());
+            }
+        }
+
+        @Test
+        void unsubscribed() {
+            try(var first = InvalidationTransport.loopback("loopback"); var second = InvalidationTransport.loopback("loopback")) {
+                var received = new CopyOnWriteArrayList<Integer>();
+                Consumer<ByteBuffer> subscriber = b -> received.add(b.getInt());
+                second.subscribe(subscriber);
+                second.unsubscribe(subscriber);
+                first.send(ByteBuffer.allocate(4).putInt(0, 42));
+                Assertions.assertTrue(received.isEmpty());
+            }
+        }
+
+        @Test
+        void nullGroup() {
+            Assertions.assertThrows(IllegalArgumentException.class, () -> InvalidationTransport.loopback(null));
+        }
+    }
+
+    @Nested
+    class Multicast {
+
+        @Test
+        void delivered() throws IOException {
+            var group = new InetSocketAddress(InetAddress.getByName("239.255.42.42"), 45842);
+            try(var first = InvalidationTransport.multicast(group, multicastInterface()); var second = InvalidationTransport.multicast(group, multicastInterface())) {
+                var received = new CopyOnWriteArrayList<Integer>();
+                second.subscribe(b -> received.add(b.getInt()));
+                first.send(ByteBuffer.allocate(4).putInt(0, 42));
+                Assertions.assertTrue(waitFor(() -> received.contains(42)));
+            }
+        }
+
+        @Test
+        void notMulticastAddress() {
+            Assertions.assertThrows(IllegalArgumentException.class, () -> InvalidationTransport.multicast(new InetSocketAddress(InetAddress.getLoopbackAddress(), 45842), multicastInterface()));
+        }
+
+        @Test
+        void nullInterface() {
+            Assertions.assertThrows(IllegalArgumentException.class, () -> InvalidationTransport.multicast(new InetSocketAddress(InetAddress.getByName("239.255.42.42"), 45842), null));
+        }
+    }
+
+    @Nested
+    class Cache {
+
+        @Test
+        void putInvalidatesOtherNode() {
+            try(var transport = InvalidationTransport.loopback("nodes");
+                var first = builder(transport).build();
+                var second = builder(transport).build()) {
+                second.get(1, k -> "test 1");
+                first.put(1, "test 1 updated");
+                Assertions.assertTrue(waitFor(() -> "other".equals(second.get(1, k -> "other").get())));
+                Assertions.assertEquals("test 1 updated", first.get(1, k -> "other").get());
+            }
+        }
+
+        @Test
+        void invalidateAllClearsOtherNode() {
+            try(var transport = InvalidationTransport.loopback("nodes");
+                var first = builder(transport).build();
+                var second = builder(transport).build()) {
+                second.get(1, k -> "test 1");
+                second.get(2, k -> "test 2");
+                first.invalidateAll();
+                Assertions.assertTrue(waitFor(() -> "other".equals(second.get(2, k -> "other").get())));
+                Assertions.assertEquals("other", second.get(1, k -> "other").get());
+            }
+        }
+
+        @Test
+        void tagInvalidatesOtherNode() {
+            try(var transport = InvalidationTransport.loopback("nodes");
+                var first = builder(transport).build();
+                var second = builder(transport).build()) {
+                first.put(1, "test 1", "group");
+                second.get(1, k -> "test 1");
+                second.get(2, k -> "test 2");
+                first.invalidateTag("group");
+                Assertions.assertTrue(waitFor(() -> "other".equals(second.get(1, k -> "other").get())));
+                Assertions.assertEquals("test 2", second.get(2, k -> "other").get());
+            }
+        }
+
+        @Test
+        void otherCacheNotInvalidated() {
+            try(var transport = InvalidationTransport.loopback("nodes");
+                var first = builder(transport).build();
+                var second = CaffeineCacheBuilder.<Integer, String>newBuilder("other")
+                        .maximumSize(1000)
+                        .expireAfterWrite(Duration.of(2, ChronoUnit.DAYS))
+                        .persistence(PersistenceMode.NONE)
+                        .invalidation(transport, Duration.ofMillis(5))
+                        .build()) {
+                second.get(1, k -> "test 1");
+                first.put(1, "test 1 updated");
+                first.close();
+                Assertions.assertEquals("test 1", second.get(1, k -> "other").get());
+            }
+        }
+
+        @Test
+        void invalidDelay() {
+            try(var transport = InvalidationTransport.loopback("nodes")) {
+                Assertions.assertThrows(IllegalArgumentException.class, () -> builder(transport).invalidation(transport, Duration.ZERO));
+            }
+        }
+    }
+
+    private static CaffeineCacheBuilder<Integer, String> builder(InvalidationTransport transport) {
+        return CaffeineCacheBuilder.<Integer, String>newBuilder("node")
+                .maximumSize(1000)
+                .expireAfterWrite(Duration.of(2, ChronoUnit.DAYS))
+                .persistence(PersistenceMode.NONE)
+                .serializer(Serializer.of(Codec.INTEGER, Codec.STRING))
+                .invalidation(transport, Duration.ofMillis(5));
+    }
+
+    private static boolean waitFor(BooleanSupplier condition) {
+        var end = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (System.nanoTime() < end) {
+            if(condition.getAsBoolean()) {
+                return true;
+            }
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private static NetworkInterface multicastInterface() throws SocketException {
+        return NetworkInterface.networkInterfaces()
+                .filter(n -> {
+                    try {
+                        return n.isUp() && n.supportsMulticast();
+                    } catch (SocketException e) {
+                        return false;
+                    }
+                })
+                .findFirst()
+                .orElseThrow(() -> new SocketException("No multicast interface."));
+    }
+}
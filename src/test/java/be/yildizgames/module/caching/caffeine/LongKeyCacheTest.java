@@ -0,0 +1,129 @@
+package be.yildizgames.module.caching.caffeine;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+
+import static be.yildizgames.module.caching.caffeine.CaffeineCache.DATA;
+import static be.yildizgames.module.caching.caffeine.CaffeineCache.METADATA;
+import static be.yildizgames.module.caching.caffeine.CaffeineCache.PREVIOUS_DATA;
+
+public class LongKeyCacheTest {
+
+    @BeforeEach
+    void clean() throws IOException {
+        Files.deleteIfExists(Path.of(DATA.replace("{NAME}", "test")));
+        Files.deleteIfExists(Path.of(PREVIOUS_DATA.replace("{NAME}", "test")));
+        Files.deleteIfExists(Path.of(METADATA.replace("{NAME}", "test")));
+    }
+
+    @Nested
+    class Constructor {
+
+        @Test
+        void nullCodec() {
+            Assertions.assertThrows(IllegalArgumentException.class, () -> new LongKeyCache<String>("test", 1000, Duration.of(2, ChronoUnit.DAYS), PersistenceMode.SNAPSHOT, null));
+        }
+
+        @Test
+        void nullBuilder() {
+            Assertions.assertThrows(IllegalArgumentException.class, () -> new LongKeyCache<String>(null));
+        }
+    }
+
+    @Nested
+    class Get {
+
+        @Test
+        void notStored() {
+            try(var cache = longKeyCache()) {
+                Assertions.assertNull(cache.getOrNull(1L));
+                Assertions.assertEquals("default", cache.getOrDefault(1L, "default"));
+            }
+        }
+
+        @Test
+        void stored() {
+            try(var cache = longKeyCache()) {
+                cache.put(1L, "test 1");
+                Assertions.assertEquals("test 1", cache.getOrNull(1L));
+                Assertions.assertEquals("test 1", cache.getOrDefault(1L, "default"));
+            }
+        }
+
+        @Test
+        void withProvider() {
+            try(var cache = longKeyCache()) {
+                Assertions.assertEquals("test 5", cache.get(5L, k -> "test " + k));
+                Assertions.assertEquals("test 5", cache.get(5L, k -> "other"));
+                Assertions.assertNull(cache.get(6L, k -> null));
+                Assertions.assertEquals(1, cache.statistics().hitCount());
+                Assertions.assertEquals(2, cache.statistics().missCount());
+            }
+        }
+
+        @Test
+        void keyBoxedOnce() {
+            try(var cache = longKeyCache()) {
+                Assertions.assertSame(cache.key(1_000_000_007L), cache.key(1_000_000_007L));
+                Assertions.assertEquals(Long.valueOf(-5L), cache.key(-5L));
+            }
+        }
+    }
+
+    @Nested
+    class Persistence {
+
+        @Test
+        void reloaded() throws IOException {
+            try(var cache = longKeyCache()) {
+                for(long i = 0; i < 1000; i++) {
+                    cache.put(i * 1_000_000_007L, "v");
+                }
+            }
+            // header + 1000 entries of [expiration][key length][key][value length][value]
+            Assertions.assertTrue(Files.size(Path.of(DATA.replace("{NAME}", "test"))) <= SnapshotFile.HEADER_SIZE + 1000 * (8 + 4 + 8 + 4 + 1));
+            try(var cache = longKeyCache()) {
+                for(long i = 0; i < 1000; i++) {
+                    Assertions.assertEquals("v", cache.getOrNull(i * 1_000_000_007L));
+                }
+            }
+        }
+
+        @Test
+        void builderKeysCompact() throws IOException {
+            try(var cache = new LongKeyCache<>(CaffeineCacheBuilder.<Long, String>newBuilder("test")
+                    .maximumSize(1000)
+                    .expireAfterWrite(Duration.of(2, ChronoUnit.DAYS))
+                    .serializer(Serializer.of(Codec.java(), Codec.STRING)))) {
+                cache.put(1L, "v");
+            }
+            Assertions.assertEquals(SnapshotFile.HEADER_SIZE + 8 + 4 + 8 + 4 + 1, Files.size(Path.of(DATA.replace("{NAME}", "test"))));
+        }
+
+        @Test
+        void builderReused() {
+            var builder = CaffeineCacheBuilder.<Long, String>newBuilder("test")
+                    .maximumSize(1000)
+                    .expireAfterWrite(Duration.of(2, ChronoUnit.DAYS))
+                    .serializer(Serializer.of(Codec.LONG, Codec.STRING));
+            try(var cache = new LongKeyCache<>(builder)) {
+                cache.put(1L, "v");
+            }
+            try(var cache = new LongKeyCache<>(builder)) {
+                Assertions.assertEquals("v", cache.getOrNull(1L));
+            }
+        }
+    }
+
+    private static LongKeyCache<String> longKeyCache() {
+        return new LongKeyCache<>("test", 10_000, Duration.of(2, ChronoUnit.DAYS), PersistenceMode.SNAPSHOT, Codec.STRING);
+    }
+}
@@ -0,0 +1,232 @@
+package be.yildizgames.module.caching.caffeine;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static be.yildizgames.module.caching.caffeine.CaffeineCache.DATA;
+import static be.yildizgames.module.caching.caffeine.CaffeineCache.METADATA;
+import static be.yildizgames.module.caching.caffeine.CaffeineCache.PREVIOUS_DATA;
+
+public class TransparentCaffeineCacheTest {
+
+    @BeforeEach
+    void clean() throws IOException {
+        Files.deleteIfExists(Path.of(DATA.replace("{NAME}", "test")));
+        Files.deleteIfExists(Path.of(PREVIOUS_DATA.replace("{NAME}", "test")));
+        Files.deleteIfExists(Path.of(METADATA.replace("{NAME}", "test")));
+    }
+
+    @Nested
+    class NegativeCaching {
+
+        @Test
+        void failureRemembered() {
+            var calls = new AtomicInteger();
+            try(var cache = builder().negativeCaching(Duration.ofMinutes(1)).buildTransparent()) {
+                Assertions.assertTrue(cache.get(1, k -> failing(calls)).isEmpty());
+                Assertions.assertTrue(cache.get(1, k -> "test " + k).isEmpty());
+                Assertions.assertEquals(1, calls.get());
+                Assertions.assertEquals("test 2", cache.get(2, k -> "test " + k).get());
+            }
+        }
+
+        @Test
+        void failureExpires() throws InterruptedException {
+            var calls = new AtomicInteger();
+            try(var cache = builder().negativeCaching(Duration.ofMillis(50)).buildTransparent()) {
+                Assertions.assertTrue(cache.get(1, k -> failing(calls)).isEmpty());
+                Thread.sleep(150);
+                Assertions.assertEquals("test 1", cache.get(1, k -> "test " + k).get());
+            }
+        }
+
+        @Test
+        void disabled() {
+            var calls = new AtomicInteger();
+            try(var cache = builder().negativeCaching(Duration.ZERO).buildTransparent()) {
+                cache.get(1, k -> failing(calls));
+                cache.get(1, k -> failing(calls));
+                Assertions.assertEquals(2, calls.get());
+            }
+        }
+
+        @Test
+        void getAll() {
+            var calls = new AtomicInteger();
+            try(var cache = builder().negativeCaching(Duration.ofMinutes(1)).buildTransparent()) {
+                Assertions.assertTrue(cache.getAll(List.of(1, 2), k -> failing(calls)).isEmpty());
+                Assertions.assertEquals(Map.of(3, "test 3"), cache.getAll(List.of(1, 2, 3), keys -> {
+                    Assertions.assertEquals(1, keys.size());
+                    return Map.of(3, "test 3");
+                }));
+            }
+        }
+
+        @Test
+        void negativeTtl() {
+            Assertions.assertThrows(IllegalArgumentException.class, () -> builder().negativeCaching(Duration.ofMillis(-1)));
+            Assertions.assertThrows(IllegalArgumentException.class, () -> builder().negativeCaching(null));
+        }
+    }
+
+    @Nested
+    class CircuitBreaker {
+
+        @Test
+        void opensAfterFailures() {
+            var calls = new AtomicInteger();
+            try(var cache = builder().negativeCaching(Duration.ZERO).circuitBreaker(2, Duration.ofMinutes(1)).buildTransparent()) {
+                cache.get(1, k -> failing(calls));
+                Assertions.assertFalse(cache.isSuspended());
+                cache.get(2, k -> failing(calls));
+                Assertions.assertTrue(cache.isSuspended());
+                Assertions.assertTrue(cache.get(3, k -> failing(calls)).isEmpty());
+                Assertions.assertEquals(2, calls.get());
+            }
+        }
+
+        @Test
+        void cachedValuesStillReturned() {
+            var calls = new AtomicInteger();
+            try(var cache = builder().negativeCaching(Duration.ZERO).circuitBreaker(1, Duration.ofMinutes(1)).buildTransparent()) {
+                cache.put(1, "test 1");
+                cache.get(2, k -> failing(calls));
+                Assertions.assertTrue(cache.isSuspended());
+                Assertions.assertEquals("test 1", cache.get(1, k -> failing(calls)).get());
+            }
+        }
+
+        @Test
+        void closesAfterSuccess() throws InterruptedException {
+            var calls = new AtomicInteger();
+            try(var cache = builder().negativeCaching(Duration.ZERO).circuitBreaker(1, Duration.ofMillis(50)).buildTransparent()) {
+                cache.get(1, k -> failing(calls));
+                Assertions.assertTrue(cache.get(2, k -> "test " + k).isEmpty());
+                Thread.sleep(150);
+                Assertions.assertEquals("test 2", cache.get(2, k -> "test " + k).get());
+                Assertions.assertFalse(cache.isSuspended());
+            }
+        }
+
+        @Test
+        void invalidOptions() {
+            Assertions.assertThrows(IllegalArgumentException.class, () -> builder().circuitBreaker(0, Duration.ofSeconds(1)));
+            Assertions.assertThrows(IllegalArgumentException.class, () -> builder().circuitBreaker(1, Duration.ZERO));
+            Assertions.assertThrows(IllegalArgumentException.class, () -> builder().circuitBreaker(1, null));
+        }
+    }
+
+    @Nested
+    class Degraded {
+
+        @Test
+        void providerCalled() {
+            try(var cache = new TransparentCaffeineCache<Integer, String>("test", 0, Duration.of(2, ChronoUnit.DAYS))) {
+                Assertions.assertEquals("test 1", cache.get(1, k -> "test " + k).get());
+                Assertions.assertEquals(Map.of(1, "test 1"), cache.getAll(List.of(1), keys -> Map.of(1, "test 1")));
+            }
+        }
+
+        @Test
+        void loadsCoalesced() throws Exception {
+            var calls = new AtomicInteger();
+            var started = new CountDownLatch(1);
+            var release = new CountDownLatch(1);
+            var executor = Executors.newFixedThreadPool(4);
+            try(var cache = new TransparentCaffeineCache<Integer, String>("test", 0, Duration.of(2, ChronoUnit.DAYS))) {
+                var first = executor.submit(() -> cache.get(1, k -> {
+                    calls.incrementAndGet();
+                    started.countDown();
+                    await(release);
+                    return "test " + k;
+                }).orElse(null));
+                Assertions.assertTrue(started.await(5, TimeUnit.SECONDS));
+                var others = List.of(
+                        executor.submit(() -> cache.get(1, k -> "other " + calls.incrementAndGet()).orElse(null)),
+                        executor.submit(() -> cache.get(1, k -> "other " + calls.incrementAndGet()).orElse(null)));
+                Thread.sleep(100);
+                release.countDown();
+                Assertions.assertEquals("test 1", first.get(5, TimeUnit.SECONDS));
+                for (Future<String> other : others) {
+                    Assertions.assertEquals("test 1", other.get(5, TimeUnit.SECONDS));
+                }
+                Assertions.assertEquals(1, calls.get());
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+
+        @Test
+        void bulkLoadsCoalesced() throws Exception {
+            var calls = new AtomicInteger();
+            var started = new CountDownLatch(1);
+            var release = new CountDownLatch(1);
+            var executor = Executors.newFixedThreadPool(2);
+            try(var cache = new TransparentCaffeineCache<Integer, String>("test", 0, Duration.of(2, ChronoUnit.DAYS))) {
+                var first = executor.submit(() -> cache.get(1, k -> {
+                    calls.incrementAndGet();
+                    started.countDown();
+                    await(release);
+                    return "test " + k;
+                }).orElse(null));
+                Assertions.assertTrue(started.await(5, TimeUnit.SECONDS));
+                var all = executor.submit(() -> cache.getAll(List.of(1, 2), keys -> {
+                    calls.incrementAndGet();
+                    Assertions.assertEquals(Set.of(2), keys);
+                    return Map.of(2, "test 2");
+                }));
+                Thread.sleep(100);
+                release.countDown();
+                Assertions.assertEquals("test 1", first.get(5, TimeUnit.SECONDS));
+                Assertions.assertEquals(Map.of(1, "test 1", 2, "test 2"), all.get(5, TimeUnit.SECONDS));
+                Assertions.assertEquals(2, calls.get());
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+
+        @Test
+        void reentrantLoad() {
+            try(var cache = new TransparentCaffeineCache<Integer, String>("test", 0, Duration.of(2, ChronoUnit.DAYS))) {
+                var value = cache.get(1, k -> cache.get(k, j -> "inner " + j).orElse(null));
+                Assertions.assertEquals("inner 1", value.get());
+            }
+        }
+    }
+
+    private static <T> T failing(AtomicInteger calls) {
+        calls.incrementAndGet();
+        throw new IllegalStateException("Backend unavailable");
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static CaffeineCacheBuilder<Integer, String> builder() {
+        return CaffeineCacheBuilder.<Integer, String>newBuilder("test")
+                .maximumSize(1000)
+                .expireAfterWrite(Duration.of(2, ChronoUnit.DAYS))
+                .persistence(PersistenceMode.NONE);
+    }
+}